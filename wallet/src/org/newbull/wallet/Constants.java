@@ -75,8 +75,23 @@ public final class Constants {
         /** Filename of the wallet. */
         public static final String WALLET_FILENAME_PROTOBUF = "wallet-protobuf" + FILENAME_NETWORK_SUFFIX;
 
-        /** How often the wallet is autosaved. */
-        public static final long WALLET_AUTOSAVE_DELAY_MS = 3 * DateUtils.SECOND_IN_MILLIS;
+        /** Filename of the wallet journal, which records changes since the wallet was last saved. */
+        public static final String WALLET_JOURNAL_FILENAME = "wallet-journal" + FILENAME_NETWORK_SUFFIX;
+
+        /** Filename of the wallet UI snapshot, which is shown while the wallet is still loading. */
+        public static final String WALLET_UI_SNAPSHOT_FILENAME = "wallet-ui-snapshot" + FILENAME_NETWORK_SUFFIX;
+
+        /** How often the wallet is autosaved. Changes in between are recorded in the journal. */
+        public static final long WALLET_AUTOSAVE_DELAY_MS = DateUtils.MINUTE_IN_MILLIS;
+
+        /** Autosave delay while the block chain is downloaded or replayed. */
+        public static final long WALLET_AUTOSAVE_DELAY_SYNCING_MS = DateUtils.MINUTE_IN_MILLIS * 5;
+
+        /** Autosave delay while an outgoing transaction is pending. */
+        public static final long WALLET_AUTOSAVE_DELAY_PENDING_SEND_MS = DateUtils.SECOND_IN_MILLIS * 3;
+
+        /** Block chain lag from which on it is considered to be downloading. */
+        public static final long WALLET_AUTOSAVE_SYNCING_LAG_MS = DateUtils.HOUR_IN_MILLIS;
 
         /** Filename of the automatic key backup (old format, can only be read). */
         public static final String WALLET_KEY_BACKUP_BASE58 = "key-backup-base58" + FILENAME_NETWORK_SUFFIX;
@@ -90,12 +105,21 @@ public final class Constants {
         /** Filename of the block store for storing the chain. */
         public static final String BLOCKCHAIN_FILENAME = "blockchain" + FILENAME_NETWORK_SUFFIX;
 
-        /** Capacity of the block store. */
-        public static final int BLOCKCHAIN_STORE_CAPACITY = 10000;
+        /** Capacity of the block store, in block headers. */
+        public static final int BLOCKCHAIN_STORE_CAPACITY = 50000;
+
+        /** Capacity of the block store on low memory devices, in block headers. */
+        public static final int BLOCKCHAIN_STORE_CAPACITY_LOWRAM = 10000;
+
+        /** Filename of the peer scores, which are kept across service restarts. */
+        public static final String PEER_SCORES_FILENAME = "peer-scores" + FILENAME_NETWORK_SUFFIX + ".txt";
 
         /** Name of the asset containing the block checkpoints. */
         public static final String CHECKPOINTS_ASSET = "checkpoints.txt";
 
+        /** Name of the asset containing the binary index of block checkpoints. Must not be compressed. */
+        public static final String CHECKPOINTS_INDEX_ASSET = "checkpoints.bin";
+
         /** Name of the asset containing hardcoded fees. */
         public static final String FEES_ASSET = "fees.txt";
 
@@ -104,6 +128,10 @@ public final class Constants {
 
         /** Name of the asset containing Electrum servers. */
         public static final String ELECTRUM_SERVERS_ASSET = "electrum-servers.txt";
+
+        /** Filename of the Electrum server health records, which are kept across sweeps. */
+        public static final String ELECTRUM_SERVER_HEALTH_FILENAME = "electrum-server-health" + FILENAME_NETWORK_SUFFIX
+                + ".txt";
     }
 
     /** URL to fetch version alerts from. */
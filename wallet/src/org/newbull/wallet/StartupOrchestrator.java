@@ -0,0 +1,167 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet;
+
+import com.google.common.base.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the steps of app initialization, either right away on the calling thread or on a small pool if they don't
+ * depend on each other, and keeps a timing breakdown. The breakdown is logged as soon as all steps have finished, and
+ * once more when the first frame is drawn.
+ *
+ * @author agent
+ */
+public final class StartupOrchestrator {
+    private final long startedAt;
+    private final ExecutorService executor;
+    private final List<Future<?>> backgroundSteps = new ArrayList<>();
+    private final AtomicInteger numUnfinished = new AtomicInteger(1); // the calling thread itself
+    private final List<Timing> timings = new ArrayList<>();
+    private long firstFrameAt = 0;
+
+    private static final Logger log = LoggerFactory.getLogger(StartupOrchestrator.class);
+
+    /**
+     * @param startedAt
+     *            time the process was started, in milliseconds since the epoch
+     */
+    public StartupOrchestrator(final long startedAt, final int numThreads) {
+        this.startedAt = startedAt;
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(numThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "startup-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Run a step right away, on the calling thread. */
+    public void run(final String name, final Runnable step) {
+        final Stopwatch watch = Stopwatch.createStarted();
+        step.run();
+        record(name, false, watch.elapsed(TimeUnit.MILLISECONDS));
+    }
+
+    /** Run a step on the pool. It must not depend on any step that hasn't finished yet. */
+    public void runInBackground(final String name, final Runnable step) {
+        numUnfinished.incrementAndGet();
+        final Future<?> future = executor.submit(() -> {
+            final Stopwatch watch = Stopwatch.createStarted();
+            try {
+                step.run();
+            } catch (final RuntimeException x) {
+                log.warn("problem during startup step " + name, x);
+            } finally {
+                record(name, true, watch.elapsed(TimeUnit.MILLISECONDS));
+                maybeFinished();
+            }
+        });
+        synchronized (this) {
+            backgroundSteps.add(future);
+        }
+    }
+
+    /** Signal that the calling thread has submitted all its steps. */
+    public void submitted() {
+        executor.shutdown();
+        maybeFinished();
+    }
+
+    /** Block until all background steps have finished. Needed before relying on their results. */
+    public void await() {
+        final List<Future<?>> backgroundSteps;
+        synchronized (this) {
+            backgroundSteps = new ArrayList<>(this.backgroundSteps);
+        }
+        final Stopwatch watch = Stopwatch.createStarted();
+        boolean waited = false;
+        for (final Future<?> future : backgroundSteps) {
+            if (future.isDone())
+                continue;
+            waited = true;
+            try {
+                future.get();
+            } catch (final InterruptedException x) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final ExecutionException x) {
+                // already logged by the step
+            }
+        }
+        if (waited)
+            log.info("waited {} for startup steps to finish", watch);
+    }
+
+    /** Signal that the first frame of the UI is about to be drawn. */
+    public void firstFrame() {
+        synchronized (this) {
+            if (firstFrameAt != 0)
+                return;
+            firstFrameAt = System.currentTimeMillis();
+        }
+        log.info("first frame after {} ms; {}", firstFrameAt - startedAt, this);
+    }
+
+    private void record(final String name, final boolean background, final long durationMs) {
+        synchronized (this) {
+            timings.add(new Timing(name, background, durationMs));
+        }
+    }
+
+    private void maybeFinished() {
+        if (numUnfinished.decrementAndGet() == 0)
+            log.info("startup finished after {} ms; {}", System.currentTimeMillis() - startedAt, this);
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder builder = new StringBuilder(getClass().getSimpleName()).append('[');
+        for (final Timing timing : timings) {
+            if (builder.charAt(builder.length() - 1) != '[')
+                builder.append(' ');
+            builder.append(timing.name).append(timing.background ? "(bg)=" : "=").append(timing.durationMs)
+                    .append("ms");
+        }
+        if (firstFrameAt != 0)
+            builder.append(" firstFrame=").append(firstFrameAt - startedAt).append("ms");
+        return builder.append(']').toString();
+    }
+
+    private static final class Timing {
+        final String name;
+        final boolean background;
+        final long durationMs;
+
+        Timing(final String name, final boolean background, final long durationMs) {
+            this.name = name;
+            this.background = background;
+            this.durationMs = durationMs;
+        }
+    }
+}
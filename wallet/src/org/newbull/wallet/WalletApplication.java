@@ -28,11 +28,14 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.media.AudioAttributes;
 import android.media.AudioManager;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
+import android.os.Handler;
 import android.os.Looper;
 import android.os.StrictMode;
 import android.preference.PreferenceManager;
 import androidx.annotation.AnyThread;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.lifecycle.MutableLiveData;
 import com.google.common.base.Splitter;
@@ -41,10 +44,16 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
+import org.newbull.wallet.addressbook.AddressBookLabelIndex;
+import org.newbull.wallet.data.WalletUiSnapshot;
+import org.newbull.wallet.electrum.ElectrumServer;
+import org.newbull.wallet.electrum.ElectrumServerRegistry;
 import org.newbull.wallet.service.BlockchainService;
 import org.newbull.wallet.service.BlockchainState;
 import org.newbull.wallet.ui.Event;
+import org.newbull.wallet.util.Assets;
 import org.newbull.wallet.util.Bluetooth;
 import org.newbull.wallet.util.CrashReporter;
 import org.newbull.wallet.util.Toast;
@@ -56,13 +65,15 @@ import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.UnreadableWalletException;
 import org.bitcoinj.wallet.Wallet;
 import org.bitcoinj.wallet.WalletFiles;
-import org.bitcoinj.wallet.WalletProtobufSerializer;
+import org.bitcoinj.wallet.WalletTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -75,23 +86,42 @@ public class WalletApplication extends Application {
     private ActivityManager activityManager;
 
     private File walletFile;
-    private WalletFiles walletFiles;
+    private volatile WalletFiles walletFiles;
+    private File walletJournalFile;
+    private File walletUiSnapshotFile;
+    private final SettableFuture<WalletUiSnapshot> walletUiSnapshot = SettableFuture.create(); // null if none
+    private final Executor mainThreadExecutor = new Handler(Looper.getMainLooper())::post;
+    private WalletJournal walletJournal;
+    @Nullable
+    private volatile WalletLoader.Metrics walletLoadMetrics;
+    @Nullable
+    private volatile WalletAudit walletAudit;
+    private final WalletAutosave walletAutosave = new WalletAutosave(Constants.Files.WALLET_AUTOSAVE_DELAY_MS,
+            Constants.Files.WALLET_AUTOSAVE_DELAY_SYNCING_MS, Constants.Files.WALLET_AUTOSAVE_DELAY_PENDING_SEND_MS);
     private Configuration config;
+    private final Object electrumServerRegistryLock = new Object();
+    private ElectrumServerRegistry electrumServerRegistry; // guarded by electrumServerRegistryLock
+    private final StartupOrchestrator startup = new StartupOrchestrator(TIME_CREATE_APPLICATION, STARTUP_NUM_THREADS);
 
     public final MutableLiveData<BlockchainState> blockchainState = new MutableLiveData<>();
     public final MutableLiveData<Integer> peerState = new MutableLiveData<>();
     public final MutableLiveData<Event<Void>> walletChanged = new MutableLiveData<>();
+    public final MutableLiveData<WalletLoader.Progress> walletLoadProgress = new MutableLiveData<>();
 
     public static final long TIME_CREATE_APPLICATION = System.currentTimeMillis();
     private static final String BIP39_WORDLIST_FILENAME = "bip39-wordlist.txt";
+    private static final int UI_SNAPSHOT_NUM_ROWS = 50;
+    private static final int STARTUP_NUM_THREADS = 2;
+    private static final int AUDIT_NUM_THREADS = Math.max(1,
+            Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
 
     private static final Logger log = LoggerFactory.getLogger(WalletApplication.class);
 
     @Override
     public void onCreate() {
-        new LinuxSecureRandom(); // init proper random number generator
+        startup.run("random", () -> new LinuxSecureRandom()); // init proper random number generator
 
-        Logging.init(getFilesDir());
+        startup.run("logging", () -> Logging.init(getFilesDir()));
 
         initStrictMode();
 
@@ -104,28 +134,47 @@ public class WalletApplication extends Application {
 
         super.onCreate();
 
-        CrashReporter.init(getCacheDir());
-
-        final PackageInfo packageInfo = packageInfo();
+        startup.run("crash-reporter", () -> CrashReporter.init(getCacheDir()));
 
         Threading.uncaughtExceptionHandler = (thread, throwable) -> {
             log.info("bitcoinj uncaught exception", throwable);
-            CrashReporter.saveBackgroundTrace(throwable, packageInfo);
+            CrashReporter.saveBackgroundTrace(throwable, packageInfo());
         };
 
         activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
 
         walletFile = getFileStreamPath(Constants.Files.WALLET_FILENAME_PROTOBUF);
+        walletJournalFile = getFileStreamPath(Constants.Files.WALLET_JOURNAL_FILENAME);
+        walletUiSnapshotFile = getFileStreamPath(Constants.Files.WALLET_UI_SNAPSHOT_FILENAME);
+
+        // before anything can write to the files dir, as it removes temp files
+        startup.run("cleanup-files", () -> cleanupFiles());
+
+        // independent of each other, results are awaited by components that need them
+        startup.runInBackground("ui-snapshot", () -> walletUiSnapshot.set(readWalletUiSnapshot()));
+        startup.runInBackground("config", () -> {
+            final Configuration config = getConfiguration();
+            config.updateLastVersionCode(packageInfo().versionCode);
+            final BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+            if (bluetoothAdapter != null)
+                config.updateLastBluetoothAddress(Bluetooth.getAddress(bluetoothAdapter));
+        });
+        startup.runInBackground("notification-channels", () -> initNotificationManager());
+        startup.runInBackground("address-book-index", () -> AddressBookLabelIndex.get(this));
 
-        final Configuration config = getConfiguration();
-        config.updateLastVersionCode(packageInfo.versionCode);
-        final BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (bluetoothAdapter != null)
-            config.updateLastBluetoothAddress(Bluetooth.getAddress(bluetoothAdapter));
+        blockchainState.observeForever(state -> walletAutosave.setSyncing(state.replaying
+                || (state.bestChainDate != null && System.currentTimeMillis()
+                        - state.bestChainDate.getTime() > Constants.Files.WALLET_AUTOSAVE_SYNCING_LAG_MS)));
 
-        cleanupFiles();
+        startup.submitted();
+    }
 
-        initNotificationManager();
+    /**
+     * Orchestrates app initialization. Components that post notifications or rely on the configuration being
+     * up-to-date call {@link StartupOrchestrator#await()} first.
+     */
+    public StartupOrchestrator getStartup() {
+        return startup;
     }
 
     public synchronized Configuration getConfiguration() {
@@ -160,7 +209,6 @@ public class WalletApplication extends Application {
             public void run() {
                 org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
                 synchronized (getWalletLock) {
-                    initMnemonicCode();
                     if (walletFiles == null)
                         loadWalletFromProtobuf();
                 }
@@ -170,26 +218,21 @@ public class WalletApplication extends Application {
             @WorkerThread
             private void loadWalletFromProtobuf() {
                 Wallet wallet;
+                WalletAudit audit = null;
                 if (walletFile.exists()) {
-                    try (final FileInputStream walletStream = new FileInputStream(walletFile)) {
-                        final Stopwatch watch = Stopwatch.createStarted();
-                        wallet = new WalletProtobufSerializer().readWallet(walletStream);
-                        watch.stop();
-
-                        if (!wallet.getParams().equals(Constants.NETWORK_PARAMETERS))
-                            throw new UnreadableWalletException(
-                                    "bad wallet network parameters: " + wallet.getParams().getId());
-
-                        log.info("wallet loaded from: '{}', took {}", walletFile, watch);
+                    try {
+                        wallet = readWalletFile();
+                        try {
+                            WalletJournal.replay(walletJournalFile, wallet);
+                        } catch (final IOException | RuntimeException x) {
+                            log.warn("problem replaying wallet journal, loading wallet without it", x);
+                            wallet = readWalletFile();
+                        }
+                        audit = new WalletAudit(wallet); // snapshot pools while nobody else has the wallet
                     } catch (final IOException | UnreadableWalletException x) {
                         log.warn("problem loading wallet, auto-restoring: " + walletFile, x);
                         wallet = WalletUtils.restoreWalletFromAutoBackup(WalletApplication.this);
-                        if (wallet != null)
-                            new Toast(WalletApplication.this).postLongToast(R.string.toast_wallet_reset);
-                    }
-                    if (!wallet.isConsistent()) {
-                        log.warn("inconsistent wallet, auto-restoring: " + walletFile);
-                        wallet = WalletUtils.restoreWalletFromAutoBackup(WalletApplication.this);
+                        WalletJournal.delete(walletJournalFile); // doesn't belong to the backup
                         if (wallet != null)
                             new Toast(WalletApplication.this).postLongToast(R.string.toast_wallet_reset);
                     }
@@ -197,15 +240,24 @@ public class WalletApplication extends Application {
                     if (!wallet.getParams().equals(Constants.NETWORK_PARAMETERS))
                         throw new Error("bad wallet network parameters: " + wallet.getParams().getId());
 
-                    wallet.cleanup();
-                    walletFiles = wallet.autosaveToFile(walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS,
-                            TimeUnit.MILLISECONDS, null);
+                    if (wallet.isDeterministicUpgradeRequired(Constants.UPGRADE_OUTPUT_SCRIPT_TYPE))
+                        initMnemonicCode(); // upgrading may need to create a seed
+                    autosaveWithJournal(wallet);
+                    walletAudit = audit;
+                    if (audit != null) {
+                        final Wallet auditedWallet = wallet;
+                        final WalletAudit finalAudit = audit;
+                        AsyncTask.execute(() -> auditWallet(auditedWallet, finalAudit));
+                    } else {
+                        wallet.cleanup(); // restored from backup, which is checked already
+                    }
                 } else {
+                    initMnemonicCode();
                     final Stopwatch watch = Stopwatch.createStarted();
                     wallet = Wallet.createDeterministic(Constants.NETWORK_PARAMETERS,
                             Constants.DEFAULT_OUTPUT_SCRIPT_TYPE);
-                    walletFiles = wallet.autosaveToFile(walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS,
-                            TimeUnit.MILLISECONDS, null);
+                    WalletJournal.delete(walletJournalFile);
+                    autosaveWithJournal(wallet);
                     autosaveWalletNow(); // persist...
                     WalletUtils.autoBackupWallet(WalletApplication.this, wallet); // ...and backup asap
                     watch.stop();
@@ -215,33 +267,220 @@ public class WalletApplication extends Application {
                 }
             }
 
-            private void initMnemonicCode() {
-                if (MnemonicCode.INSTANCE == null) {
-                    try {
-                        final Stopwatch watch = Stopwatch.createStarted();
-                        MnemonicCode.INSTANCE = new MnemonicCode(getAssets().open(BIP39_WORDLIST_FILENAME), null);
-                        watch.stop();
-                        log.info("BIP39 wordlist loaded from: '{}', took {}", BIP39_WORDLIST_FILENAME, watch);
-                    } catch (final IOException x) {
-                        throw new Error(x);
+            @WorkerThread
+            private void auditWallet(final Wallet wallet, final WalletAudit audit) {
+                org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+                try {
+                    final String problem = audit.verify(AUDIT_NUM_THREADS);
+                    log.info("wallet audited: {}", audit);
+                    if (problem != null && !wallet.isConsistent()) { // confirm under the wallet lock
+                        log.warn("inconsistent wallet, auto-restoring: " + walletFile + ", " + problem);
+                        final Wallet restoredWallet = WalletUtils.restoreWalletFromAutoBackup(WalletApplication.this);
+                        new Handler(Looper.getMainLooper()).post(() -> {
+                            replaceWallet(restoredWallet);
+                            new Toast(WalletApplication.this).longToast(R.string.toast_wallet_reset);
+                        });
+                        return;
                     }
+                } catch (final InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (final RuntimeException x) {
+                    log.warn("problem auditing wallet", x);
+                    CrashReporter.saveBackgroundTrace(x, packageInfo());
                 }
+
+                final Stopwatch watch = Stopwatch.createStarted();
+                wallet.cleanup();
+                log.info("wallet cleaned up, took {}", watch);
+            }
+
+            @WorkerThread
+            private Wallet readWalletFile() throws IOException, UnreadableWalletException {
+                final WalletLoader loader = new WalletLoader(Constants.NETWORK_PARAMETERS,
+                        walletLoadProgress::postValue);
+                final Wallet wallet = loader.load(walletFile);
+                walletLoadMetrics = loader.getMetrics();
+                log.info("wallet loaded from: '{}', {}", walletFile, walletLoadMetrics);
+                return wallet;
             }
         });
     }
 
+    /**
+     * Load the BIP39 wordlist, if it isn't loaded yet. It is needed only for creating seeds and handling mnemonic
+     * codes, so it is not loaded on startup.
+     */
+    @WorkerThread
+    public void initMnemonicCode() {
+        synchronized (MnemonicCode.class) {
+            if (MnemonicCode.INSTANCE == null) {
+                try {
+                    final Stopwatch watch = Stopwatch.createStarted();
+                    MnemonicCode.INSTANCE = new MnemonicCode(getAssets().open(BIP39_WORDLIST_FILENAME), null);
+                    watch.stop();
+                    log.info("BIP39 wordlist loaded from: '{}', took {}", BIP39_WORDLIST_FILENAME, watch);
+                } catch (final IOException x) {
+                    throw new Error(x);
+                }
+            }
+        }
+    }
+
+    private void autosaveWithJournal(final Wallet wallet) {
+        walletJournal = new WalletJournal(walletJournalFile);
+        // scheduling is up to walletAutosave; bitcoinj's own delay is a fallback that bounds how long a change can go
+        // unsaved
+        walletFiles = wallet.autosaveToFile(walletFile, walletAutosave.getMaxDelayMs(), TimeUnit.MILLISECONDS,
+                walletAutosave);
+        walletJournal.attach(wallet, walletFiles);
+        walletAutosave.attach(wallet, walletFiles, walletJournal, new UiSnapshotWriter(wallet));
+    }
+
+    /** Whether the wallet has been loaded, so that {@link #getWallet()} will return without delay. */
+    @AnyThread
+    public boolean isWalletLoaded() {
+        return walletFiles != null;
+    }
+
+    /**
+     * Snapshot of what the UI showed when the wallet was last saved, for the first paint while the wallet is still
+     * loading. Waits until it is read in the background.
+     *
+     * @return the snapshot, or {@code null} if there is none or the wallet is loaded already
+     */
+    @WorkerThread
+    @Nullable
+    public WalletUiSnapshot getWalletUiSnapshot() {
+        if (isWalletLoaded())
+            return null;
+        return Futures.getUnchecked(walletUiSnapshot);
+    }
+
+    /**
+     * Like {@link #getWalletUiSnapshot()}, but calls back on the main thread once the snapshot is read. The listener
+     * isn't called if there is no snapshot or the wallet is loaded by then.
+     */
+    @AnyThread
+    public void getWalletUiSnapshotAsync(final OnWalletUiSnapshotListener listener) {
+        walletUiSnapshot.addListener(() -> {
+            final WalletUiSnapshot snapshot = Futures.getUnchecked(walletUiSnapshot);
+            if (snapshot != null && !isWalletLoaded())
+                listener.onWalletUiSnapshot(snapshot);
+        }, mainThreadExecutor);
+    }
+
+    public interface OnWalletUiSnapshotListener {
+        void onWalletUiSnapshot(WalletUiSnapshot snapshot);
+    }
+
+    @WorkerThread
+    @Nullable
+    private WalletUiSnapshot readWalletUiSnapshot() {
+        if (!walletFile.exists())
+            return null;
+        try {
+            final Stopwatch watch = Stopwatch.createStarted();
+            final WalletUiSnapshot snapshot = WalletUiSnapshot.readFrom(walletUiSnapshotFile,
+                    Constants.NETWORK_PARAMETERS);
+            watch.stop();
+            log.info("wallet UI snapshot loaded from: '{}', took {}", walletUiSnapshotFile, watch);
+            return snapshot;
+        } catch (final IOException | RuntimeException x) {
+            log.warn("problem reading wallet UI snapshot", x);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot after each save of the wallet, but only if the chain head or the transactions changed since
+     * it was last written, as taking it is not free.
+     */
+    private class UiSnapshotWriter implements WalletFiles.Listener {
+        private final Wallet wallet;
+        @Nullable
+        private List<Object> writtenState = null; // guarded by this
+
+        public UiSnapshotWriter(final Wallet wallet) {
+            this.wallet = wallet;
+        }
+
+        @Override
+        public void onBeforeAutoSave(final File tempFile) {
+        }
+
+        @Override
+        public synchronized void onAfterAutoSave(final File newlySavedFile) {
+            org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+            final List<Object> state = Arrays.asList(wallet.getLastBlockSeenHash(),
+                    wallet.getPoolSize(WalletTransaction.Pool.UNSPENT),
+                    wallet.getPoolSize(WalletTransaction.Pool.SPENT),
+                    wallet.getPoolSize(WalletTransaction.Pool.PENDING),
+                    wallet.getPoolSize(WalletTransaction.Pool.DEAD));
+            if (state.equals(writtenState))
+                return;
+            try {
+                final Stopwatch watch = Stopwatch.createStarted();
+                final AddressBookLabelIndex addressBook = AddressBookLabelIndex.get(WalletApplication.this);
+                WalletUiSnapshot.of(wallet, UI_SNAPSHOT_NUM_ROWS, addressBook::resolveLabel)
+                        .writeTo(walletUiSnapshotFile);
+                watch.stop();
+                writtenState = state;
+                log.info("wallet UI snapshot saved to: '{}', took {}", walletUiSnapshotFile, watch);
+            } catch (final IOException | RuntimeException x) {
+                log.warn("problem writing wallet UI snapshot", x);
+            }
+        }
+    }
+
+    /** Journal of the wallet, or {@code null} if the wallet isn't loaded yet. */
+    @Nullable
+    public WalletJournal getWalletJournal() {
+        synchronized (getWalletLock) {
+            return walletJournal;
+        }
+    }
+
+    public WalletAutosave getWalletAutosave() {
+        return walletAutosave;
+    }
+
+    /** Timings of loading the wallet, or {@code null} if it isn't loaded yet. */
+    @Nullable
+    public WalletLoader.Metrics getWalletLoadMetrics() {
+        return walletLoadMetrics;
+    }
+
+    /** Consistency audit of the loaded wallet, or {@code null} if it wasn't audited. */
+    @Nullable
+    public WalletAudit getWalletAudit() {
+        return walletAudit;
+    }
+
+    /** Registry of Electrum servers, parsed on first use. */
+    @WorkerThread
+    public ElectrumServerRegistry getElectrumServerRegistry() {
+        synchronized (electrumServerRegistryLock) {
+            if (electrumServerRegistry == null) {
+                final List<ElectrumServer> servers = ElectrumServerRegistry.parse(
+                        Assets.open(getAssets(), Constants.Files.ELECTRUM_SERVERS_ASSET),
+                        Constants.ELECTRUM_SERVER_DEFAULT_PORT_TCP, Constants.ELECTRUM_SERVER_DEFAULT_PORT_TLS);
+                electrumServerRegistry = ElectrumServerRegistry.load(servers,
+                        new File(getFilesDir(), Constants.Files.ELECTRUM_SERVER_HEALTH_FILENAME));
+            }
+            return electrumServerRegistry;
+        }
+    }
+
     public interface OnWalletLoadedListener {
         void onWalletLoaded(Wallet wallet);
     }
 
     public void autosaveWalletNow() {
-        final Stopwatch watch = Stopwatch.createStarted();
         synchronized (getWalletLock) {
             if (walletFiles != null) {
                 try {
-                    walletFiles.saveNow();
-                    watch.stop();
-                    log.info("wallet saved to: '{}', took {}", walletFile, watch);
+                    walletAutosave.saveNow();
                 } catch (final IOException x) {
                     log.warn("problem with forced autosaving of wallet", x);
                     CrashReporter.saveBackgroundTrace(x, packageInfo);
@@ -252,16 +491,21 @@ public class WalletApplication extends Application {
 
     public void replaceWallet(final Wallet newWallet) {
         newWallet.cleanup();
-        if (newWallet.isDeterministicUpgradeRequired(Constants.UPGRADE_OUTPUT_SCRIPT_TYPE) && !newWallet.isEncrypted())
+        if (newWallet.isDeterministicUpgradeRequired(Constants.UPGRADE_OUTPUT_SCRIPT_TYPE) && !newWallet.isEncrypted()) {
+            initMnemonicCode();
             newWallet.upgradeToDeterministic(Constants.UPGRADE_OUTPUT_SCRIPT_TYPE, null);
+        }
         BlockchainService.resetBlockchain(this);
 
         final Wallet oldWallet = getWallet();
         synchronized (getWalletLock) {
+            walletAutosave.detach();
             oldWallet.shutdownAutosaveAndWait(); // this will also prevent BlockchainService to save
-            walletFiles = newWallet.autosaveToFile(walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS,
-                    TimeUnit.MILLISECONDS, null);
+            walletJournal.detach();
+            WalletJournal.delete(walletJournalFile);
+            autosaveWithJournal(newWallet);
         }
+        autosaveWalletNow(); // the journal only covers changes from here
         config.maybeIncrementBestChainHeightEver(newWallet.getLastBlockSeenHeight());
         WalletUtils.autoBackupWallet(this, newWallet);
 
@@ -353,6 +597,11 @@ public class WalletApplication extends Application {
                 ? Constants.SCRYPT_ITERATIONS_TARGET_LOWRAM : Constants.SCRYPT_ITERATIONS_TARGET;
     }
 
+    public int blockchainStoreCapacity() {
+        return activityManager.getMemoryClass() <= 128 ? Constants.Files.BLOCKCHAIN_STORE_CAPACITY_LOWRAM
+                : Constants.Files.BLOCKCHAIN_STORE_CAPACITY;
+    }
+
     public boolean fullSyncCapable() {
         return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && activityManager.getMemoryClass() >= 128;
     }
@@ -0,0 +1,155 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Stopwatch;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletTransaction.Pool;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only version of {@link Wallet#isConsistent()} that checks the transaction pools on several threads, without
+ * holding the wallet lock. The pools are copied when the audit is created, which must happen before the wallet is
+ * shared. Outputs may still change while the audit runs, so a reported problem should be confirmed with
+ * {@link Wallet#isConsistent()} before acting on it.
+ *
+ * @author agent
+ */
+public final class WalletAudit {
+    private final Wallet wallet;
+    private final List<Transaction> unspent, spent;
+    private final List<Sha256Hash> allIds;
+    private final long snapshotMs;
+    private long verifyMs = -1;
+    @Nullable
+    private String problem;
+
+    private static final int MIN_CHUNK_SIZE = 256;
+
+    public WalletAudit(final Wallet wallet) {
+        final Stopwatch watch = Stopwatch.createStarted();
+        this.wallet = wallet;
+        this.unspent = new ArrayList<>(wallet.getTransactionPool(Pool.UNSPENT).values());
+        this.spent = new ArrayList<>(wallet.getTransactionPool(Pool.SPENT).values());
+        this.allIds = new ArrayList<>(unspent.size() + spent.size());
+        for (final Pool pool : new Pool[] { Pool.UNSPENT, Pool.SPENT, Pool.PENDING, Pool.DEAD })
+            allIds.addAll(wallet.getTransactionPool(pool).keySet());
+        this.snapshotMs = watch.elapsed(TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run the audit.
+     *
+     * @param numThreads
+     *            number of threads to check transactions on
+     * @return description of the first problem found, or {@code null} if the wallet is consistent
+     */
+    @Nullable
+    public String verify(final int numThreads) throws InterruptedException {
+        final Stopwatch watch = Stopwatch.createStarted();
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "wallet-audit-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Future<String>> chunks = new ArrayList<>();
+            chunks.add(executor.submit(this::checkUniqueIds));
+            submitChunks(executor, chunks, unspent, false, numThreads);
+            submitChunks(executor, chunks, spent, true, numThreads);
+            String problem = null;
+            for (final Future<String> chunk : chunks) {
+                problem = chunk.get();
+                if (problem != null)
+                    break;
+            }
+            synchronized (this) {
+                this.problem = problem;
+                this.verifyMs = watch.elapsed(TimeUnit.MILLISECONDS);
+            }
+            return problem;
+        } catch (final ExecutionException x) {
+            throw new RuntimeException(x.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void submitChunks(final ExecutorService executor, final List<Future<String>> chunks,
+            final List<Transaction> txs, final boolean isSpent, final int numThreads) {
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE, (txs.size() + numThreads - 1) / numThreads);
+        for (int from = 0; from < txs.size(); from += chunkSize) {
+            final List<Transaction> chunk = txs.subList(from, Math.min(from + chunkSize, txs.size()));
+            chunks.add(executor.submit(() -> checkTransactions(chunk, isSpent)));
+        }
+    }
+
+    @Nullable
+    private String checkUniqueIds() {
+        final Set<Sha256Hash> ids = new HashSet<>(allIds);
+        if (ids.size() != allIds.size())
+            return "transactions in more than one pool: " + (allIds.size() - ids.size());
+        return null;
+    }
+
+    /** Same rules as bitcoinj applies in {@code Wallet.isTxConsistent()}. */
+    @Nullable
+    private String checkTransactions(final List<Transaction> txs, final boolean isSpent) {
+        for (final Transaction tx : txs) {
+            if (Thread.currentThread().isInterrupted())
+                return null;
+            boolean isActuallySpent = true;
+            for (final TransactionOutput output : tx.getOutputs()) {
+                if (output.isAvailableForSpending()) {
+                    if (output.isMineOrWatched(wallet))
+                        isActuallySpent = false;
+                    if (output.getSpentBy() != null)
+                        return "available output with spentBy: " + tx.getTxId() + ":" + output.getIndex();
+                } else if (output.getSpentBy() == null) {
+                    return "spent output without spentBy: " + tx.getTxId() + ":" + output.getIndex();
+                }
+            }
+            if (isActuallySpent != isSpent)
+                return (isSpent ? "unspent transaction in spent pool: " : "spent transaction in unspent pool: ")
+                        + tx.getTxId();
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "[" + allIds.size() + " transactions, snapshot=" + snapshotMs + "ms"
+                + (verifyMs >= 0 ? " verify=" + verifyMs + "ms" + (problem != null ? ", " + problem : ", ok") : "")
+                + "]";
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet;
+
+import androidx.annotation.Nullable;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletFiles;
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the wallet is saved. The delay after a change depends on what is going on: while the chain is synced
+ * or replayed, saving is deferred for long because the {@link WalletJournal} covers new blocks and transactions, even
+ * if an outgoing transaction is pending; otherwise, while an outgoing transaction is pending, changes to it are saved
+ * quickly. Also collects statistics about all saves, including those
+ * bitcoinj does on its own.
+ *
+ * @author agent
+ */
+public final class WalletAutosave implements WalletChangeEventListener, WalletFiles.Listener {
+    public enum Mode {
+        IDLE, SYNCING, PENDING_SEND
+    }
+
+    private final long idleDelayMs, syncingDelayMs, pendingSendDelayMs;
+    private final ScheduledExecutorService executor;
+    private final ThreadLocal<Long> saveStartedAt = new ThreadLocal<>();
+    private volatile boolean syncing = false;
+
+    // guarded by this
+    @Nullable
+    private Wallet wallet;
+    @Nullable
+    private WalletFiles walletFiles;
+    private WalletFiles.Listener[] delegates = new WalletFiles.Listener[0];
+    @Nullable
+    private ScheduledFuture<?> scheduledSave;
+    private long scheduledSaveAt;
+    private long numSaves, bytesWritten, totalDurationMs, maxDurationMs;
+
+    private static final Logger log = LoggerFactory.getLogger(WalletAutosave.class);
+
+    public WalletAutosave(final long idleDelayMs, final long syncingDelayMs, final long pendingSendDelayMs) {
+        this(idleDelayMs, syncingDelayMs, pendingSendDelayMs, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "wallet-autosave");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * @param executor
+     *            runs the saves
+     */
+    WalletAutosave(final long idleDelayMs, final long syncingDelayMs, final long pendingSendDelayMs,
+            final ScheduledExecutorService executor) {
+        this.idleDelayMs = idleDelayMs;
+        this.syncingDelayMs = syncingDelayMs;
+        this.pendingSendDelayMs = pendingSendDelayMs;
+        this.executor = executor;
+    }
+
+    /** Longest delay of any mode. Changes are saved at the latest after this delay. */
+    public long getMaxDelayMs() {
+        return Math.max(idleDelayMs, Math.max(syncingDelayMs, pendingSendDelayMs));
+    }
+
+    /**
+     * @param delegates
+     *            get notified about every save of this wallet
+     */
+    public synchronized void attach(final Wallet wallet, final WalletFiles walletFiles,
+            final WalletFiles.Listener... delegates) {
+        this.wallet = wallet;
+        this.walletFiles = walletFiles;
+        this.delegates = delegates;
+        wallet.addChangeEventListener(Threading.SAME_THREAD, this);
+    }
+
+    public synchronized void detach() {
+        if (wallet != null) {
+            wallet.removeChangeEventListener(this);
+            wallet = null;
+        }
+        walletFiles = null;
+        delegates = new WalletFiles.Listener[0];
+        cancelScheduledSave();
+    }
+
+    /**
+     * Tell the policy whether the block chain is currently being downloaded or replayed. Called often and from the
+     * main thread, so it doesn't touch the wallet.
+     */
+    public void setSyncing(final boolean syncing) {
+        if (syncing == this.syncing)
+            return;
+        this.syncing = syncing;
+        log.info("wallet autosave mode: {}", syncing ? Mode.SYNCING : Mode.IDLE);
+        if (syncing)
+            return;
+        synchronized (this) {
+            if (scheduledSave == null)
+                return; // nothing to catch up with
+        }
+        // catch up with the shorter delay; the mode depends on pending transactions, which needs the wallet lock
+        executor.execute(() -> scheduleSave(true));
+    }
+
+    @Override
+    public void onWalletChanged(final Wallet wallet) {
+        scheduleSave(false);
+    }
+
+    public Mode getMode() {
+        if (syncing)
+            return Mode.SYNCING; // the journal covers sends, too
+        final Wallet wallet;
+        synchronized (this) {
+            wallet = this.wallet;
+        }
+        if (wallet != null) {
+            for (final Transaction tx : wallet.getPendingTransactions())
+                if (tx.getValue(wallet).signum() < 0)
+                    return Mode.PENDING_SEND;
+        }
+        return Mode.IDLE;
+    }
+
+    private long delayMs(final Mode mode) {
+        if (mode == Mode.PENDING_SEND)
+            return pendingSendDelayMs;
+        else if (mode == Mode.SYNCING)
+            return syncingDelayMs;
+        else
+            return idleDelayMs;
+    }
+
+    private void scheduleSave(final boolean onlyIfPending) {
+        final long delayMs = delayMs(getMode());
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (walletFiles == null)
+                return;
+            if (onlyIfPending && scheduledSave == null)
+                return;
+            if (scheduledSave != null && !scheduledSave.isDone() && scheduledSaveAt <= now + delayMs)
+                return; // a save is coming soon enough
+            cancelScheduledSave();
+            scheduledSaveAt = now + delayMs;
+            scheduledSave = executor.schedule(this::scheduledSave, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void scheduledSave() {
+        final WalletFiles walletFiles;
+        synchronized (this) {
+            walletFiles = this.walletFiles;
+            scheduledSave = null;
+        }
+        if (walletFiles == null)
+            return;
+        try {
+            walletFiles.saveNow();
+        } catch (final IOException x) {
+            log.warn("problem autosaving wallet", x);
+        }
+    }
+
+    /** Save right away, on the calling thread. */
+    public void saveNow() throws IOException {
+        final WalletFiles walletFiles;
+        synchronized (this) {
+            walletFiles = this.walletFiles;
+            cancelScheduledSave();
+        }
+        if (walletFiles != null)
+            walletFiles.saveNow();
+    }
+
+    private void cancelScheduledSave() {
+        if (scheduledSave != null) {
+            scheduledSave.cancel(false);
+            scheduledSave = null;
+        }
+    }
+
+    @Override
+    public void onBeforeAutoSave(final File tempFile) {
+        saveStartedAt.set(System.currentTimeMillis());
+        final WalletFiles.Listener[] delegates;
+        synchronized (this) {
+            delegates = this.delegates;
+        }
+        for (final WalletFiles.Listener delegate : delegates)
+            delegate.onBeforeAutoSave(tempFile);
+    }
+
+    @Override
+    public void onAfterAutoSave(final File newlySavedFile) {
+        final Long startedAt = saveStartedAt.get();
+        final long durationMs = startedAt != null ? System.currentTimeMillis() - startedAt : 0;
+        final long bytes = newlySavedFile.length();
+        final WalletFiles.Listener[] delegates;
+        synchronized (this) {
+            numSaves++;
+            bytesWritten += bytes;
+            totalDurationMs += durationMs;
+            maxDurationMs = Math.max(maxDurationMs, durationMs);
+            delegates = this.delegates;
+        }
+        log.info("wallet saved to: '{}', {} bytes, took {} ms", newlySavedFile, bytes, durationMs);
+        for (final WalletFiles.Listener delegate : delegates)
+            delegate.onAfterAutoSave(newlySavedFile);
+    }
+
+    /** Number of saves since the app started, including those bitcoinj does on its own. */
+    public synchronized long getNumSaves() {
+        return numSaves;
+    }
+
+    /** Number of bytes written by saves since the app started. */
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /** Average duration of a save, in milliseconds. */
+    public synchronized long getAverageDurationMs() {
+        return numSaves > 0 ? totalDurationMs / numSaves : 0;
+    }
+
+    /** Longest duration of a save, in milliseconds. */
+    public synchronized long getMaxDurationMs() {
+        return maxDurationMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final long averageDurationMs = numSaves > 0 ? totalDurationMs / numSaves : 0;
+        return getClass().getSimpleName() + "[mode=" + (syncing ? Mode.SYNCING : Mode.IDLE) + " saves=" + numSaves
+                + " written=" + bytesWritten + "B avgDuration=" + averageDurationMs + "ms maxDuration="
+                + maxDurationMs + "ms]";
+    }
+}
@@ -32,6 +32,8 @@ import android.text.style.StrikethroughSpan;
 import android.view.View;
 import android.widget.RemoteViews;
 import androidx.annotation.Nullable;
+import org.newbull.wallet.data.WalletBalanceStore;
+import org.newbull.wallet.data.WalletUiSnapshot;
 import org.newbull.wallet.exchangerate.ExchangeRateEntry;
 import org.newbull.wallet.exchangerate.ExchangeRatesRepository;
 import org.newbull.wallet.ui.RequestCoinsActivity;
@@ -64,11 +66,15 @@ public class WalletBalanceWidgetProvider extends AppWidgetProvider {
         final PendingResult result = goAsync();
         AsyncTask.execute(() -> {
             final WalletApplication application = (WalletApplication) context.getApplicationContext();
-            final Coin balance = application.getWallet().getBalance(BalanceType.ESTIMATED);
             final Configuration config = application.getConfiguration();
             final ExchangeRatesRepository exchangeRatesRepository = ExchangeRatesRepository.get(application);
             final ExchangeRateEntry exchangeRate = exchangeRatesRepository != null ?
                     exchangeRatesRepository.exchangeRateDao().findByCurrencyCode(config.getExchangeCurrencyCode()) : null;
+            final Coin snapshotBalance = snapshotBalance(application);
+            if (snapshotBalance != null) // first paint, until the wallet is loaded
+                updateWidgets(context, appWidgetManager, appWidgetIds, snapshotBalance, exchangeRate != null ?
+                        exchangeRate.exchangeRate() : null);
+            final Coin balance = estimatedBalance(application);
             updateWidgets(context, appWidgetManager, appWidgetIds, balance, exchangeRate != null ?
                     exchangeRate.exchangeRate() : null);
             result.finish();
@@ -84,7 +90,7 @@ public class WalletBalanceWidgetProvider extends AppWidgetProvider {
         final PendingResult result = goAsync();
         AsyncTask.execute(() -> {
             final WalletApplication application = (WalletApplication) context.getApplicationContext();
-            final Coin balance = application.getWallet().getBalance(BalanceType.ESTIMATED);
+            final Coin balance = estimatedBalance(application);
             final Configuration config = application.getConfiguration();
             final ExchangeRatesRepository exchangeRatesRepository = ExchangeRatesRepository.get(application);
             final ExchangeRateEntry exchangeRate =exchangeRatesRepository != null ?
@@ -95,6 +101,19 @@ public class WalletBalanceWidgetProvider extends AppWidgetProvider {
         });
     }
 
+    @Nullable
+    private static Coin snapshotBalance(final WalletApplication application) {
+        if (WalletBalanceStore.get().getBalance(BalanceType.ESTIMATED) != null)
+            return null;
+        final WalletUiSnapshot snapshot = application.getWalletUiSnapshot();
+        return snapshot != null ? snapshot.balances.get(BalanceType.ESTIMATED) : null;
+    }
+
+    private static Coin estimatedBalance(final WalletApplication application) {
+        final Coin balance = WalletBalanceStore.get().getBalance(BalanceType.ESTIMATED);
+        return balance != null ? balance : application.getWallet().getBalance(BalanceType.ESTIMATED);
+    }
+
     public static void updateWidgets(final Context context, final Coin balance,
             final @Nullable ExchangeRate exchangeRate) {
         final AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
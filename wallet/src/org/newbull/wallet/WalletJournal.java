@@ -0,0 +1,528 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Strings;
+import com.google.common.io.FileWriteMode;
+import com.google.common.io.Files;
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.core.listeners.NewBestBlockListener;
+import org.bitcoinj.core.listeners.TransactionConfidenceEventListener;
+import org.bitcoinj.utils.ExchangeRate;
+import org.bitcoinj.utils.Fiat;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletFiles;
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of wallet changes, kept next to the wallet file. New transactions, changes of confidence type
+ * and new best blocks are appended as small records, while the full wallet protobuf is only rewritten when it is
+ * autosaved (which compacts the journal). After loading the wallet file, {@link #replay} applies the journal on top of
+ * it.
+ *
+ * Transaction records also carry what bitcoinj keeps only in the wallet file, like memo, exchange rate and purpose of
+ * a send, and are synced to disk before they count as appended. Block records are only flushed, as losing one just
+ * means it is downloaded again.
+ *
+ * Changes the journal can't express, like reorganizations or double spends, trigger an immediate full save instead.
+ *
+ * @author agent
+ */
+public final class WalletJournal implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
+        TransactionConfidenceEventListener, WalletReorganizeEventListener, NewBestBlockListener, WalletFiles.Listener {
+    private final File file;
+    private final File compactingFile;
+    private final ExecutorService fullSaveExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "wallet-journal-save");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // guarded by this
+    @Nullable
+    private DataOutputStream stream;
+    @Nullable
+    private FileOutputStream fileStream;
+    private final Map<Sha256Hash, ConfidenceType> journaledTypes = new HashMap<>();
+    @Nullable
+    private Wallet wallet;
+    @Nullable
+    private WalletFiles walletFiles;
+    private long numRecords, bytesAppended, numCompactions;
+
+    private static final byte RECORD_TX = 1;
+    private static final byte RECORD_BLOCK = 2;
+    private static final int MAX_RECORD_LENGTH = 4 * 1024 * 1024;
+
+    private static final Logger log = LoggerFactory.getLogger(WalletJournal.class);
+
+    public WalletJournal(final File file) {
+        this.file = file;
+        this.compactingFile = compactingFile(file);
+    }
+
+    /** Start journaling changes of the given wallet. Full saves are done via the given wallet files. */
+    public synchronized void attach(final Wallet wallet, final WalletFiles walletFiles) {
+        this.wallet = wallet;
+        this.walletFiles = walletFiles;
+        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, this);
+        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, this);
+        wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, this);
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, this);
+    }
+
+    /** Stop journaling and close the journal file. A journal can't be attached again once detached. */
+    public synchronized void detach() {
+        if (wallet != null) {
+            wallet.removeReorganizeEventListener(this);
+            wallet.removeTransactionConfidenceEventListener(this);
+            wallet.removeCoinsSentEventListener(this);
+            wallet.removeCoinsReceivedEventListener(this);
+            wallet = null;
+        }
+        walletFiles = null;
+        closeStream();
+        fullSaveExecutor.shutdown(); // lets a requested full save finish
+    }
+
+    @Override
+    public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+            final Coin newBalance) {
+        appendTransaction(tx);
+    }
+
+    @Override
+    public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+            final Coin newBalance) {
+        appendTransaction(tx);
+    }
+
+    @Override
+    public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx) {
+        final TransactionConfidence confidence = tx.getConfidence();
+        final ConfidenceType type = confidence.getConfidenceType();
+        if (type == ConfidenceType.BUILDING && confidence.getDepthInBlocks() == 1) {
+            // just confirmed; further depth changes are covered by block records
+            final ConfidenceType journaledType;
+            synchronized (this) {
+                journaledType = journaledTypes.get(tx.getTxId());
+            }
+            if (journaledType != ConfidenceType.BUILDING)
+                appendTransaction(tx);
+        } else if (type == ConfidenceType.DEAD || type == ConfidenceType.IN_CONFLICT) {
+            requestFullSave("transaction " + tx.getTxId() + " is " + type);
+        }
+    }
+
+    @Override
+    public void onReorganize(final Wallet wallet) {
+        requestFullSave("reorganize");
+    }
+
+    @Override
+    public void notifyNewBestBlock(final StoredBlock block) {
+        final ByteBuffer buffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
+        block.serializeCompact(buffer);
+        append(RECORD_BLOCK, buffer.array(), false);
+    }
+
+    private void appendTransaction(final Transaction tx) {
+        final ConfidenceType type = tx.getConfidence().getConfidenceType();
+        if (type != ConfidenceType.PENDING && type != ConfidenceType.BUILDING)
+            return;
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream record = new DataOutputStream(bytes);
+            record.writeByte(type.getValue());
+            final Map<Sha256Hash, Integer> appearsInHashes = tx.getAppearsInHashes();
+            record.writeShort(appearsInHashes != null ? appearsInHashes.size() : 0);
+            if (appearsInHashes != null) {
+                for (final Sha256Hash blockHash : appearsInHashes.keySet())
+                    record.write(blockHash.getBytes());
+            }
+            final byte[] txBytes = tx.bitcoinSerialize();
+            record.writeInt(txBytes.length);
+            record.write(txBytes);
+            writeMetadata(record, tx);
+            if (append(RECORD_TX, bytes.toByteArray(), true)) {
+                synchronized (this) {
+                    journaledTypes.put(tx.getTxId(), type);
+                }
+            }
+        } catch (final IOException x) {
+            throw new RuntimeException(x); // cannot happen
+        }
+    }
+
+    /** Optional trailer of a transaction record, only written if the transaction has any of it. */
+    private static void writeMetadata(final DataOutputStream record, final Transaction tx) throws IOException {
+        final String memo = tx.getMemo();
+        final ExchangeRate exchangeRate = tx.getExchangeRate();
+        final Transaction.Purpose purpose = tx.getPurpose();
+        if (memo == null && exchangeRate == null && (purpose == null || purpose == Transaction.Purpose.UNKNOWN))
+            return;
+        record.writeUTF(purpose != null ? purpose.name() : "");
+        record.writeUTF(Strings.nullToEmpty(memo));
+        record.writeBoolean(exchangeRate != null);
+        if (exchangeRate != null) {
+            record.writeLong(exchangeRate.coin.value);
+            record.writeUTF(exchangeRate.fiat.currencyCode);
+            record.writeLong(exchangeRate.fiat.value);
+        }
+    }
+
+    /**
+     * @param sync
+     *            whether the record needs to be on disk before this returns, rather than just handed to the OS
+     */
+    private synchronized boolean append(final byte type, final byte[] payload, final boolean sync) {
+        if (wallet == null)
+            return false;
+        try {
+            if (stream == null) {
+                fileStream = new FileOutputStream(file, true);
+                stream = new DataOutputStream(new BufferedOutputStream(fileStream, payload.length + 16));
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(payload);
+            stream.writeInt(payload.length + 1);
+            stream.writeByte(type);
+            stream.write(payload);
+            stream.writeInt((int) crc.getValue());
+            stream.flush();
+            if (sync)
+                fileStream.getFD().sync();
+            numRecords++;
+            bytesAppended += payload.length + 9;
+            return true;
+        } catch (final IOException x) {
+            log.warn("problem appending to wallet journal, falling back to full save", x);
+            closeStream();
+            requestFullSave("journal not writable");
+            return false;
+        }
+    }
+
+    private synchronized void requestFullSave(final String reason) {
+        // checked under the lock, so the executor can't be shut down in between
+        final WalletFiles walletFiles = this.walletFiles;
+        if (walletFiles == null)
+            return;
+        log.info("full save of wallet requested: {}", reason);
+        fullSaveExecutor.execute(() -> {
+            try {
+                walletFiles.saveNow();
+            } catch (final IOException x) {
+                log.warn("problem saving wallet", x);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void onBeforeAutoSave(final File tempFile) {
+        // everything journaled up to now will be contained in the saved wallet
+        closeStream();
+        journaledTypes.clear();
+        if (!file.exists())
+            return;
+        try {
+            if (compactingFile.exists()) {
+                // previous save didn't finish, keep its records
+                Files.asByteSource(file).copyTo(Files.asByteSink(compactingFile, FileWriteMode.APPEND));
+                if (!file.delete())
+                    throw new IOException("cannot delete " + file);
+            } else if (!file.renameTo(compactingFile)) {
+                throw new IOException("cannot rename " + file + " to " + compactingFile);
+            }
+        } catch (final IOException x) {
+            log.warn("problem rotating wallet journal", x);
+        }
+    }
+
+    @Override
+    public synchronized void onAfterAutoSave(final File newlySavedFile) {
+        compactingFile.delete();
+        numCompactions++;
+        log.info("wallet journal compacted into '{}'; {}", newlySavedFile, this);
+    }
+
+    /** Number of records appended since the app started. */
+    public synchronized long getNumRecords() {
+        return numRecords;
+    }
+
+    /** Number of bytes appended to the journal since the app started. */
+    public synchronized long getBytesAppended() {
+        return bytesAppended;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "[records=" + numRecords + " appended=" + bytesAppended
+                + "B compactions=" + numCompactions + "]";
+    }
+
+    private void closeStream() {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (final IOException x) {
+                log.info("problem closing wallet journal", x);
+            }
+            stream = null;
+            fileStream = null;
+        }
+    }
+
+    /** Delete the journal, e.g. because the wallet file is being replaced. */
+    public static void delete(final File file) {
+        compactingFile(file).delete();
+        file.delete();
+    }
+
+    /**
+     * Apply the journal on top of a wallet freshly loaded from its file. If this throws (including runtime exceptions
+     * from the wallet), the wallet may be partially updated and should be loaded again without the journal.
+     *
+     * @return number of records applied
+     */
+    public static int replay(final File file, final Wallet wallet) throws IOException, VerificationException {
+        final Stopwatch watch = Stopwatch.createStarted();
+        final NetworkParameters params = wallet.getParams();
+        final List<Record> records = new ArrayList<>();
+        read(compactingFile(file), params, records);
+        read(file, params, records);
+
+        final Map<Sha256Hash, StoredBlock> blocks = new HashMap<>();
+        for (final Record record : records)
+            if (record.block != null)
+                blocks.put(record.block.getHeader().getHash(), record.block);
+
+        int numApplied = 0;
+        final Map<Sha256Hash, Integer> relativityOffsets = new HashMap<>();
+        for (final Record record : records) {
+            if (record.block != null) {
+                if (record.block.getHeight() > wallet.getLastBlockSeenHeight()) {
+                    wallet.notifyNewBestBlock(record.block);
+                    numApplied++;
+                }
+            } else if (record.confidenceType == ConfidenceType.PENDING) {
+                if (wallet.getTransaction(record.tx.getTxId()) == null) {
+                    wallet.receivePending(record.tx, null);
+                    numApplied++;
+                }
+            } else if (record.confidenceType == ConfidenceType.BUILDING) {
+                final Transaction existing = wallet.getTransaction(record.tx.getTxId());
+                if (existing != null && existing.getConfidence().getConfidenceType() == ConfidenceType.BUILDING)
+                    continue;
+                for (final Sha256Hash blockHash : record.appearsInHashes) {
+                    final StoredBlock block = blocks.get(blockHash);
+                    if (block == null || block.getHeight() <= wallet.getLastBlockSeenHeight())
+                        continue;
+                    final Integer offset = relativityOffsets.get(blockHash);
+                    final int relativityOffset = offset != null ? offset + 1 : 0;
+                    relativityOffsets.put(blockHash, relativityOffset);
+                    if (!wallet.notifyTransactionIsInBlock(record.tx.getTxId(), block,
+                            AbstractBlockChain.NewBlockType.BEST_CHAIN, relativityOffset))
+                        wallet.receiveFromBlock(record.tx, block, AbstractBlockChain.NewBlockType.BEST_CHAIN,
+                                relativityOffset);
+                    numApplied++;
+                    break;
+                }
+            }
+        }
+        for (final Record record : records) {
+            if (record.tx == null)
+                continue;
+            final Transaction tx = wallet.getTransaction(record.tx.getTxId());
+            if (tx != null && record.applyMetadataTo(tx))
+                numApplied++;
+        }
+        if (numApplied > 0) {
+            // the wallet may have been saved between receiving a block's transactions and the block itself, in
+            // which case replaying the block counted it twice
+            final int lastBlockSeenHeight = wallet.getLastBlockSeenHeight();
+            for (final Transaction tx : wallet.getTransactions(false)) {
+                final TransactionConfidence confidence = tx.getConfidence();
+                if (confidence.getConfidenceType() == ConfidenceType.BUILDING)
+                    confidence.setDepthInBlocks(lastBlockSeenHeight - confidence.getAppearedAtChainHeight() + 1);
+            }
+        }
+        watch.stop();
+        if (!records.isEmpty())
+            log.info("{} of {} wallet journal records replayed, took {}", numApplied, records.size(), watch);
+        return numApplied;
+    }
+
+    private static void read(final File file, final NetworkParameters params, final List<Record> records)
+            throws IOException {
+        if (!file.exists())
+            return;
+        try (final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                final int length;
+                final byte[] recordBytes;
+                try {
+                    length = is.readInt();
+                    if (length < 1 || length > MAX_RECORD_LENGTH) {
+                        log.warn("bad record length {} in wallet journal '{}', ignoring rest", length, file);
+                        return;
+                    }
+                    recordBytes = new byte[length];
+                    is.readFully(recordBytes);
+                    final int checksum = is.readInt();
+                    final CRC32 crc = new CRC32();
+                    crc.update(recordBytes);
+                    if ((int) crc.getValue() != checksum) {
+                        log.warn("bad checksum in wallet journal '{}', ignoring rest", file);
+                        return;
+                    }
+                } catch (final EOFException x) {
+                    return; // end of journal, or an incomplete last record
+                }
+                final ByteBuffer buffer = ByteBuffer.wrap(recordBytes, 1, length - 1);
+                if (recordBytes[0] == RECORD_BLOCK) {
+                    records.add(new Record(StoredBlock.deserializeCompact(params, buffer)));
+                } else if (recordBytes[0] == RECORD_TX) {
+                    final ConfidenceType confidenceType = confidenceType(buffer.get());
+                    final int numHashes = buffer.getShort();
+                    final List<Sha256Hash> appearsInHashes = new ArrayList<>(numHashes);
+                    for (int i = 0; i < numHashes; i++) {
+                        final byte[] hash = new byte[Sha256Hash.LENGTH];
+                        buffer.get(hash);
+                        appearsInHashes.add(Sha256Hash.wrap(hash));
+                    }
+                    final byte[] txBytes = new byte[buffer.getInt()];
+                    buffer.get(txBytes);
+                    final Transaction tx = params.getDefaultSerializer().makeTransaction(txBytes);
+                    if (buffer.hasRemaining())
+                        readMetadata(new DataInputStream(new ByteArrayInputStream(buffer.array(),
+                                buffer.position(), buffer.remaining())), tx);
+                    records.add(new Record(tx, confidenceType, appearsInHashes));
+                } else {
+                    log.warn("unknown record type {} in wallet journal '{}', skipping", recordBytes[0], file);
+                }
+            }
+        }
+    }
+
+    private static void readMetadata(final DataInputStream record, final Transaction tx) throws IOException {
+        final String purpose = record.readUTF();
+        if (!purpose.isEmpty()) {
+            try {
+                tx.setPurpose(Transaction.Purpose.valueOf(purpose));
+            } catch (final IllegalArgumentException x) {
+                log.info("unknown purpose {} in wallet journal", purpose);
+            }
+        }
+        tx.setMemo(Strings.emptyToNull(record.readUTF()));
+        if (record.readBoolean())
+            tx.setExchangeRate(new ExchangeRate(Coin.valueOf(record.readLong()),
+                    Fiat.valueOf(record.readUTF(), record.readLong())));
+    }
+
+    @Nullable
+    private static ConfidenceType confidenceType(final int value) {
+        for (final ConfidenceType type : ConfidenceType.values())
+            if (type.getValue() == value)
+                return type;
+        return null;
+    }
+
+    private static File compactingFile(final File file) {
+        return new File(file.getPath() + ".compacting");
+    }
+
+    private static final class Record {
+        @Nullable
+        final StoredBlock block;
+        @Nullable
+        final Transaction tx;
+        @Nullable
+        final ConfidenceType confidenceType;
+        final List<Sha256Hash> appearsInHashes;
+
+        Record(final StoredBlock block) {
+            this.block = block;
+            this.tx = null;
+            this.confidenceType = null;
+            this.appearsInHashes = null;
+        }
+
+        Record(final Transaction tx, final ConfidenceType confidenceType, final List<Sha256Hash> appearsInHashes) {
+            this.block = null;
+            this.tx = tx;
+            this.confidenceType = confidenceType;
+            this.appearsInHashes = appearsInHashes;
+        }
+
+        /** @return whether the given transaction of the wallet was missing anything the record had */
+        boolean applyMetadataTo(final Transaction walletTx) {
+            boolean applied = false;
+            if (tx.getPurpose() != Transaction.Purpose.UNKNOWN && walletTx.getPurpose() != tx.getPurpose()) {
+                walletTx.setPurpose(tx.getPurpose());
+                applied = true;
+            }
+            if (tx.getMemo() != null && walletTx.getMemo() == null) {
+                walletTx.setMemo(tx.getMemo());
+                applied = true;
+            }
+            if (tx.getExchangeRate() != null && walletTx.getExchangeRate() == null) {
+                walletTx.setExchangeRate(tx.getExchangeRate());
+                applied = true;
+            }
+            return applied;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Stopwatch;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.UninitializedMessageException;
+import com.google.protobuf.WireFormat;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.wallet.Protos;
+import org.bitcoinj.wallet.UnreadableWalletException;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletProtobufSerializer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a wallet file by memory-mapping it and decoding its protobuf field by field. The network identifier, which
+ * comes first, is checked before anything else is decoded, so a wallet of the wrong network or a file that isn't a
+ * wallet at all fails fast. Progress is reported while decoding, and timings are kept for diagnosing slow loads.
+ *
+ * @author agent
+ */
+public final class WalletLoader {
+    public interface ProgressListener {
+        void onProgress(Progress progress);
+    }
+
+    public static final class Progress {
+        public final long bytesRead, bytesTotal;
+        public final int transactionsDecoded;
+
+        public Progress(final long bytesRead, final long bytesTotal, final int transactionsDecoded) {
+            this.bytesRead = bytesRead;
+            this.bytesTotal = bytesTotal;
+            this.transactionsDecoded = transactionsDecoded;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "[" + bytesRead + "/" + bytesTotal + "B, " + transactionsDecoded
+                    + " transactions]";
+        }
+    }
+
+    public static final class Metrics {
+        public final long fileSize;
+        public final int numTransactions;
+        public final long validateMs, decodeMs, constructMs;
+
+        public Metrics(final long fileSize, final int numTransactions, final long validateMs, final long decodeMs,
+                final long constructMs) {
+            this.fileSize = fileSize;
+            this.numTransactions = numTransactions;
+            this.validateMs = validateMs;
+            this.decodeMs = decodeMs;
+            this.constructMs = constructMs;
+        }
+
+        public long totalMs() {
+            return validateMs + decodeMs + constructMs;
+        }
+
+        @Override
+        public String toString() {
+            final long totalMs = totalMs();
+            return String.format(Locale.US,
+                    "%s[%d kB, %d transactions, validate=%dms decode=%dms construct=%dms, %.1f kB/s]",
+                    getClass().getSimpleName(), fileSize / 1024, numTransactions, validateMs, decodeMs, constructMs,
+                    totalMs > 0 ? fileSize * 1000.0 / 1024 / totalMs : 0.0);
+        }
+    }
+
+    private final NetworkParameters params;
+    @Nullable
+    private final ProgressListener progressListener;
+    @Nullable
+    private Metrics metrics;
+
+    private static final int PROGRESS_STEPS = 100;
+    private static final int WALLET_SIZE_LIMIT = 512 * 1024 * 1024; // like WalletProtobufSerializer
+
+    /**
+     * @param progressListener
+     *            gets called on the loading thread, may be {@code null}
+     */
+    public WalletLoader(final NetworkParameters params, @Nullable final ProgressListener progressListener) {
+        this.params = params;
+        this.progressListener = progressListener;
+    }
+
+    public Wallet load(final File file) throws IOException, UnreadableWalletException {
+        final ByteBuffer buffer;
+        try (final FileInputStream is = new FileInputStream(file); final FileChannel channel = is.getChannel()) {
+            final long size = channel.size();
+            if (size == 0)
+                throw new UnreadableWalletException("empty wallet file: " + file);
+            if (size > WALLET_SIZE_LIMIT)
+                throw new UnreadableWalletException("wallet file too big: " + size + " bytes");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        final int size = buffer.limit();
+
+        final Stopwatch watch = Stopwatch.createStarted();
+        validateNetwork(buffer);
+        final long validateMs = watch.elapsed(TimeUnit.MILLISECONDS);
+
+        // decode top-level fields one by one, so we can report progress in between
+        watch.reset().start();
+        final Protos.Wallet.Builder builder = Protos.Wallet.newBuilder();
+        final CodedInputStream input = CodedInputStream.newInstance(buffer.duplicate());
+        input.setSizeLimit(WALLET_SIZE_LIMIT);
+        int numTransactions = 0;
+        long lastReported = 0;
+        while (!input.isAtEnd()) {
+            final int start = input.getTotalBytesRead();
+            final int tag = input.readTag();
+            if (!input.skipField(tag))
+                throw new UnreadableWalletException("unexpected end group tag at " + start);
+            final int end = input.getTotalBytesRead();
+            builder.mergeFrom(CodedInputStream.newInstance(slice(buffer, start, end)));
+            if (WireFormat.getTagFieldNumber(tag) == Protos.Wallet.TRANSACTION_FIELD_NUMBER)
+                numTransactions++;
+            if (progressListener != null && (end - lastReported) * PROGRESS_STEPS >= size) {
+                progressListener.onProgress(new Progress(end, size, numTransactions));
+                lastReported = end;
+            }
+        }
+        if (progressListener != null && lastReported < size)
+            progressListener.onProgress(new Progress(size, size, numTransactions));
+        final Protos.Wallet walletProto;
+        try {
+            walletProto = builder.build();
+        } catch (final UninitializedMessageException x) {
+            throw new UnreadableWalletException("incomplete wallet file", x);
+        }
+        final long decodeMs = watch.elapsed(TimeUnit.MILLISECONDS);
+
+        watch.reset().start();
+        final Wallet wallet = new WalletProtobufSerializer().readWallet(params, null, walletProto);
+        final long constructMs = watch.elapsed(TimeUnit.MILLISECONDS);
+
+        metrics = new Metrics(size, numTransactions, validateMs, decodeMs, constructMs);
+        return wallet;
+    }
+
+    /** Timings of the last successful {@link #load(File)}, or {@code null} if there was none. */
+    @Nullable
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    private void validateNetwork(final ByteBuffer buffer) throws IOException, UnreadableWalletException {
+        final CodedInputStream input = CodedInputStream.newInstance(buffer.duplicate());
+        final int tag = input.readTag();
+        if (WireFormat.getTagFieldNumber(tag) != Protos.Wallet.NETWORK_IDENTIFIER_FIELD_NUMBER
+                || WireFormat.getTagWireType(tag) != WireFormat.WIRETYPE_LENGTH_DELIMITED)
+            throw new UnreadableWalletException("not a wallet file, starts with tag " + tag);
+        final String networkId = input.readString();
+        if (!params.getId().equals(networkId))
+            throw new UnreadableWalletException("bad wallet network parameters: " + networkId);
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer, final int start, final int end) {
+        final ByteBuffer slice = buffer.duplicate();
+        slice.limit(end);
+        slice.position(start);
+        return slice.slice();
+    }
+}
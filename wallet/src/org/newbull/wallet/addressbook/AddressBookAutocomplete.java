@@ -0,0 +1,236 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.addressbook;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.Collator;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Autocomplete of address book entries from free text. Queries are debounced, queries that got superseded by newer
+ * input are abandoned, and if the new input only narrows down the previous one and the previous result was complete,
+ * the previous result is refined in memory instead of asking the source again.
+ *
+ * {@link #request()} is called whenever the input changes. Lookups run on the given scheduler, which must be single
+ * threaded.
+ *
+ * @author agent
+ */
+public final class AddressBookAutocomplete {
+    public interface Source {
+        /** Entries matching the input as typed, at most {@code limit} of them. */
+        List<AddressBookEntry> search(String constraint, int limit);
+    }
+
+    private final Source source;
+    private final int limit;
+    private final long debounceMs;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Object pendingLock = new Object();
+    private ScheduledFuture<?> pendingLookup = null;
+    private SettableFuture<List<AddressBookEntry>> pendingResult = null;
+
+    // only accessed from the scheduler thread
+    private List<String> lastTokens = null;
+    private List<AddressBookEntry> lastResult = null;
+
+    private final Object statsLock = new Object();
+    private long numQueries, numRefined, numSuperseded, totalLatencyMs, maxLatencyMs;
+
+    private static final long SLOW_QUERY_MS = 16; // one frame
+
+    private static final Logger log = LoggerFactory.getLogger(AddressBookAutocomplete.class);
+
+    public AddressBookAutocomplete(final Source source, final int limit, final long debounceMs,
+            final ScheduledExecutorService scheduler) {
+        this.source = source;
+        this.limit = limit;
+        this.debounceMs = debounceMs;
+        this.scheduler = scheduler;
+    }
+
+    /** Signal that the input has changed. Any query in flight will be abandoned. */
+    public void request() {
+        generation.incrementAndGet();
+        synchronized (pendingLock) {
+            cancelPending();
+        }
+    }
+
+    /**
+     * Look up entries for the given input, after waiting for the input to settle. A lookup that is still waiting is
+     * cancelled.
+     *
+     * @return future of the matching entries, which resolves to {@code null} if the query was superseded by newer
+     *         input
+     */
+    public ListenableFuture<List<AddressBookEntry>> query(final String constraint) {
+        final long generation = this.generation.get();
+        final SettableFuture<List<AddressBookEntry>> result = SettableFuture.create();
+        synchronized (pendingLock) {
+            cancelPending();
+            pendingResult = result;
+            pendingLookup = scheduler.schedule(() -> {
+                try {
+                    result.set(lookup(constraint, generation));
+                } catch (final RuntimeException x) {
+                    result.setException(x);
+                }
+            }, debounceMs, TimeUnit.MILLISECONDS);
+        }
+        return result;
+    }
+
+    private void cancelPending() {
+        if (pendingLookup != null) {
+            pendingLookup.cancel(false);
+            pendingLookup = null;
+        }
+        if (pendingResult != null) {
+            pendingResult.set(null);
+            pendingResult = null;
+        }
+    }
+
+    private List<AddressBookEntry> lookup(final String constraint, final long generation) {
+        if (isSuperseded(generation))
+            return null;
+
+        final Stopwatch watch = Stopwatch.createStarted();
+        final List<String> tokens = tokens(constraint);
+        final List<AddressBookEntry> result;
+        final boolean refined;
+        if (tokens.isEmpty()) {
+            result = Collections.emptyList();
+            refined = true;
+        } else if (lastResult != null && lastResult.size() < limit && narrows(lastTokens, tokens)) {
+            result = new ArrayList<>();
+            for (final AddressBookEntry entry : lastResult)
+                if (matches(entry, tokens))
+                    result.add(entry);
+            refined = true;
+        } else {
+            result = source.search(constraint, limit);
+            refined = false;
+        }
+        final long latencyMs = watch.elapsed(TimeUnit.MILLISECONDS);
+        final boolean superseded = isSuperseded(generation);
+        synchronized (statsLock) {
+            numQueries++;
+            if (refined)
+                numRefined++;
+            if (superseded)
+                numSuperseded++;
+            totalLatencyMs += latencyMs;
+            maxLatencyMs = Math.max(maxLatencyMs, latencyMs);
+        }
+        if (latencyMs > SLOW_QUERY_MS)
+            log.info("autocomplete for {} tokens took {} ms{}", tokens.size(), latencyMs, refined ? " (refined)" : "");
+        if (!tokens.isEmpty()) {
+            lastTokens = tokens;
+            lastResult = result;
+        }
+        return superseded ? null : result;
+    }
+
+    private boolean isSuperseded(final long generation) {
+        return this.generation.get() != generation;
+    }
+
+    /** Every previous token is a prefix of a new token, so the new matches are a subset of the previous ones. */
+    private static boolean narrows(final List<String> previousTokens, final List<String> tokens) {
+        for (final String previousToken : previousTokens) {
+            if (!hasPrefix(tokens, previousToken))
+                return false;
+        }
+        return true;
+    }
+
+    /** Entries with a word starting with each of the tokens of the input, ordered by label. */
+    static List<AddressBookEntry> search(final Collection<AddressBookEntry> entries, final String constraint,
+            final int limit) {
+        final List<String> tokens = tokens(constraint);
+        final List<AddressBookEntry> result = new ArrayList<>();
+        if (tokens.isEmpty())
+            return result;
+        for (final AddressBookEntry entry : entries)
+            if (matches(entry, tokens))
+                result.add(entry);
+        final Collator collator = Collator.getInstance();
+        Collections.sort(result, (entry1, entry2) -> {
+            final String label1 = entry1.getLabel(), label2 = entry2.getLabel();
+            if (label1 == null || label2 == null)
+                return label1 == null ? (label2 == null ? 0 : 1) : -1;
+            return collator.compare(label1, label2);
+        });
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    private static boolean matches(final AddressBookEntry entry, final List<String> tokens) {
+        final List<String> words = tokens(entry.getAddress());
+        if (entry.getLabel() != null)
+            words.addAll(tokens(entry.getLabel()));
+        for (final String token : tokens) {
+            if (!hasPrefix(words, token))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean hasPrefix(final List<String> words, final String prefix) {
+        for (final String word : words)
+            if (word.startsWith(prefix))
+                return true;
+        return false;
+    }
+
+    /** Split into words the same way the full-text index does, folding case and diacritics. */
+    static List<String> tokens(final String text) {
+        final String folded = Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}+", "")
+                .toLowerCase();
+        final List<String> tokens = new ArrayList<>();
+        for (final String token : folded.split(AddressBookEntryFts.SEPARATOR_REGEX))
+            if (!token.isEmpty())
+                tokens.add(token);
+        return tokens;
+    }
+
+    @Override
+    public String toString() {
+        synchronized (statsLock) {
+            final long averageLatencyMs = numQueries > 0 ? totalLatencyMs / numQueries : 0;
+            return getClass().getSimpleName() + "[queries=" + numQueries + " refined=" + numRefined + " superseded="
+                    + numSuperseded + " avgLatency=" + averageLatencyMs + "ms maxLatency=" + maxLatencyMs + "ms]";
+        }
+    }
+}
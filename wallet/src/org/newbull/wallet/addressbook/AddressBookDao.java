@@ -40,12 +40,21 @@ public interface AddressBookDao {
     @Query("SELECT label FROM address_book WHERE address = :address")
     String resolveLabel(String address);
 
-    @Query("SELECT * FROM address_book WHERE address LIKE '%' || :constraint || '%' OR label LIKE '%' || :constraint || '%' ORDER BY label COLLATE LOCALIZED ASC")
-    List<AddressBookEntry> get(String constraint);
+    /**
+     * Search via the full-text index.
+     *
+     * @param match
+     *            FTS match expression, see {@link AddressBookEntryFts#matchQuery(String)}
+     */
+    @Query("SELECT address_book.* FROM address_book JOIN address_book_fts ON address_book.rowid = address_book_fts.docid WHERE address_book_fts MATCH :match ORDER BY address_book.label COLLATE LOCALIZED ASC LIMIT :limit")
+    List<AddressBookEntry> search(String match, int limit);
 
     @Query("SELECT * FROM address_book ORDER BY label COLLATE LOCALIZED ASC")
     LiveData<List<AddressBookEntry>> getAll();
 
+    @Query("SELECT * FROM address_book")
+    List<AddressBookEntry> getAllNow();
+
     @Query("SELECT * FROM address_book WHERE address NOT IN (:except) ORDER BY label COLLATE LOCALIZED ASC")
     LiveData<List<AddressBookEntry>> getAllExcept(Set<String> except);
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.addressbook;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+
+/**
+ * Full-text index over {@link AddressBookEntry}. The content lives in the address book table; Room keeps the index
+ * in sync via triggers.
+ *
+ * @author agent
+ */
+@Fts4(contentEntity = AddressBookEntry.class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = AddressBookEntryFts.TABLE_NAME)
+public class AddressBookEntryFts {
+    public static final String TABLE_NAME = "address_book_fts";
+
+    /** Characters that separate words, roughly as the unicode61 tokenizer sees it. */
+    public static final String SEPARATOR_REGEX = "[^\\p{L}\\p{N}]+";
+
+    @NonNull
+    @ColumnInfo(name = "address")
+    private String address;
+
+    @ColumnInfo(name = "label")
+    private String label;
+
+    public AddressBookEntryFts(@NonNull final String address, final String label) {
+        this.address = address;
+        this.label = label;
+    }
+
+    @NonNull
+    public String getAddress() {
+        return address;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Turn free text as typed by the user into an FTS match expression. Every word becomes a prefix term, and all
+     * terms must match. Returns {@code null} if there is nothing to search for.
+     */
+    public static String matchQuery(final String constraint) {
+        final StringBuilder query = new StringBuilder();
+        for (final String token : constraint.split(SEPARATOR_REGEX)) {
+            if (token.isEmpty())
+                continue;
+            if (query.length() > 0)
+                query.append(' ');
+            query.append(token).append('*');
+        }
+        return query.length() > 0 ? query.toString() : null;
+    }
+}
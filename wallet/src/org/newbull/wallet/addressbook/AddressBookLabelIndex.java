@@ -0,0 +1,115 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.addressbook;
+
+import android.content.Context;
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.room.InvalidationTracker;
+import com.google.common.base.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of the address book, kept up to date from Room's invalidation tracker. The index is loaded when it
+ * is created, and lookups never touch the database, so they are safe to use on the main thread.
+ *
+ * @author agent
+ */
+public final class AddressBookLabelIndex {
+    private final AddressBookDao addressBookDao;
+    private volatile Snapshot snapshot;
+    private final MutableLiveData<Snapshot> liveData = new MutableLiveData<>();
+
+    private static AddressBookLabelIndex INSTANCE;
+
+    private static final Logger log = LoggerFactory.getLogger(AddressBookLabelIndex.class);
+
+    public static synchronized AddressBookLabelIndex get(final Context context) {
+        if (INSTANCE == null)
+            INSTANCE = new AddressBookLabelIndex(AddressBookDatabase.getDatabase(context));
+        return INSTANCE;
+    }
+
+    private AddressBookLabelIndex(final AddressBookDatabase database) {
+        this.addressBookDao = database.addressBookDao();
+        reload();
+        database.getInvalidationTracker().addObserver(new InvalidationTracker.Observer(AddressBookEntry.TABLE_NAME) {
+            @Override
+            public void onInvalidated(@NonNull final Set<String> tables) {
+                reload(); // called on a background thread
+            }
+        });
+    }
+
+    @WorkerThread
+    private synchronized void reload() {
+        final Stopwatch watch = Stopwatch.createStarted();
+        final Map<String, AddressBookEntry> entries = AddressBookEntry.asMap(addressBookDao.getAllNow());
+        final int generation = this.snapshot != null ? this.snapshot.generation + 1 : 1;
+        final Snapshot snapshot = new Snapshot(generation, Collections.unmodifiableMap(entries));
+        this.snapshot = snapshot;
+        liveData.postValue(snapshot);
+        log.info("address book index loaded, {} entries, took {}", entries.size(), watch);
+    }
+
+    /** Label of the given address, or {@code null} if it is not in the address book. */
+    @AnyThread
+    @Nullable
+    public String resolveLabel(final String address) {
+        final AddressBookEntry entry = snapshot.entries.get(address);
+        return entry != null ? entry.getLabel() : null;
+    }
+
+    /** Entries matching the input as typed, see {@link AddressBookAutocomplete.Source}. */
+    @AnyThread
+    public List<AddressBookEntry> search(final String constraint, final int limit) {
+        return AddressBookAutocomplete.search(snapshot.entries.values(), constraint, limit);
+    }
+
+    @AnyThread
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /** Delivers a new snapshot after every change of the address book. */
+    public LiveData<Snapshot> getLiveData() {
+        return liveData;
+    }
+
+    public static final class Snapshot {
+        /** Increases with every change of the address book. */
+        public final int generation;
+        /** Entries keyed by address. */
+        public final Map<String, AddressBookEntry> entries;
+
+        private Snapshot(final int generation, final Map<String, AddressBookEntry> entries) {
+            this.generation = generation;
+            this.entries = entries;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.data;
+
+import com.google.common.base.Stopwatch;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletTransaction.Pool;
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Index of the outpoints spent by the transactions of the wallet, for answering "is this outpoint already spent by
+ * us?" without going through every input of every transaction. Dead transactions don't count, like with
+ * {@link Wallet#getTransactions(boolean)}.
+ *
+ * <p>
+ * The index is built on first use and then maintained from wallet events: the inputs of received and sent transactions
+ * are added as they come. If the number of live transactions doesn't add up afterwards, for example because a
+ * transaction died or the wallet was reset, the index is rebuilt on next use.
+ *
+ * @author agent
+ */
+public final class SpentOutPointIndex {
+    private final Wallet wallet;
+    // guarded by this
+    private final Set<TransactionOutPoint> spent = new HashSet<>();
+    private final Set<Sha256Hash> indexed = new HashSet<>();
+    private boolean valid = false;
+    private int numEvents = 0;
+
+    private static SpentOutPointIndex INSTANCE;
+
+    private static final Logger log = LoggerFactory.getLogger(SpentOutPointIndex.class);
+
+    /**
+     * @return index for the given wallet; the index of a previous wallet is dropped
+     */
+    public static synchronized SpentOutPointIndex get(final Wallet wallet) {
+        if (INSTANCE == null || INSTANCE.wallet != wallet) {
+            if (INSTANCE != null)
+                INSTANCE.removeWalletListener();
+            INSTANCE = new SpentOutPointIndex(wallet);
+        }
+        return INSTANCE;
+    }
+
+    private SpentOutPointIndex(final Wallet wallet) {
+        this.wallet = wallet;
+        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletListener);
+        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletListener);
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, walletListener);
+        wallet.addChangeEventListener(Threading.SAME_THREAD, walletListener);
+    }
+
+    private void removeWalletListener() {
+        wallet.removeChangeEventListener(walletListener);
+        wallet.removeReorganizeEventListener(walletListener);
+        wallet.removeCoinsSentEventListener(walletListener);
+        wallet.removeCoinsReceivedEventListener(walletListener);
+    }
+
+    public boolean isSpent(final TransactionOutPoint outPoint) {
+        ensureValid();
+        synchronized (this) {
+            return spent.contains(outPoint);
+        }
+    }
+
+    public boolean isSpent(final Sha256Hash txId, final long index) {
+        return isSpent(new TransactionOutPoint(wallet.getParams(), index, txId));
+    }
+
+    /** Build the index now if needed, so that the first query doesn't have to. */
+    public void prepare() {
+        ensureValid();
+    }
+
+    private void ensureValid() {
+        // Wallet listeners are called with the wallet locked, so the wallet must not be accessed while holding our
+        // lock. Transactions are fetched without it, and fetched again if an event came in meanwhile.
+        while (true) {
+            final int numEvents;
+            synchronized (this) {
+                if (valid)
+                    return;
+                numEvents = this.numEvents;
+            }
+            final Stopwatch watch = Stopwatch.createStarted();
+            final Set<Transaction> transactions = wallet.getTransactions(false);
+            synchronized (this) {
+                if (numEvents != this.numEvents)
+                    continue;
+                spent.clear();
+                indexed.clear();
+                for (final Transaction tx : transactions)
+                    addInputs(tx);
+                valid = true;
+                watch.stop();
+                log.info("indexed {} spent outpoints of {} transactions, took {}", spent.size(), indexed.size(),
+                        watch);
+                return;
+            }
+        }
+    }
+
+    private void addInputs(final Transaction tx) {
+        if (indexed.add(tx.getTxId()))
+            for (final TransactionInput input : tx.getInputs())
+                spent.add(input.getOutpoint());
+    }
+
+    private int countLiveTransactions() {
+        return wallet.getPoolSize(Pool.UNSPENT) + wallet.getPoolSize(Pool.SPENT) + wallet.getPoolSize(Pool.PENDING);
+    }
+
+    private final WalletListener walletListener = new WalletListener();
+
+    private class WalletListener implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
+            WalletReorganizeEventListener, WalletChangeEventListener {
+        @Override
+        public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                final Coin newBalance) {
+            added(tx);
+        }
+
+        @Override
+        public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                final Coin newBalance) {
+            added(tx);
+        }
+
+        @Override
+        public void onReorganize(final Wallet wallet) {
+            synchronized (SpentOutPointIndex.this) {
+                numEvents++;
+                valid = false;
+            }
+        }
+
+        @Override
+        public void onWalletChanged(final Wallet wallet) {
+            final int numTransactions = countLiveTransactions();
+            synchronized (SpentOutPointIndex.this) {
+                numEvents++;
+                if (valid && numTransactions != indexed.size())
+                    valid = false;
+            }
+        }
+
+        private void added(final Transaction tx) {
+            synchronized (SpentOutPointIndex.this) {
+                numEvents++;
+                if (valid)
+                    addInputs(tx);
+            }
+        }
+    }
+}
@@ -19,32 +19,30 @@ package org.newbull.wallet.data;
 
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
-import android.os.AsyncTask;
 import org.newbull.wallet.Configuration;
-import org.newbull.wallet.Constants;
 import org.newbull.wallet.WalletApplication;
 import org.bitcoinj.core.Coin;
-import org.bitcoinj.core.Transaction;
-import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.Wallet;
 import org.bitcoinj.wallet.Wallet.BalanceType;
-import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
-import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
-import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
-import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
 
 /**
  * @author Andreas Schildbach
  */
 public final class WalletBalanceLiveData extends AbstractWalletLiveData<Coin>
-        implements OnSharedPreferenceChangeListener {
+        implements OnSharedPreferenceChangeListener, WalletBalanceStore.OnBalanceChangedListener {
     private final BalanceType balanceType;
     private final Configuration config;
+    private final WalletBalanceStore balanceStore = WalletBalanceStore.get();
 
     public WalletBalanceLiveData(final WalletApplication application, final BalanceType balanceType) {
         super(application);
         this.balanceType = balanceType;
         this.config = application.getConfiguration();
+
+        application.getWalletUiSnapshotAsync(snapshot -> {
+            if (snapshot.balances.containsKey(balanceType) && getValue() == null)
+                setValue(snapshot.balances.get(balanceType)); // first paint, until the wallet is loaded
+        });
     }
 
     public WalletBalanceLiveData(final WalletApplication application) {
@@ -53,70 +51,27 @@ public final class WalletBalanceLiveData extends AbstractWalletLiveData<Coin>
 
     @Override
     protected void onWalletActive(final Wallet wallet) {
-        addWalletListener(wallet);
+        balanceStore.subscribe(wallet, balanceType, this);
         config.registerOnSharedPreferenceChangeListener(this);
-        load();
     }
 
     @Override
     protected void onWalletInactive(final Wallet wallet) {
         config.unregisterOnSharedPreferenceChangeListener(this);
-        removeWalletListener(wallet);
-    }
-
-    private void addWalletListener(final Wallet wallet) {
-        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletListener);
-        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletListener);
-        wallet.addReorganizeEventListener(Threading.SAME_THREAD, walletListener);
-        wallet.addChangeEventListener(Threading.SAME_THREAD, walletListener);
-    }
-
-    private void removeWalletListener(final Wallet wallet) {
-        wallet.removeChangeEventListener(walletListener);
-        wallet.removeReorganizeEventListener(walletListener);
-        wallet.removeCoinsSentEventListener(walletListener);
-        wallet.removeCoinsReceivedEventListener(walletListener);
+        balanceStore.unsubscribe(balanceType, this);
     }
 
     @Override
-    protected void load() {
-        final Wallet wallet = getWallet();
-        AsyncTask.execute(() -> {
-            org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
-            postValue(wallet.getBalance(balanceType));
-        });
-    }
-
-    private final WalletListener walletListener = new WalletListener();
-
-    private class WalletListener implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
-            WalletReorganizeEventListener, WalletChangeEventListener {
-        @Override
-        public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance,
-                final Coin newBalance) {
-            triggerLoad();
-        }
-
-        @Override
-        public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance,
-                final Coin newBalance) {
-            triggerLoad();
-        }
-
-        @Override
-        public void onReorganize(final Wallet wallet) {
-            triggerLoad();
-        }
-
-        @Override
-        public void onWalletChanged(final Wallet wallet) {
-            triggerLoad();
-        }
+    public void onBalanceChanged(final Coin balance) {
+        postValue(balance);
     }
 
     @Override
     public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key) {
-        if (Configuration.PREFS_KEY_BTC_PRECISION.equals(key))
-            load();
+        if (Configuration.PREFS_KEY_BTC_PRECISION.equals(key)) {
+            final Coin balance = balanceStore.getBalance(balanceType);
+            if (balance != null)
+                setValue(balance); // re-deliver, so observers format it again
+        }
     }
 }
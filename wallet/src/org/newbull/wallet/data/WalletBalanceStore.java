@@ -0,0 +1,213 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.Nullable;
+import org.newbull.wallet.Constants;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.Wallet.BalanceType;
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process-wide store of the wallet balances. Listens to the wallet once, computes each subscribed
+ * {@link BalanceType} once per wallet change and pushes the result to all subscribers of that type. This way, the
+ * balance widget, the balance fragment and the send screen don't each scan the unspent outputs on their own.
+ *
+ * @author agent
+ */
+public final class WalletBalanceStore {
+    public interface OnBalanceChangedListener {
+        void onBalanceChanged(Coin balance);
+    }
+
+    private final Object lock = new Object();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final EnumMap<BalanceType, Set<OnBalanceChangedListener>> listeners = new EnumMap<>(BalanceType.class);
+    private final EnumMap<BalanceType, Coin> balances = new EnumMap<>(BalanceType.class);
+    @Nullable
+    private Wallet wallet;
+    private long lastLoadMs;
+
+    private static final long THROTTLE_MS = 500;
+
+    private static WalletBalanceStore INSTANCE;
+
+    private static final Logger log = LoggerFactory.getLogger(WalletBalanceStore.class);
+
+    public static synchronized WalletBalanceStore get() {
+        if (INSTANCE == null)
+            INSTANCE = new WalletBalanceStore();
+        return INSTANCE;
+    }
+
+    private WalletBalanceStore() {
+        for (final BalanceType balanceType : BalanceType.values())
+            listeners.put(balanceType, new LinkedHashSet<>());
+    }
+
+    /**
+     * Subscribe to a balance type. The listener is called right away if the balance is already known, and then on
+     * every change. Listeners are called on a background thread.
+     */
+    public void subscribe(final Wallet wallet, final BalanceType balanceType,
+            final OnBalanceChangedListener listener) {
+        final Coin balance;
+        synchronized (lock) {
+            if (wallet != this.wallet) {
+                if (this.wallet != null)
+                    removeWalletListener(this.wallet);
+                balances.clear();
+                this.wallet = wallet;
+                addWalletListener(wallet);
+            }
+            listeners.get(balanceType).add(listener);
+            balance = balances.get(balanceType);
+        }
+        if (balance != null)
+            listener.onBalanceChanged(balance);
+        else
+            load(); // first subscriber of this type
+    }
+
+    public void unsubscribe(final BalanceType balanceType, final OnBalanceChangedListener listener) {
+        synchronized (lock) {
+            listeners.get(balanceType).remove(listener);
+            if (!hasListeners() && wallet != null) {
+                // without a wallet listener, cached balances would go stale
+                removeWalletListener(wallet);
+                balances.clear();
+                wallet = null;
+                handler.removeCallbacksAndMessages(null);
+            }
+        }
+    }
+
+    /** Last computed balance of the given type, or {@code null} if nobody is subscribed to it. */
+    @Nullable
+    public Coin getBalance(final BalanceType balanceType) {
+        synchronized (lock) {
+            return balances.get(balanceType);
+        }
+    }
+
+    private boolean hasListeners() {
+        for (final Set<OnBalanceChangedListener> typeListeners : listeners.values())
+            if (!typeListeners.isEmpty())
+                return true;
+        return false;
+    }
+
+    private void addWalletListener(final Wallet wallet) {
+        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletListener);
+        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletListener);
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, walletListener);
+        wallet.addChangeEventListener(Threading.SAME_THREAD, walletListener);
+    }
+
+    private void removeWalletListener(final Wallet wallet) {
+        wallet.removeChangeEventListener(walletListener);
+        wallet.removeReorganizeEventListener(walletListener);
+        wallet.removeCoinsSentEventListener(walletListener);
+        wallet.removeCoinsReceivedEventListener(walletListener);
+    }
+
+    private void triggerLoad() {
+        handler.removeCallbacksAndMessages(null);
+        final long lastLoadAgoMs = System.currentTimeMillis() - lastLoadMs;
+        if (lastLoadAgoMs < THROTTLE_MS)
+            handler.postDelayed(this::load, THROTTLE_MS - lastLoadAgoMs);
+        else
+            load(); // immediately
+    }
+
+    private void load() {
+        lastLoadMs = System.currentTimeMillis();
+        WalletReadScheduler.get().schedule(WalletReadScheduler.Lane.BALANCE, this, () -> {
+            org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
+            final Wallet wallet;
+            final List<BalanceType> balanceTypes = new ArrayList<>(BalanceType.values().length);
+            synchronized (lock) {
+                wallet = this.wallet;
+                for (final Map.Entry<BalanceType, Set<OnBalanceChangedListener>> entry : listeners.entrySet())
+                    if (!entry.getValue().isEmpty())
+                        balanceTypes.add(entry.getKey());
+            }
+            if (wallet == null)
+                return;
+
+            for (final BalanceType balanceType : balanceTypes) {
+                final Coin balance = wallet.getBalance(balanceType);
+                final List<OnBalanceChangedListener> typeListeners;
+                synchronized (lock) {
+                    if (wallet != this.wallet)
+                        return; // replaced in the meantime
+                    if (balance.equals(balances.put(balanceType, balance)))
+                        continue;
+                    typeListeners = new ArrayList<>(listeners.get(balanceType));
+                }
+                log.debug("balance {} changed to {}", balanceType, balance.toFriendlyString());
+                for (final OnBalanceChangedListener listener : typeListeners)
+                    listener.onBalanceChanged(balance);
+            }
+        });
+    }
+
+    private final WalletListener walletListener = new WalletListener();
+
+    private class WalletListener implements WalletCoinsReceivedEventListener, WalletCoinsSentEventListener,
+            WalletReorganizeEventListener, WalletChangeEventListener {
+        @Override
+        public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                final Coin newBalance) {
+            triggerLoad();
+        }
+
+        @Override
+        public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance,
+                final Coin newBalance) {
+            triggerLoad();
+        }
+
+        @Override
+        public void onReorganize(final Wallet wallet) {
+            triggerLoad();
+        }
+
+        @Override
+        public void onWalletChanged(final Wallet wallet) {
+            triggerLoad();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Executes reads of the wallet on a few background threads. Work is queued in priority lanes, so a slow transaction
+ * list rebuild cannot hold up a balance update. Each task belongs to an owner (usually a LiveData). Tasks of the same
+ * owner never run concurrently, and a task that is still pending is dropped when a newer task of the same owner is
+ * scheduled.
+ *
+ * @author agent
+ */
+public final class WalletReadScheduler {
+    /** Lanes in order of priority. */
+    public enum Lane {
+        BALANCE, SEND, LIST, MONITOR
+    }
+
+    private final Object lock = new Object();
+    private final EnumMap<Lane, LinkedHashMap<Object, Task>> queues = new EnumMap<>(Lane.class);
+    private final EnumMap<Lane, LaneStats> stats = new EnumMap<>(Lane.class);
+    private final Set<Object> runningOwners = new HashSet<>();
+    private boolean shutdown = false;
+
+    private static final int NUM_THREADS = 2;
+    private static final long WAIT_WARN_THRESHOLD_MS = 1000;
+
+    private static WalletReadScheduler INSTANCE;
+
+    private static final Logger log = LoggerFactory.getLogger(WalletReadScheduler.class);
+
+    public static synchronized WalletReadScheduler get() {
+        if (INSTANCE == null)
+            INSTANCE = new WalletReadScheduler(NUM_THREADS);
+        return INSTANCE;
+    }
+
+    public WalletReadScheduler(final int numThreads) {
+        checkArgument(numThreads > 0);
+        for (final Lane lane : Lane.values()) {
+            queues.put(lane, new LinkedHashMap<>());
+            stats.put(lane, new LaneStats());
+        }
+        for (int i = 0; i < numThreads; i++) {
+            final Thread thread = new Thread(this::work, "wallet-read-" + i);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            thread.start();
+        }
+    }
+
+    /**
+     * Schedule a task. If a task of the same owner is still waiting, it is replaced and will not run.
+     */
+    public void schedule(final Lane lane, final Object owner, final Runnable runnable) {
+        synchronized (lock) {
+            if (shutdown)
+                return;
+            final Task previous = queues.get(lane).put(owner, new Task(lane, owner, runnable));
+            if (previous != null)
+                stats.get(lane).dropped++;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stop the worker threads once their current task is done. Tasks still waiting are discarded, and tasks scheduled
+     * afterwards will not run.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            for (final LinkedHashMap<Object, Task> queue : queues.values())
+                queue.clear();
+            lock.notifyAll();
+        }
+    }
+
+    /** Number of tasks waiting in the given lane. */
+    public int getQueueDepth(final Lane lane) {
+        synchronized (lock) {
+            return queues.get(lane).size();
+        }
+    }
+
+    /** Average time tasks of the given lane waited before they started, in milliseconds. */
+    public long getAverageWaitMs(final Lane lane) {
+        synchronized (lock) {
+            final LaneStats laneStats = stats.get(lane);
+            return laneStats.executed > 0 ? laneStats.totalWaitMs / laneStats.executed : 0;
+        }
+    }
+
+    /** Longest time a task of the given lane waited before it started, in milliseconds. */
+    public long getMaxWaitMs(final Lane lane) {
+        synchronized (lock) {
+            return stats.get(lane).maxWaitMs;
+        }
+    }
+
+    /** Number of tasks of the given lane that were superseded before they could run. */
+    public long getDroppedCount(final Lane lane) {
+        synchronized (lock) {
+            return stats.get(lane).dropped;
+        }
+    }
+
+    private void work() {
+        while (true) {
+            final Task task;
+            try {
+                task = take();
+            } catch (final InterruptedException x) {
+                return;
+            }
+            if (task == null)
+                return;
+            try {
+                task.runnable.run();
+            } catch (final RuntimeException x) {
+                log.warn("problem executing wallet read in lane " + task.lane, x);
+            } finally {
+                synchronized (lock) {
+                    runningOwners.remove(task.owner);
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /** Next task to run, or {@code null} if the scheduler has been shut down. */
+    private Task take() throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                if (shutdown)
+                    return null;
+                for (final Map.Entry<Lane, LinkedHashMap<Object, Task>> queue : queues.entrySet()) {
+                    for (final Iterator<Task> i = queue.getValue().values().iterator(); i.hasNext();) {
+                        final Task task = i.next();
+                        if (runningOwners.contains(task.owner))
+                            continue; // keep tasks of the same owner in order
+                        i.remove();
+                        runningOwners.add(task.owner);
+                        final long waitMs = System.currentTimeMillis() - task.scheduledAt;
+                        final LaneStats laneStats = stats.get(task.lane);
+                        laneStats.executed++;
+                        laneStats.totalWaitMs += waitMs;
+                        laneStats.maxWaitMs = Math.max(laneStats.maxWaitMs, waitMs);
+                        if (waitMs > WAIT_WARN_THRESHOLD_MS)
+                            log.info("wallet read in lane {} waited {} ms, {} still queued", task.lane, waitMs,
+                                    queue.getValue().size());
+                        return task;
+                    }
+                }
+                lock.wait();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(getClass().getSimpleName()).append('[');
+        synchronized (lock) {
+            for (final Lane lane : Lane.values()) {
+                final LaneStats laneStats = stats.get(lane);
+                final long averageWaitMs = laneStats.executed > 0 ? laneStats.totalWaitMs / laneStats.executed : 0;
+                if (lane != Lane.BALANCE)
+                    builder.append(", ");
+                builder.append(lane).append(": queued=").append(queues.get(lane).size());
+                builder.append(" executed=").append(laneStats.executed);
+                builder.append(" dropped=").append(laneStats.dropped);
+                builder.append(" avgWait=").append(averageWaitMs).append("ms");
+                builder.append(" maxWait=").append(laneStats.maxWaitMs).append("ms");
+            }
+        }
+        return builder.append(']').toString();
+    }
+
+    private static final class Task {
+        final Lane lane;
+        final Object owner;
+        final Runnable runnable;
+        final long scheduledAt = System.currentTimeMillis();
+
+        Task(final Lane lane, final Object owner, final Runnable runnable) {
+            this.lane = lane;
+            this.owner = owner;
+            this.runnable = runnable;
+        }
+    }
+
+    private static final class LaneStats {
+        long executed;
+        long dropped;
+        long totalWaitMs;
+        long maxWaitMs;
+    }
+}
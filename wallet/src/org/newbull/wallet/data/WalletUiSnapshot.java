@@ -0,0 +1,223 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.data;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Function;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.AddressFormatException;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.Wallet.BalanceType;
+import org.newbull.wallet.util.Formats;
+import org.newbull.wallet.util.WalletUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the UI needs for its first paint, written next to the wallet file on each save: the balances, the current
+ * receive address and the newest transactions. It can be read within milliseconds of process start, long before a
+ * large wallet is parsed. The values are only as fresh as the last save, so the UI switches over to the real wallet as
+ * soon as it is loaded.
+ *
+ * @author agent
+ */
+public final class WalletUiSnapshot {
+    public static final class Row {
+        public final Sha256Hash transactionId;
+        public final Date time;
+        public final Coin value;
+        @Nullable
+        public final Coin fee;
+        public final ConfidenceType confidenceType;
+        public final int depth;
+        public final boolean sent, internal, coinbase;
+        @Nullable
+        public final String address;
+        @Nullable
+        public final String label;
+
+        public Row(final Sha256Hash transactionId, final Date time, final Coin value, @Nullable final Coin fee,
+                final ConfidenceType confidenceType, final int depth, final boolean sent, final boolean internal,
+                final boolean coinbase, @Nullable final String address, @Nullable final String label) {
+            this.transactionId = transactionId;
+            this.time = time;
+            this.value = value;
+            this.fee = fee;
+            this.confidenceType = confidenceType;
+            this.depth = depth;
+            this.sent = sent;
+            this.internal = internal;
+            this.coinbase = coinbase;
+            this.address = address;
+            this.label = label;
+        }
+    }
+
+    public final int lastBlockSeenHeight;
+    public final Map<BalanceType, Coin> balances;
+    @Nullable
+    public final Address currentReceiveAddress;
+    public final List<Row> rows;
+
+    private static final int VERSION = 1;
+    private static final int FLAG_SENT = 1 << 0;
+    private static final int FLAG_INTERNAL = 1 << 1;
+    private static final int FLAG_COINBASE = 1 << 2;
+
+    public WalletUiSnapshot(final int lastBlockSeenHeight, final Map<BalanceType, Coin> balances,
+            @Nullable final Address currentReceiveAddress, final List<Row> rows) {
+        this.lastBlockSeenHeight = lastBlockSeenHeight;
+        this.balances = Collections.unmodifiableMap(balances);
+        this.currentReceiveAddress = currentReceiveAddress;
+        this.rows = Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * Take a snapshot of the given wallet.
+     *
+     * @param numRows
+     *            number of newest transactions to include
+     * @param labelResolver
+     *            looks up the address book label of an address, may return {@code null}
+     */
+    public static WalletUiSnapshot of(final Wallet wallet, final int numRows,
+            final Function<String, String> labelResolver) {
+        final Map<BalanceType, Coin> balances = new EnumMap<>(BalanceType.class);
+        for (final BalanceType balanceType : BalanceType.values())
+            balances.put(balanceType, wallet.getBalance(balanceType));
+
+        final List<Row> rows = new ArrayList<>(numRows);
+        for (final Transaction tx : wallet.getRecentTransactions(numRows, true)) {
+            final Coin value = tx.getValue(wallet);
+            final boolean sent = value.signum() < 0;
+            final TransactionConfidence confidence = tx.getConfidence();
+            final boolean internal = tx.getPurpose() == Transaction.Purpose.KEY_ROTATION
+                    || WalletUtils.isEntirelySelf(tx, wallet);
+            final Address address = sent ? WalletUtils.getToAddressOfSent(tx, wallet)
+                    : WalletUtils.getWalletAddressOfReceived(tx, wallet);
+            final String addressStr = address != null ? address.toString() : null;
+            String label = addressStr != null ? labelResolver.apply(addressStr) : null;
+            if (label == null) {
+                final String[] memo = Formats.sanitizeMemo(tx.getMemo());
+                if (memo != null && memo.length >= 2)
+                    label = memo[1];
+            }
+            rows.add(new Row(tx.getTxId(), tx.getUpdateTime(), value, sent ? tx.getFee() : null,
+                    confidence.getConfidenceType(),
+                    confidence.getConfidenceType() == ConfidenceType.BUILDING ? confidence.getDepthInBlocks() : 0,
+                    sent, internal, tx.isCoinBase(), addressStr, label));
+        }
+
+        return new WalletUiSnapshot(wallet.getLastBlockSeenHeight(), balances, wallet.currentReceiveAddress(), rows);
+    }
+
+    /** Write to the given file, replacing it atomically. */
+    public void writeTo(final File file) throws IOException {
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (final DataOutputStream os = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            os.writeInt(VERSION);
+            os.writeInt(lastBlockSeenHeight);
+            os.writeByte(balances.size());
+            for (final Map.Entry<BalanceType, Coin> entry : balances.entrySet()) {
+                os.writeByte(entry.getKey().ordinal());
+                os.writeLong(entry.getValue().value);
+            }
+            os.writeUTF(currentReceiveAddress != null ? currentReceiveAddress.toString() : "");
+            os.writeInt(rows.size());
+            for (final Row row : rows) {
+                os.write(row.transactionId.getBytes());
+                os.writeLong(row.time.getTime());
+                os.writeLong(row.value.value);
+                os.writeLong(row.fee != null ? row.fee.value : -1);
+                os.writeByte(row.confidenceType.ordinal());
+                os.writeInt(row.depth);
+                os.writeByte((row.sent ? FLAG_SENT : 0) | (row.internal ? FLAG_INTERNAL : 0)
+                        | (row.coinbase ? FLAG_COINBASE : 0));
+                os.writeUTF(row.address != null ? row.address : "");
+                os.writeUTF(row.label != null ? row.label : "");
+            }
+        }
+        if (!tempFile.renameTo(file))
+            throw new IOException("cannot rename " + tempFile + " to " + file);
+    }
+
+    /**
+     * Read from the given file.
+     *
+     * @return the snapshot, or {@code null} if there is none or it is from an incompatible version
+     */
+    @Nullable
+    public static WalletUiSnapshot readFrom(final File file, final NetworkParameters params) throws IOException {
+        if (!file.exists())
+            return null;
+        try (final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (is.readInt() != VERSION)
+                return null;
+            final int lastBlockSeenHeight = is.readInt();
+            final Map<BalanceType, Coin> balances = new EnumMap<>(BalanceType.class);
+            final int numBalances = is.readUnsignedByte();
+            for (int i = 0; i < numBalances; i++) {
+                final BalanceType balanceType = BalanceType.values()[is.readUnsignedByte()];
+                balances.put(balanceType, Coin.valueOf(is.readLong()));
+            }
+            final String currentReceiveAddress = is.readUTF();
+            final int numRows = is.readInt();
+            final List<Row> rows = new ArrayList<>(numRows);
+            final byte[] hash = new byte[Sha256Hash.LENGTH];
+            for (int i = 0; i < numRows; i++) {
+                is.readFully(hash);
+                final Date time = new Date(is.readLong());
+                final Coin value = Coin.valueOf(is.readLong());
+                final long fee = is.readLong();
+                final ConfidenceType confidenceType = ConfidenceType.values()[is.readUnsignedByte()];
+                final int depth = is.readInt();
+                final int flags = is.readUnsignedByte();
+                final String address = is.readUTF();
+                final String label = is.readUTF();
+                rows.add(new Row(Sha256Hash.wrap(hash), time, value, fee >= 0 ? Coin.valueOf(fee) : null,
+                        confidenceType, depth, (flags & FLAG_SENT) != 0, (flags & FLAG_INTERNAL) != 0,
+                        (flags & FLAG_COINBASE) != 0, !address.isEmpty() ? address : null,
+                        !label.isEmpty() ? label : null));
+            }
+            return new WalletUiSnapshot(lastBlockSeenHeight, balances,
+                    !currentReceiveAddress.isEmpty() ? Address.fromString(params, currentReceiveAddress) : null, rows);
+        } catch (final AddressFormatException | ArrayIndexOutOfBoundsException x) {
+            throw new IOException("corrupt wallet UI snapshot: " + file, x);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.electrum;
+
+import androidx.annotation.Nullable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client for Electrum servers, keeping one connection per server open for reuse. Connections are closed after they
+ * have been idle for a while, and reopened on demand. All TLS connections share one context, so that TLS sessions can
+ * be resumed on reconnect.
+ *
+ * <p>
+ * Requests to the same server are multiplexed on its connection; see {@link ElectrumConnection}.
+ *
+ * @author agent
+ */
+public final class ElectrumClient {
+    public static class Utxo {
+        public String tx_hash;
+        public int tx_pos;
+        public long value;
+        public int height;
+    }
+
+    /** The server answered with an error. */
+    public static class ServerErrorException extends IOException {
+        public final int code;
+
+        public ServerErrorException(final int code, final String message) {
+            super("server error " + code + ": " + message);
+            this.code = code;
+        }
+    }
+
+    /** The certificate of a self-signed TLS server didn't have the expected fingerprint. */
+    public static class FingerprintMismatchException extends SSLPeerUnverifiedException {
+        public FingerprintMismatchException(final String message) {
+            super(message);
+        }
+    }
+
+    private final int connectTimeoutMs;
+    private final long requestTimeoutMs;
+    private final long idleTimeoutMs;
+    private final Moshi moshi = new Moshi.Builder().build();
+    private final JsonAdapter<Utxo[]> utxosAdapter = moshi.adapter(Utxo[].class);
+    private final SSLSocketFactory sslSocketFactory = sslTrustAllCertificates();
+    private final ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("electrum-%d").setDaemon(true).build()));
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("electrum-timeout").setDaemon(true).build());
+    // guarded by this
+    private final Map<ElectrumServer, ListenableFuture<ElectrumConnection>> connections = new HashMap<>();
+    @Nullable
+    private ScheduledFuture<?> idleCheck;
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final long REQUEST_TIMEOUT_MS = 5000;
+    private static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static ElectrumClient INSTANCE;
+
+    private static final Logger log = LoggerFactory.getLogger(ElectrumClient.class);
+
+    public static synchronized ElectrumClient get() {
+        if (INSTANCE == null)
+            INSTANCE = new ElectrumClient(CONNECT_TIMEOUT_MS, REQUEST_TIMEOUT_MS, IDLE_TIMEOUT_MS);
+        return INSTANCE;
+    }
+
+    public ElectrumClient(final int connectTimeoutMs, final long requestTimeoutMs, final long idleTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * Request the unspent outputs of the given script hashes from the given server, in a single batch.
+     *
+     * @param scriptHashes
+     *            Electrum script hashes, that is reversed SHA-256 of the output script, in hex
+     * @return one array of unspent outputs per script hash, in the order of the script hashes
+     */
+    public ListenableFuture<List<Utxo[]>> listUnspent(final ElectrumServer server, final List<String> scriptHashes) {
+        final List<String[]> paramsList = new ArrayList<>(scriptHashes.size());
+        for (final String scriptHash : scriptHashes)
+            paramsList.add(new String[] { scriptHash });
+        return batch(server, "blockchain.scripthash.listunspent", utxosAdapter, paramsList);
+    }
+
+    /**
+     * Call the given method once per set of params, in a single batch.
+     *
+     * @return results in the order of the given params
+     */
+    public <T> ListenableFuture<List<T>> batch(final ElectrumServer server, final String method,
+            final JsonAdapter<T> resultAdapter, final List<String[]> paramsList) {
+        final ListenableFuture<ElectrumConnection> connection = connection(server);
+        final ListenableFuture<List<T>> result = Futures.transformAsync(connection,
+                c -> c.batch(method, resultAdapter, paramsList), MoreExecutors.directExecutor());
+        return withTimeout(result);
+    }
+
+    public <T> ListenableFuture<T> call(final ElectrumServer server, final String method,
+            final JsonAdapter<T> resultAdapter, final String... params) {
+        final ListenableFuture<ElectrumConnection> connection = connection(server);
+        final ListenableFuture<T> result = Futures.transformAsync(connection,
+                c -> c.call(method, resultAdapter, params), MoreExecutors.directExecutor());
+        return withTimeout(result);
+    }
+
+    public Moshi getMoshi() {
+        return moshi;
+    }
+
+    /** Scheduler for timeouts, must not be used for anything that blocks. */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * A request that isn't answered in time fails on its own. Other requests on the same connection go on; a late
+     * answer is dropped.
+     */
+    private <T> ListenableFuture<T> withTimeout(final ListenableFuture<T> result) {
+        return Futures.withTimeout(result, connectTimeoutMs + requestTimeoutMs, TimeUnit.MILLISECONDS, scheduler);
+    }
+
+    /**
+     * Concurrent requests to a server that isn't connected yet wait for the same connect. Callers must not cancel the
+     * shared connect, so they only get a view of it.
+     */
+    private synchronized ListenableFuture<ElectrumConnection> connection(final ElectrumServer server) {
+        final ListenableFuture<ElectrumConnection> connection = connections.get(server);
+        if (connection != null && (!connection.isDone() || isOpen(connection)))
+            return Futures.nonCancellationPropagating(connection);
+        final ListenableFuture<ElectrumConnection> newConnection = executor.submit(() -> {
+            final ElectrumConnection c = ElectrumConnection.open(server, sslSocketFactory, connectTimeoutMs, moshi,
+                    executor);
+            log.info("{} - connected{}", server,
+                    server.type == ElectrumServer.Type.TLS ? ", TLS handshake took " + c.handshakeMs + " ms" : "");
+            return c;
+        });
+        connections.put(server, newConnection);
+        if (idleCheck == null)
+            idleCheck = scheduler.scheduleWithFixedDelay(this::closeIdleConnections, idleTimeoutMs,
+                    idleTimeoutMs / 2, TimeUnit.MILLISECONDS);
+        return Futures.nonCancellationPropagating(newConnection);
+    }
+
+    @Nullable
+    private static ElectrumConnection getOpen(final ListenableFuture<ElectrumConnection> connection) {
+        if (!connection.isDone() || connection.isCancelled())
+            return null;
+        try {
+            final ElectrumConnection c = Futures.getDone(connection);
+            return c.isClosed() ? null : c;
+        } catch (final ExecutionException x) {
+            return null;
+        }
+    }
+
+    private static boolean isOpen(final ListenableFuture<ElectrumConnection> connection) {
+        return getOpen(connection) != null;
+    }
+
+    /**
+     * @return TLS handshake time of the current connection to the given server, or {@code -1} if there is none
+     */
+    public synchronized long getHandshakeMs(final ElectrumServer server) {
+        final ListenableFuture<ElectrumConnection> connection = connections.get(server);
+        final ElectrumConnection c = connection != null ? getOpen(connection) : null;
+        return c != null ? c.handshakeMs : -1;
+    }
+
+    /** Runs only while there are connections. */
+    private void closeIdleConnections() {
+        final long now = System.currentTimeMillis();
+        final List<ElectrumConnection> idle = new ArrayList<>();
+        synchronized (this) {
+            for (final Iterator<ListenableFuture<ElectrumConnection>> i = connections.values().iterator(); i
+                    .hasNext();) {
+                final ListenableFuture<ElectrumConnection> connection = i.next();
+                if (!connection.isDone())
+                    continue;
+                final ElectrumConnection c = getOpen(connection);
+                if (c == null) {
+                    i.remove();
+                } else if (c.isIdle(now, idleTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    idle.add(c);
+                    i.remove();
+                }
+            }
+            if (connections.isEmpty())
+                cancelIdleCheck();
+        }
+        // closing fails requests in flight, whose listeners must not run under the lock
+        for (final ElectrumConnection c : idle) {
+            log.info("{} - closing idle connection", c.server);
+            c.close(new IOException("idle"));
+        }
+    }
+
+    public void closeAll() {
+        final List<ElectrumConnection> open = new ArrayList<>();
+        synchronized (this) {
+            for (final ListenableFuture<ElectrumConnection> connection : connections.values()) {
+                final ElectrumConnection c = getOpen(connection);
+                if (c != null)
+                    open.add(c);
+            }
+            connections.clear();
+            cancelIdleCheck();
+        }
+        for (final ElectrumConnection c : open)
+            c.close(new IOException("closing all connections"));
+    }
+
+    private void cancelIdleCheck() {
+        if (idleCheck != null) {
+            idleCheck.cancel(false);
+            idleCheck = null;
+        }
+    }
+
+    private static SSLSocketFactory sslTrustAllCertificates() {
+        try {
+            final SSLContext context = SSLContext.getInstance("SSL");
+            context.init(null, new TrustManager[] { TRUST_ALL_CERTIFICATES }, null);
+            return context.getSocketFactory();
+        } catch (final Exception x) {
+            throw new RuntimeException(x);
+        }
+    }
+
+    private static final X509TrustManager TRUST_ALL_CERTIFICATES = new X509TrustManager() {
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType)
+                throws CertificateException {
+        }
+
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType)
+                throws CertificateException {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    };
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.electrum;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonDataException;
+import com.squareup.moshi.Moshi;
+import com.squareup.moshi.Types;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single kept-alive connection to an Electrum server. Requests are written as they come and tagged with an id, and
+ * a reader thread hands each response to the request with the same id, so any number of requests can be in flight on
+ * the same socket. Batches are written as one JSON-RPC array.
+ *
+ * <p>
+ * Once reading or writing fails, the connection is closed and all requests in flight fail with the same exception.
+ *
+ * @author agent
+ */
+final class ElectrumConnection {
+    static final class Request {
+        public final int id;
+        public final String method;
+        public final String[] params;
+
+        Request(final int id, final String method, final String[] params) {
+            this.id = id;
+            this.method = method;
+            this.params = params;
+        }
+    }
+
+    static final class Response {
+        public Integer id;
+        public Object result;
+        public Error error;
+
+        static final class Error {
+            public int code;
+            public String message;
+        }
+    }
+
+    private static final class Pending<T> {
+        final SettableFuture<T> future = SettableFuture.create();
+        final JsonAdapter<T> resultAdapter;
+
+        Pending(final JsonAdapter<T> resultAdapter) {
+            this.resultAdapter = resultAdapter;
+        }
+
+        void complete(final Response response) {
+            if (response.error != null)
+                future.setException(new ElectrumClient.ServerErrorException(response.error.code,
+                        response.error.message));
+            else if (response.result == null)
+                future.setException(new IOException("missing result"));
+            else
+                try {
+                    future.set(resultAdapter.fromJsonValue(response.result));
+                } catch (final JsonDataException x) {
+                    future.setException(x);
+                }
+        }
+    }
+
+    final ElectrumServer server;
+    final long handshakeMs;
+    private final Socket socket;
+    private final BufferedSink sink;
+    private final BufferedSource source;
+    private final JsonAdapter<Request> requestAdapter;
+    private final JsonAdapter<List<Request>> batchRequestAdapter;
+    private final JsonAdapter<Response> responseAdapter;
+    private final JsonAdapter<List<Response>> batchResponseAdapter;
+    private final AtomicInteger idCounter = new AtomicInteger();
+    private final Map<Integer, Pending<?>> pending = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+    private volatile long lastUsed;
+
+    private static final Logger log = LoggerFactory.getLogger(ElectrumConnection.class);
+
+    private ElectrumConnection(final ElectrumServer server, final Socket socket, final long handshakeMs,
+            final Moshi moshi) throws IOException {
+        this.server = server;
+        this.socket = socket;
+        this.handshakeMs = handshakeMs;
+        this.sink = Okio.buffer(Okio.sink(socket));
+        this.source = Okio.buffer(Okio.source(socket));
+        this.requestAdapter = moshi.adapter(Request.class);
+        this.batchRequestAdapter = moshi.adapter(Types.newParameterizedType(List.class, Request.class));
+        this.responseAdapter = moshi.adapter(Response.class);
+        this.batchResponseAdapter = moshi.adapter(Types.newParameterizedType(List.class, Response.class));
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Connect to the given server and start reading responses on the given executor. TLS servers are verified by
+     * certificate fingerprint if one is configured, or by host name otherwise.
+     */
+    static ElectrumConnection open(final ElectrumServer server, final SSLSocketFactory sslSocketFactory,
+            final int connectTimeoutMs, final Moshi moshi, final Executor readerExecutor) throws IOException {
+        final String host = server.socketAddress.getHostString();
+        final int port = server.socketAddress.getPort();
+        final Socket plainSocket = new Socket();
+        final Socket socket;
+        final long handshakeMs;
+        try {
+            plainSocket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            if (server.type == ElectrumServer.Type.TLS) {
+                // host and port are passed on, so that the TLS session can be resumed on reconnect
+                socket = sslSocketFactory.createSocket(plainSocket, host, port, true);
+                socket.setSoTimeout(connectTimeoutMs);
+                final long start = System.currentTimeMillis();
+                ((SSLSocket) socket).startHandshake();
+                handshakeMs = System.currentTimeMillis() - start;
+                verify(server, ((SSLSocket) socket).getSession());
+                socket.setSoTimeout(0);
+            } else if (server.type == ElectrumServer.Type.TCP) {
+                socket = plainSocket;
+                handshakeMs = 0;
+            } else {
+                throw new IllegalStateException("Cannot handle: " + server.type);
+            }
+        } catch (final IOException | RuntimeException x) {
+            plainSocket.close();
+            throw x;
+        }
+        final ElectrumConnection connection = new ElectrumConnection(server, socket, handshakeMs, moshi);
+        readerExecutor.execute(connection::read);
+        return connection;
+    }
+
+    private static void verify(final ElectrumServer server, final SSLSession sslSession)
+            throws SSLPeerUnverifiedException {
+        final String host = server.socketAddress.getHostString();
+        if (server.certificateFingerprint == null) {
+            // signed by CA
+            if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, sslSession))
+                throw new SSLPeerUnverifiedException("Expected " + host + ", got " + sslSession.getPeerPrincipal());
+        } else {
+            // self-signed
+            final Certificate certificate = sslSession.getPeerCertificates()[0];
+            final String certificateFingerprint;
+            try {
+                certificateFingerprint = Hashing.sha256().hashBytes(certificate.getEncoded()).toString();
+            } catch (final CertificateEncodingException x) {
+                throw new SSLPeerUnverifiedException(x.getMessage());
+            }
+            if (!certificateFingerprint.equals(server.certificateFingerprint))
+                throw new ElectrumClient.FingerprintMismatchException("Expected " + server.certificateFingerprint
+                        + " for " + host + ", got " + certificateFingerprint);
+        }
+    }
+
+    <T> ListenableFuture<T> call(final String method, final JsonAdapter<T> resultAdapter, final String... params) {
+        final int id = idCounter.getAndIncrement();
+        final Pending<T> request = register(id, resultAdapter);
+        write(requestAdapter.toJson(new Request(id, method, params)));
+        return request.future;
+    }
+
+    /**
+     * Call the same method once per set of params, in a single batch.
+     *
+     * @return results in the order of the given params
+     */
+    <T> ListenableFuture<List<T>> batch(final String method, final JsonAdapter<T> resultAdapter,
+            final List<String[]> paramsList) {
+        final List<Request> requests = new ArrayList<>(paramsList.size());
+        final List<ListenableFuture<T>> futures = new ArrayList<>(paramsList.size());
+        for (final String[] params : paramsList) {
+            final int id = idCounter.getAndIncrement();
+            futures.add(register(id, resultAdapter).future);
+            requests.add(new Request(id, method, params));
+        }
+        write(batchRequestAdapter.toJson(requests));
+        return Futures.allAsList(futures);
+    }
+
+    private <T> Pending<T> register(final int id, final JsonAdapter<T> resultAdapter) {
+        final Pending<T> request = new Pending<>(resultAdapter);
+        pending.put(id, request);
+        // a cancelled or timed out request must not stay pending
+        request.future.addListener(() -> pending.remove(id), MoreExecutors.directExecutor());
+        lastUsed = System.currentTimeMillis();
+        if (closed)
+            request.future.setException(new IOException("connection closed"));
+        return request;
+    }
+
+    private void write(final String json) {
+        try {
+            synchronized (sink) {
+                sink.writeUtf8(json).writeUtf8("\n").flush();
+            }
+        } catch (final IOException x) {
+            close(x);
+        }
+    }
+
+    private void read() {
+        try {
+            while (!closed) {
+                final String line = source.readUtf8Line();
+                if (line == null)
+                    throw new IOException("connection closed by server");
+                if (line.isEmpty())
+                    continue;
+                final List<Response> responses;
+                if (line.charAt(0) == '[') {
+                    responses = batchResponseAdapter.fromJson(line);
+                } else {
+                    responses = new ArrayList<>(1);
+                    responses.add(responseAdapter.fromJson(line));
+                }
+                for (final Response response : responses) {
+                    if (response.id == null)
+                        continue; // notification
+                    final Pending<?> request = pending.remove(response.id);
+                    if (request != null)
+                        request.complete(response);
+                    else
+                        log.info("{} - unexpected response id {}", server, response.id);
+                }
+                lastUsed = System.currentTimeMillis();
+            }
+        } catch (final IOException x) {
+            close(x);
+        } catch (final JsonDataException x) {
+            close(new IOException(x.getMessage(), x));
+        } catch (final RuntimeException x) {
+            log.error(server.toString(), x);
+            close(new IOException(x));
+        }
+    }
+
+    void close(final IOException reason) {
+        if (closed)
+            return;
+        closed = true;
+        if (!pending.isEmpty())
+            log.info("{} - closing with {} requests in flight: {}", server, pending.size(), reason.getMessage());
+        try {
+            socket.close();
+        } catch (final IOException x) {
+            // swallow
+        }
+        for (final Pending<?> request : pending.values())
+            request.future.setException(reason);
+        pending.clear();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    boolean isIdle(final long now, final long idleTimeout, final TimeUnit unit) {
+        return pending.isEmpty() && now - lastUsed > unit.toMillis(idleTimeout);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.electrum;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Objects;
+
+import java.net.InetSocketAddress;
+import java.util.Locale;
+
+/**
+ * @author agent
+ */
+public final class ElectrumServer {
+    public enum Type {
+        TCP, TLS
+    }
+
+    public final InetSocketAddress socketAddress;
+    public final Type type;
+    @Nullable
+    public final String certificateFingerprint;
+
+    /**
+     * @param certificateFingerprint
+     *            SHA-256 fingerprint of the self-signed certificate of a TLS server, or {@code null} if the
+     *            certificate is signed by a CA
+     */
+    public ElectrumServer(final Type type, final InetSocketAddress socketAddress,
+            final @Nullable String certificateFingerprint) {
+        this.type = type;
+        this.socketAddress = socketAddress;
+        this.certificateFingerprint = certificateFingerprint != null ? certificateFingerprint.toLowerCase(Locale.US)
+                : null;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        final ElectrumServer other = (ElectrumServer) o;
+        return type == other.type && socketAddress.equals(other.socketAddress)
+                && Objects.equal(certificateFingerprint, other.certificateFingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(type, socketAddress, certificateFingerprint);
+    }
+
+    @Override
+    public String toString() {
+        return type.name().toLowerCase(Locale.US) + ":" + socketAddress.getHostString() + ":"
+                + socketAddress.getPort();
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.electrum;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of the known Electrum servers, with a health record for each of them. The server list is parsed once per
+ * process; health records are kept in a small text file, one server per line, and updated after every {@link Quorum}.
+ * Saving is deferred a little, so that a burst of quorums results in a single write.
+ *
+ * <p>
+ * A health record consists of the success rate, the most recent latencies (from which p50 and p95 are taken), the
+ * TLS handshake time and the number of certificate fingerprint failures. Servers are ranked by p95 latency plus
+ * handshake time, divided by the success rate; servers with fingerprint failures go last. Servers without a health
+ * record, or with a record that hasn't been updated for a week, go first so that they get a (new) chance.
+ *
+ * @author agent
+ */
+public final class ElectrumServerRegistry {
+    public static final class Health {
+        private double successRate = Double.NaN;
+        private final ArrayDeque<Long> latenciesMs = new ArrayDeque<>(MAX_LATENCY_SAMPLES);
+        private double handshakeMs = Double.NaN;
+        private int fingerprintFailures = 0;
+        private long lastUpdated = 0;
+
+        public double getSuccessRate() {
+            return successRate;
+        }
+
+        /** @return latency at the given percentile, or {@code -1} if unknown */
+        public long getLatencyMs(final int percentile) {
+            if (latenciesMs.isEmpty())
+                return -1;
+            final Long[] sorted = latenciesMs.toArray(new Long[0]);
+            Arrays.sort(sorted);
+            return sorted[Math.min((sorted.length * percentile) / 100, sorted.length - 1)];
+        }
+
+        public double getHandshakeMs() {
+            return handshakeMs;
+        }
+
+        public int getFingerprintFailures() {
+            return fingerprintFailures;
+        }
+
+        private double cost(final long now) {
+            if (lastUpdated < now - HEALTH_EXPIRY_MS)
+                return 0;
+            if (fingerprintFailures > 0)
+                return Double.MAX_VALUE;
+            final long p95 = getLatencyMs(95);
+            final double latency = Math.max(p95 >= 0 ? p95 : 0, MIN_LATENCY_MS)
+                    + (Double.isNaN(handshakeMs) ? 0 : handshakeMs);
+            final double successRate = Double.isNaN(this.successRate) ? 1 : this.successRate;
+            return latency / Math.max(successRate, MIN_SUCCESS_RATE);
+        }
+
+        private void addLatency(final long latencyMs) {
+            if (latenciesMs.size() >= MAX_LATENCY_SAMPLES)
+                latenciesMs.removeFirst();
+            latenciesMs.addLast(latencyMs);
+        }
+    }
+
+    private final List<ElectrumServer> servers;
+    private final File file;
+    // guarded by this
+    private final Map<String, Health> health = new HashMap<>();
+    private boolean dirty = false;
+    @Nullable
+    private ScheduledFuture<?> pendingSave = null;
+
+    private static final int MAX_LATENCY_SAMPLES = 20;
+    private static final double EWMA_WEIGHT = 0.3;
+    private static final double MIN_LATENCY_MS = 100;
+    private static final double MIN_SUCCESS_RATE = 0.02;
+    private static final long HEALTH_EXPIRY_MS = TimeUnit.DAYS.toMillis(7);
+    private static final long SAVE_DELAY_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private static final Logger log = LoggerFactory.getLogger(ElectrumServerRegistry.class);
+
+    private ElectrumServerRegistry(final List<ElectrumServer> servers, final File file) {
+        this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+        this.file = file;
+    }
+
+    /**
+     * Parse a list of servers, one per line in the form {@code type:host[:port[:fingerprint]]}.
+     */
+    public static List<ElectrumServer> parse(final InputStream is, final int defaultPortTcp,
+            final int defaultPortTls) {
+        final Splitter splitter = Splitter.on(':').trimResults();
+        final List<ElectrumServer> servers = new ArrayList<>();
+        String line = null;
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            while (true) {
+                line = reader.readLine();
+                if (line == null)
+                    break;
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#')
+                    continue;
+
+                final Iterator<String> i = splitter.split(line).iterator();
+                final ElectrumServer.Type type = ElectrumServer.Type.valueOf(i.next().toUpperCase(Locale.US));
+                final String host = i.next();
+                final String port = i.hasNext() ? Strings.emptyToNull(i.next()) : null;
+                final String fingerprint = i.hasNext() ? Strings.emptyToNull(i.next()) : null;
+                final int defaultPort = type == ElectrumServer.Type.TLS ? defaultPortTls : defaultPortTcp;
+                servers.add(new ElectrumServer(type, InetSocketAddress.createUnresolved(host,
+                        port != null ? Integer.parseInt(port) : defaultPort), fingerprint));
+            }
+        } catch (final Exception x) {
+            throw new RuntimeException("Error while parsing: '" + line + "'", x);
+        }
+        return servers;
+    }
+
+    /**
+     * Load health records of the given servers from the given file. A missing or damaged file results in no records.
+     */
+    public static ElectrumServerRegistry load(final List<ElectrumServer> servers, final File file) {
+        final ElectrumServerRegistry registry = new ElectrumServerRegistry(servers, file);
+        if (!file.exists())
+            return registry;
+        try (final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                final String[] fields = line.split("\\s+");
+                if (fields.length != 6) {
+                    log.info("ignoring line in {}: '{}'", file, line);
+                    continue;
+                }
+                final Health health = new Health();
+                health.successRate = Double.parseDouble(fields[1]);
+                health.handshakeMs = Double.parseDouble(fields[2]);
+                health.fingerprintFailures = Integer.parseInt(fields[3]);
+                health.lastUpdated = Long.parseLong(fields[4]);
+                if (!fields[5].equals("-"))
+                    for (final String latency : Splitter.on(',').split(fields[5]))
+                        health.addLatency(Long.parseLong(latency));
+                registry.health.put(fields[0], health);
+            }
+            log.info("loaded {} Electrum server health records from {}", registry.health.size(), file);
+        } catch (final IOException | RuntimeException x) {
+            log.warn("problem loading Electrum server health from " + file + ", starting over", x);
+            registry.health.clear();
+        }
+        return registry;
+    }
+
+    /**
+     * Save on the given scheduler after a short delay, unless a save is pending already.
+     */
+    public synchronized void saveLater(final ScheduledExecutorService scheduler) {
+        if (pendingSave == null)
+            pendingSave = scheduler.schedule(this::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void save() {
+        pendingSave = null;
+        if (!dirty)
+            return;
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (final Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            writer.write("# server success_rate handshake_ms fingerprint_failures last_updated latencies_ms\n");
+            for (final Map.Entry<String, Health> entry : health.entrySet()) {
+                final Health health = entry.getValue();
+                writer.write(String.format(Locale.US, "%s %.3f %.0f %d %d %s\n", entry.getKey(), health.successRate,
+                        health.handshakeMs, health.fingerprintFailures, health.lastUpdated,
+                        health.latenciesMs.isEmpty() ? "-" : Joiner.on(',').join(health.latenciesMs)));
+            }
+        } catch (final IOException x) {
+            log.warn("problem saving Electrum server health to " + tempFile, x);
+            return;
+        }
+        if (tempFile.renameTo(file))
+            dirty = false;
+        else
+            log.warn("cannot rename {} to {}", tempFile, file);
+    }
+
+    public List<ElectrumServer> getServers() {
+        return servers;
+    }
+
+    /**
+     * @return health record of the given server, or {@code null} if there is none
+     */
+    @Nullable
+    public synchronized Health getHealth(final ElectrumServer server) {
+        return health.get(server.toString());
+    }
+
+    /**
+     * @return up to the given number of servers, best first; servers that rank the same keep their order
+     */
+    public synchronized List<ElectrumServer> getBest(final int maxServers, final long now) {
+        final Map<ElectrumServer, Double> costs = new HashMap<>();
+        for (final ElectrumServer server : servers) {
+            final Health health = this.health.get(server.toString());
+            costs.put(server, health != null ? health.cost(now) : 0);
+        }
+        final List<ElectrumServer> best = new ArrayList<>(servers);
+        Collections.sort(best, (server1, server2) -> Double.compare(costs.get(server1), costs.get(server2)));
+        return best.subList(0, Math.min(maxServers, best.size()));
+    }
+
+    /**
+     * Record how the servers did in the given quorum.
+     *
+     * @param handshakesMs
+     *            TLS handshake times of the connections that were used, if known
+     */
+    public synchronized void record(final Quorum.Result<?> result, final Map<ElectrumServer, Long> handshakesMs,
+            final long now) {
+        for (final Map.Entry<ElectrumServer, Quorum.Outcome> entry : result.outcomes.entrySet()) {
+            final ElectrumServer server = entry.getKey();
+            final Quorum.Outcome outcome = entry.getValue();
+            if (outcome == Quorum.Outcome.NOT_ASKED)
+                continue;
+            final String key = server.toString();
+            Health health = this.health.get(key);
+            if (health == null || health.lastUpdated < now - HEALTH_EXPIRY_MS) {
+                health = new Health();
+                this.health.put(key, health);
+            }
+            health.lastUpdated = now;
+            if (outcome == Quorum.Outcome.AGREED || outcome == Quorum.Outcome.ANSWERED) {
+                health.successRate = ewma(health.successRate, 1);
+            } else if (outcome == Quorum.Outcome.DISSENTED || outcome == Quorum.Outcome.FAILED
+                    || outcome == Quorum.Outcome.TIMED_OUT) {
+                health.successRate = ewma(health.successRate, 0);
+                if (result.failures.get(server) instanceof ElectrumClient.FingerprintMismatchException)
+                    health.fingerprintFailures++;
+            }
+            // a server still in flight when the quorum was reached took at least that long
+            final Long elapsedMs = result.elapsedMs.get(server);
+            if (elapsedMs != null && outcome != Quorum.Outcome.FAILED)
+                health.addLatency(elapsedMs);
+            final Long handshakeMs = handshakesMs.get(server);
+            if (handshakeMs != null)
+                health.handshakeMs = ewma(health.handshakeMs, handshakeMs);
+            dirty = true;
+        }
+    }
+
+    private static double ewma(final double average, final double value) {
+        return Double.isNaN(average) ? value : average + EWMA_WEIGHT * (value - average);
+    }
+}
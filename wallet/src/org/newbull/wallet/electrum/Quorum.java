@@ -0,0 +1,300 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.electrum;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Function;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Asks several servers the same question and resolves as soon as enough of them agree on the answer, cancelling the
+ * requests that are still in flight.
+ *
+ * <p>
+ * Servers are asked in the given order, best first. Initially only as many are asked as are needed for agreement,
+ * plus one spare. Whenever a server fails or gives a different answer so that agreement is no longer possible with
+ * the requests in flight, the next server is asked. If there is still no agreement after the hedge delay, a limited
+ * number of further servers are asked at once.
+ *
+ * @author agent
+ */
+public final class Quorum<T> {
+    public enum Outcome {
+        /** Answered the same as the quorum. */
+        AGREED,
+        /** Answered differently than the quorum. */
+        DISSENTED,
+        /** Answered, but there was no quorum to compare with. */
+        ANSWERED,
+        FAILED,
+        TIMED_OUT,
+        /** Still in flight when the quorum was reached. */
+        UNNEEDED,
+        NOT_ASKED
+    }
+
+    public static final class Result<T> {
+        /** The answer enough servers agreed on, or {@code null} if there was no agreement. */
+        @Nullable
+        public final T agreed;
+        /** Answers of all servers that answered, in order of arrival. */
+        public final Map<ElectrumServer, T> answers;
+        public final Map<ElectrumServer, Outcome> outcomes;
+        /** Causes of failures. */
+        public final Map<ElectrumServer, Throwable> failures;
+        /** Time from asking to answer, failure or cancellation. */
+        public final Map<ElectrumServer, Long> elapsedMs;
+
+        private Result(final @Nullable T agreed, final Map<ElectrumServer, T> answers,
+                final Map<ElectrumServer, Outcome> outcomes, final Map<ElectrumServer, Throwable> failures,
+                final Map<ElectrumServer, Long> elapsedMs) {
+            this.agreed = agreed;
+            this.answers = Collections.unmodifiableMap(answers);
+            this.outcomes = Collections.unmodifiableMap(outcomes);
+            this.failures = Collections.unmodifiableMap(failures);
+            this.elapsedMs = Collections.unmodifiableMap(elapsedMs);
+        }
+
+        public int count(final Outcome outcome) {
+            int count = 0;
+            for (final Outcome o : outcomes.values())
+                if (o == outcome)
+                    count++;
+            return count;
+        }
+    }
+
+    private final List<ElectrumServer> servers;
+    private final int threshold;
+    private final Function<ElectrumServer, ListenableFuture<T>> ask;
+    private final ScheduledExecutorService scheduler;
+    private final SettableFuture<Result<T>> result = SettableFuture.create();
+
+    // guarded by this
+    private int numAsked = 0;
+    private final Map<ElectrumServer, ListenableFuture<T>> inFlight = new LinkedHashMap<>(); // null until asked
+    private final Map<ElectrumServer, Long> startTimes = new LinkedHashMap<>();
+    private final Map<ElectrumServer, T> answers = new LinkedHashMap<>();
+    private final Map<ElectrumServer, Outcome> outcomes = new LinkedHashMap<>();
+    private final Map<ElectrumServer, Throwable> failures = new LinkedHashMap<>();
+    private final Map<ElectrumServer, Long> elapsedMs = new LinkedHashMap<>();
+    private final Multiset<T> counts = HashMultiset.create();
+    private final List<ScheduledFuture<?>> timers = new ArrayList<>(2);
+    private final List<ElectrumServer> toAsk = new ArrayList<>();
+    private final List<ListenableFuture<T>> toCancel = new ArrayList<>();
+
+    private static final int NUM_SPARE = 1;
+
+    private static final Logger log = LoggerFactory.getLogger(Quorum.class);
+
+    /**
+     * @param servers
+     *            servers to ask, best first
+     * @param threshold
+     *            number of servers that need to give the same answer
+     * @param ask
+     *            asks a server
+     */
+    public Quorum(final List<ElectrumServer> servers, final int threshold,
+            final Function<ElectrumServer, ListenableFuture<T>> ask, final ScheduledExecutorService scheduler) {
+        this.servers = new ArrayList<>(servers);
+        this.threshold = threshold;
+        this.ask = ask;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Start asking. The result is always set, at the latest after the timeout; it doesn't fail.
+     *
+     * @param numHedge
+     *            number of further servers to ask after the hedge delay
+     */
+    public ListenableFuture<Result<T>> start(final long hedgeDelay, final int numHedge, final long timeout,
+            final TimeUnit unit) {
+        synchronized (this) {
+            timers.add(scheduler.schedule(() -> hedge(numHedge), hedgeDelay, unit));
+            timers.add(scheduler.schedule(this::timeout, timeout, unit));
+            reserve(Math.min(threshold + NUM_SPARE, servers.size()));
+            if (inFlight.isEmpty())
+                finish(null, false);
+        }
+        runDeferred();
+        return result;
+    }
+
+    private void hedge(final int numHedge) {
+        synchronized (this) {
+            if (!result.isDone())
+                reserve(numHedge);
+        }
+        runDeferred();
+    }
+
+    private void timeout() {
+        synchronized (this) {
+            if (!result.isDone()) {
+                log.info("timed out waiting for {} of {} servers", inFlight.size(), numAsked);
+                finish(null, true);
+            }
+        }
+        runDeferred();
+    }
+
+    /** Pick the next servers to ask. They are asked by {@link #runDeferred()}, once the lock is released. */
+    private void reserve(final int num) {
+        for (int i = 0; i < num && numAsked < servers.size() && !result.isDone(); i++) {
+            final ElectrumServer server = servers.get(numAsked++);
+            startTimes.put(server, System.currentTimeMillis());
+            inFlight.put(server, null); // counts as in flight, the request follows
+            toAsk.add(server);
+        }
+    }
+
+    /**
+     * Ask reserved servers and cancel unneeded requests. Asking takes locks of the client and cancelling runs
+     * listeners, so both must not happen while holding the lock of this quorum.
+     */
+    private void runDeferred() {
+        while (true) {
+            final List<ElectrumServer> toAsk;
+            final List<ListenableFuture<T>> toCancel;
+            synchronized (this) {
+                if (this.toAsk.isEmpty() && this.toCancel.isEmpty())
+                    return;
+                toAsk = new ArrayList<>(this.toAsk);
+                this.toAsk.clear();
+                toCancel = new ArrayList<>(this.toCancel);
+                this.toCancel.clear();
+            }
+            for (final ElectrumServer server : toAsk)
+                ask(server);
+            for (final ListenableFuture<T> future : toCancel)
+                future.cancel(true);
+        }
+    }
+
+    private void ask(final ElectrumServer server) {
+        final ListenableFuture<T> future = ask.apply(server);
+        synchronized (this) {
+            if (result.isDone()) {
+                toCancel.add(future);
+                return;
+            }
+            inFlight.put(server, future);
+        }
+        Futures.addCallback(future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(final T answer) {
+                onAnswer(server, answer);
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+                onFailed(server, t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void onAnswer(final ElectrumServer server, final T answer) {
+        synchronized (this) {
+            if (result.isDone())
+                return;
+            inFlight.remove(server);
+            elapsedMs.put(server, System.currentTimeMillis() - startTimes.get(server));
+            answers.put(server, answer);
+            counts.add(answer);
+            if (counts.count(answer) >= threshold)
+                finish(answer, false);
+            else
+                askIfNeeded();
+        }
+        runDeferred();
+    }
+
+    private void onFailed(final ElectrumServer server, final Throwable t) {
+        synchronized (this) {
+            if (result.isDone())
+                return;
+            inFlight.remove(server);
+            elapsedMs.put(server, System.currentTimeMillis() - startTimes.get(server));
+            final boolean timedOut = t instanceof TimeoutException;
+            outcomes.put(server, timedOut ? Outcome.TIMED_OUT : Outcome.FAILED);
+            failures.put(server, t);
+            log.info("{} - {}", server, timedOut ? "timed out" : t.toString());
+            askIfNeeded();
+        }
+        runDeferred();
+    }
+
+    private void askIfNeeded() {
+        int maxCount = 0;
+        for (final Multiset.Entry<T> entry : counts.entrySet())
+            maxCount = Math.max(maxCount, entry.getCount());
+        final int missing = threshold + NUM_SPARE - maxCount - inFlight.size();
+        if (missing > 0)
+            reserve(missing);
+        if (inFlight.isEmpty() && numAsked == servers.size())
+            finish(null, false);
+    }
+
+    private void finish(final @Nullable T agreed, final boolean timedOut) {
+        if (result.isDone())
+            return;
+        for (final ScheduledFuture<?> timer : timers)
+            timer.cancel(false);
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<ElectrumServer, ListenableFuture<T>> entry : inFlight.entrySet()) {
+            final ElectrumServer server = entry.getKey();
+            outcomes.put(server, timedOut ? Outcome.TIMED_OUT : Outcome.UNNEEDED);
+            elapsedMs.put(server, now - startTimes.get(server));
+            if (entry.getValue() != null)
+                toCancel.add(entry.getValue());
+        }
+        inFlight.clear();
+        for (final Map.Entry<ElectrumServer, T> entry : answers.entrySet()) {
+            final Outcome outcome;
+            if (agreed == null)
+                outcome = Outcome.ANSWERED;
+            else
+                outcome = agreed.equals(entry.getValue()) ? Outcome.AGREED : Outcome.DISSENTED;
+            outcomes.put(entry.getKey(), outcome);
+        }
+        for (final ElectrumServer server : servers)
+            if (!outcomes.containsKey(server))
+                outcomes.put(server, Outcome.NOT_ASKED);
+        result.set(new Result<>(agreed, answers, outcomes, failures, elapsedMs));
+    }
+}
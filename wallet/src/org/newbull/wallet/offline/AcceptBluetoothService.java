@@ -87,6 +87,7 @@ public final class AcceptBluetoothService extends LifecycleService {
 
         super.onCreate();
         this.application = (WalletApplication) getApplication();
+        application.getStartup().await(); // notification channels
         final BluetoothAdapter bluetoothAdapter = checkNotNull(BluetoothAdapter.getDefaultAdapter());
         final PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
 
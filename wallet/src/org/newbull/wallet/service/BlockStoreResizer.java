@@ -0,0 +1,143 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.service;
+
+import org.bitcoinj.store.SPVBlockStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.newbull.wallet.service.BlockStoreView.CHAIN_HEAD_OFFSET;
+import static org.newbull.wallet.service.BlockStoreView.FILE_PROLOGUE_BYTES;
+import static org.newbull.wallet.service.BlockStoreView.HASH_BYTES;
+import static org.newbull.wallet.service.BlockStoreView.RECORD_SIZE;
+import static org.newbull.wallet.service.BlockStoreView.RING_CURSOR_OFFSET;
+
+/**
+ * Changes the capacity of an {@link SPVBlockStore} file without losing the blocks in it, so that a different capacity
+ * doesn't mean a resync. The ring is rewritten oldest record first, so that all of the new capacity is used before any
+ * record is overwritten again. When shrinking, the oldest records are dropped.
+ *
+ * <p>
+ * The resized store is written to a temporary file which then replaces the original, so an interrupted resize leaves
+ * the original intact. The store must not be open while resizing.
+ *
+ * @author agent
+ */
+public final class BlockStoreResizer {
+    private static final Logger log = LoggerFactory.getLogger(BlockStoreResizer.class);
+
+    /**
+     * @return capacity of the given block store file
+     */
+    public static int capacityOf(final File file) throws IOException {
+        final long length = file.length();
+        if (length < FILE_PROLOGUE_BYTES || (length - FILE_PROLOGUE_BYTES) % RECORD_SIZE != 0)
+            throw new IOException("not an SPV block store: " + file + ", " + length + " bytes");
+        return (int) ((length - FILE_PROLOGUE_BYTES) / RECORD_SIZE);
+    }
+
+    /**
+     * Resize the given block store file, if its capacity differs.
+     *
+     * @return true if the file was resized
+     */
+    public static boolean resize(final File file, final int capacity) throws IOException {
+        final int oldCapacity = capacityOf(file);
+        if (oldCapacity == capacity)
+            return false;
+
+        final byte[] prologue = new byte[FILE_PROLOGUE_BYTES];
+        final byte[] records = new byte[oldCapacity * RECORD_SIZE];
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.readFully(prologue);
+            raf.readFully(records);
+        }
+        final String magic = new String(prologue, 0, SPVBlockStore.HEADER_MAGIC.length(), "US-ASCII");
+        if (!SPVBlockStore.HEADER_MAGIC.equals(magic))
+            throw new IOException("not an SPV block store: " + file);
+        final int cursor = getInt(prologue, RING_CURSOR_OFFSET);
+        if (cursor < FILE_PROLOGUE_BYTES || cursor > FILE_PROLOGUE_BYTES + records.length
+                || (cursor - FILE_PROLOGUE_BYTES) % RECORD_SIZE != 0)
+            throw new IOException("bad ring cursor: " + cursor);
+        final byte[] chainHead = Arrays.copyOfRange(prologue, CHAIN_HEAD_OFFSET, CHAIN_HEAD_OFFSET + HASH_BYTES);
+
+        // collect used records, newest first
+        final int cursorIndex = (cursor - FILE_PROLOGUE_BYTES) / RECORD_SIZE;
+        final byte[] newRecords = new byte[capacity * RECORD_SIZE];
+        final byte[] emptyHash = new byte[HASH_BYTES];
+        int numRecords = 0;
+        boolean chainHeadKept = false;
+        for (int i = 1; i <= oldCapacity && numRecords < capacity; i++) {
+            final int offset = ((cursorIndex - i + oldCapacity) % oldCapacity) * RECORD_SIZE;
+            if (equals(records, offset, emptyHash))
+                break; // ring has never been full
+            if (equals(records, offset, chainHead))
+                chainHeadKept = true;
+            // fill from the back of the new ring, so the oldest record ends up first
+            System.arraycopy(records, offset, newRecords, (capacity - 1 - numRecords) * RECORD_SIZE, RECORD_SIZE);
+            numRecords++;
+        }
+        if (!chainHeadKept)
+            throw new IOException("chain head would be lost by resizing to " + capacity);
+        final int offset = (capacity - numRecords) * RECORD_SIZE;
+        if (offset > 0) { // move to the front of the ring, leaving the rest empty
+            System.arraycopy(newRecords, offset, newRecords, 0, numRecords * RECORD_SIZE);
+            Arrays.fill(newRecords, numRecords * RECORD_SIZE, newRecords.length, (byte) 0);
+        }
+        // a full ring continues at its start; a cursor at the end of the file would make lookups of missing blocks
+        // loop forever in SPVBlockStore.get()
+        putInt(prologue, RING_CURSOR_OFFSET, FILE_PROLOGUE_BYTES + (numRecords % capacity) * RECORD_SIZE);
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (final RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
+            raf.setLength(0);
+            raf.write(prologue);
+            raf.write(newRecords);
+            raf.getFD().sync();
+        }
+        if (!tempFile.renameTo(file))
+            throw new IOException("cannot rename " + tempFile + " to " + file);
+        log.info("resized block store '{}' from {} to {} headers, kept {}", file, oldCapacity, capacity, numRecords);
+        return true;
+    }
+
+    private static boolean equals(final byte[] records, final int offset, final byte[] hash) {
+        for (int i = 0; i < hash.length; i++)
+            if (records[offset + i] != hash[i])
+                return false;
+        return true;
+    }
+
+    // same byte order as ByteBuffer, which SPVBlockStore uses
+    private static int getInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8
+                | (bytes[offset + 3] & 0xff);
+    }
+
+    private static void putInt(final byte[] bytes, final int offset, final int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
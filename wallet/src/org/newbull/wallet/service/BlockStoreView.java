@@ -0,0 +1,117 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.service;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.SPVBlockStore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only, memory-mapped view of an {@link SPVBlockStore} file, for queries by height that would otherwise take one
+ * store lookup per block. The mapping is shared with the store, so blocks it writes become visible right away.
+ * Records are only decoded if they are part of the requested range.
+ *
+ * <p>
+ * The file starts with a prologue of {@value #FILE_PROLOGUE_BYTES} bytes: the magic, the ring cursor (where the next
+ * record is written) and the hash of the chain head. Then follows a ring of records, each of them a block hash and the
+ * compact serialization of the {@link StoredBlock}.
+ *
+ * @author agent
+ */
+public final class BlockStoreView {
+    private final NetworkParameters params;
+    private final ByteBuffer buffer;
+
+    static final int FILE_PROLOGUE_BYTES = 1024;
+    static final int RING_CURSOR_OFFSET = 4;
+    static final int CHAIN_HEAD_OFFSET = 8;
+    static final int HASH_BYTES = Sha256Hash.LENGTH;
+    static final int RECORD_SIZE = HASH_BYTES + StoredBlock.COMPACT_SERIALIZED_SIZE;
+
+    private BlockStoreView(final NetworkParameters params, final ByteBuffer buffer) {
+        this.params = params;
+        this.buffer = buffer;
+    }
+
+    public static BlockStoreView map(final NetworkParameters params, final File file) throws IOException {
+        try (final FileInputStream is = new FileInputStream(file); final FileChannel channel = is.getChannel()) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final byte[] magic = new byte[SPVBlockStore.HEADER_MAGIC.length()];
+            buffer.duplicate().get(magic);
+            if (!SPVBlockStore.HEADER_MAGIC.equals(new String(magic, "US-ASCII")))
+                throw new IOException("not an SPV block store: " + file);
+            return new BlockStoreView(params, buffer);
+        }
+    }
+
+    /**
+     * Get the blocks of the best chain within a height range. The ring is searched backwards from the cursor, following
+     * the previous block hashes from the chain head, so blocks of forks are skipped.
+     *
+     * @return blocks from {@code toHeight} down to {@code fromHeight}, newest first; shorter if the ring doesn't reach
+     *         back far enough
+     */
+    public List<StoredBlock> getBestChain(final int fromHeight, final int toHeight) {
+        final int minHeight = Math.max(fromHeight, 0); // unused records look like children of genesis
+        final ByteBuffer buffer = this.buffer.duplicate();
+        final int limit = buffer.limit();
+        final int numRecords = (limit - FILE_PROLOGUE_BYTES) / RECORD_SIZE;
+        final byte[] expectedHash = new byte[HASH_BYTES];
+        buffer.position(CHAIN_HEAD_OFFSET);
+        buffer.get(expectedHash);
+        final byte[] hash = new byte[HASH_BYTES];
+
+        final List<StoredBlock> blocks = new ArrayList<>(Math.max(0, toHeight - minHeight + 1));
+        int position = buffer.getInt(RING_CURSOR_OFFSET);
+        for (int i = 0; i < numRecords; i++) {
+            position -= RECORD_SIZE;
+            if (position < FILE_PROLOGUE_BYTES)
+                position = FILE_PROLOGUE_BYTES + (numRecords - 1) * RECORD_SIZE;
+            buffer.position(position);
+            buffer.get(hash);
+            if (!Arrays.equals(hash, expectedHash))
+                continue;
+            final StoredBlock block;
+            try {
+                block = StoredBlock.deserializeCompact(params, buffer);
+            } catch (final ProtocolException x) {
+                break; // record is being written
+            }
+            final int height = block.getHeight();
+            if (height < minHeight)
+                break;
+            if (height <= toHeight)
+                blocks.add(block);
+            if (height == minHeight)
+                break;
+            System.arraycopy(block.getHeader().getPrevBlockHash().getBytes(), 0, expectedHash, 0, HASH_BYTES);
+        }
+        return blocks;
+    }
+}
@@ -25,6 +25,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
@@ -40,18 +41,20 @@ import androidx.annotation.MainThread;
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleService;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.Observer;
 import com.google.common.base.Stopwatch;
 import com.google.common.net.HostAndPort;
+import com.google.common.net.InetAddresses;
 import org.newbull.wallet.Configuration;
 import org.newbull.wallet.Constants;
 import org.newbull.wallet.R;
 import org.newbull.wallet.WalletApplication;
 import org.newbull.wallet.WalletBalanceWidgetProvider;
-import org.newbull.wallet.addressbook.AddressBookDao;
-import org.newbull.wallet.addressbook.AddressBookDatabase;
+import org.newbull.wallet.WalletJournal;
+import org.newbull.wallet.addressbook.AddressBookLabelIndex;
 import org.newbull.wallet.data.SelectedExchangeRateLiveData;
 import org.newbull.wallet.data.WalletBalanceLiveData;
 import org.newbull.wallet.data.WalletLiveData;
@@ -93,9 +96,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
@@ -103,8 +109,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 import static androidx.core.util.Preconditions.checkState;
 
@@ -117,13 +121,17 @@ public class BlockchainService extends LifecycleService {
 
     private WalletApplication application;
     private Configuration config;
-    private AddressBookDao addressBookDao;
+    private AddressBookLabelIndex addressBook;
     private WalletLiveData wallet;
 
     private BlockStore blockStore;
     private File blockChainFile;
     private BlockChain blockChain;
     @Nullable
+    private RecentBlocksCache recentBlocks;
+    @Nullable
+    private BlockStoreView blockStoreView;
+    @Nullable
     private PeerGroup peerGroup;
 
     private final Handler handler = new Handler();
@@ -142,9 +150,25 @@ public class BlockchainService extends LifecycleService {
     private Stopwatch serviceUpTime;
     private boolean resetBlockchainOnShutdown = false;
     private final AtomicBoolean isBound = new AtomicBoolean(false);
+    private final SyncMetrics syncMetrics = new SyncMetrics(STALL_PERIOD_SECS, STALL_MIN_BYTES_PER_SEC,
+            SYNC_METRICS_MAX_SAMPLES);
+    private PeerScores peerScores;
+    // only used on the background thread
+    @Nullable
+    private Peer scoredDownloadPeer;
+    private long scoredDownloadPeerSince;
+    private int scoredStalls = 0;
 
+    private static final int RECENT_BLOCKS_CAPACITY = 100; // first page of the block list, older pages use the view
     private static final int CONNECTIVITY_NOTIFICATION_PROGRESS_MIN_BLOCKS = 144 * 2; // approx. 2 days
-    private static final long BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+    private static final long BLOCKCHAIN_STATE_BROADCAST_INTERVAL_MS = 500;
+    private static final int PERSIST_BEST_HEIGHT_INTERVAL_BLOCKS = 2016; // one difficulty period
+    private static final int STALL_PERIOD_SECS = 20;
+    private static final int STALL_MIN_BYTES_PER_SEC = Block.HEADER_SIZE * 10;
+    private static final long SYNC_METRICS_INTERVAL_MS = DateUtils.SECOND_IN_MILLIS;
+    private static final int SYNC_METRICS_MAX_SAMPLES = 600; // 10 minutes
+    private static final long MIN_DOWNLOAD_PEER_MS = DateUtils.MINUTE_IN_MILLIS / 2;
+    private static final int SCORED_PEER_PRIORITY = 1; // below trusted peers
 
     private static final String ACTION_CANCEL_COINS_RECEIVED = BlockchainService.class.getPackage().getName()
             + ".cancel_coins_received";
@@ -231,7 +255,7 @@ public class BlockchainService extends LifecycleService {
                 if (text.length() > 0)
                     text.append(", ");
                 final String addressStr = notificationAddress.toString();
-                final String label = addressBookDao.resolveLabel(addressStr);
+                final String label = addressBook.resolveLabel(addressStr);
                 text.append(label != null ? label : addressStr);
             }
             summaryNotification.setContentText(text);
@@ -253,7 +277,7 @@ public class BlockchainService extends LifecycleService {
         childNotification.setContentTitle(msg);
         if (address != null) {
             final String addressStr = address.toString();
-            final String addressLabel = addressBookDao.resolveLabel(addressStr);
+            final String addressLabel = addressBook.resolveLabel(addressStr);
             if (addressLabel != null)
                 childNotification.setContentText(addressLabel);
             else
@@ -281,6 +305,7 @@ public class BlockchainService extends LifecycleService {
 
         @Override
         public void onPeerDisconnected(final Peer peer, final int peerCount) {
+            syncMetrics.onPeerDisconnected(peer);
             changed(peerCount);
         }
 
@@ -298,48 +323,104 @@ public class BlockchainService extends LifecycleService {
     private final PeerDataEventListener blockchainDownloadListener = new BlockchainDownloadListener();
 
     private class BlockchainDownloadListener extends AbstractPeerDataEventListener implements Runnable {
-        private final AtomicLong lastMessageTime = new AtomicLong(0);
-        private final AtomicInteger blocksToDownload = new AtomicInteger();
-        private final AtomicInteger blocksLeft = new AtomicInteger();
+        private final SyncProgressAggregator progress = new SyncProgressAggregator(PERSIST_BEST_HEIGHT_INTERVAL_BLOCKS);
 
         @Override
         public void onChainDownloadStarted(final Peer peer, final int blocksToDownload) {
             postDelayedStopSelf(DateUtils.MINUTE_IN_MILLIS / 2);
-            this.blocksToDownload.set(blocksToDownload);
+            progress.onDownloadStarted(blocksToDownload);
+            syncMetrics.onChainDownloadStarted(blocksToDownload);
+            backgroundHandler.removeCallbacks(sampleSyncMetricsRunnable);
+            backgroundHandler.post(sampleSyncMetricsRunnable);
             if (blocksToDownload >= CONNECTIVITY_NOTIFICATION_PROGRESS_MIN_BLOCKS) {
                 config.maybeIncrementBestChainHeightEver(blockChain.getChainHead().getHeight() + blocksToDownload);
                 startForegroundProgress(blocksToDownload, blocksToDownload);
             }
+            // show right away that syncing has started
+            delayHandler.post(this);
         }
 
         @Override
         public void onBlocksDownloaded(final Peer peer, final Block block, final FilteredBlock filteredBlock,
                 final int blocksLeft) {
-            this.blocksLeft.set(blocksLeft);
-
-            delayHandler.removeCallbacks(this);
-            final long now = System.currentTimeMillis();
-            if (now - lastMessageTime.get() > BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS)
+            syncMetrics.onBlockProcessed(filteredBlock != null, blocksLeft);
+            final boolean firstOfBatch = progress.onBlock(blocksLeft);
+            if (blocksLeft <= 0) {
+                // show right away that syncing has stopped
+                delayHandler.removeCallbacks(this);
                 delayHandler.post(this);
-            else
-                delayHandler.postDelayed(this, BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS);
+            } else if (firstOfBatch) {
+                // only the first block of a batch touches the main thread
+                delayHandler.postDelayed(this, BLOCKCHAIN_STATE_BROADCAST_INTERVAL_MS);
+            }
         }
 
         @Override
         public void run() {
-            lastMessageTime.set(System.currentTimeMillis());
+            final SyncProgressAggregator.Batch batch = progress.drain(blockChain.getBestChainHeight());
 
             postDelayedStopSelf(DateUtils.MINUTE_IN_MILLIS / 2);
-            final int blocksToDownload = this.blocksToDownload.get();
-            final int blocksLeft = this.blocksLeft.get();
-            if (blocksToDownload >= CONNECTIVITY_NOTIFICATION_PROGRESS_MIN_BLOCKS)
-                startForegroundProgress(blocksToDownload, blocksLeft);
+            if (batch.changedPercent >= 0 && batch.blocksToDownload >= CONNECTIVITY_NOTIFICATION_PROGRESS_MIN_BLOCKS)
+                startForegroundProgress(batch.blocksToDownload, batch.blocksLeft);
 
-            config.maybeIncrementBestChainHeightEver(blockChain.getChainHead().getHeight());
+            if (batch.persistHeight)
+                config.maybeIncrementBestChainHeightEver(batch.height);
             broadcastBlockchainState();
         }
     }
 
+    private final Runnable sampleSyncMetricsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final long now = System.currentTimeMillis();
+            final SyncMetrics.Sample sample = syncMetrics.sample(now);
+            final PeerGroup peerGroup = BlockchainService.this.peerGroup;
+            if (sample != null && peerGroup != null)
+                scorePeers(peerGroup, sample, now);
+            if (sample != null && sample.blocksLeft <= 0)
+                syncMetrics.pauseSampling(); // until the next chain download starts
+            else
+                backgroundHandler.postDelayed(this, SYNC_METRICS_INTERVAL_MS);
+        }
+    };
+
+    private void scorePeers(final PeerGroup peerGroup, final SyncMetrics.Sample sample, final long now) {
+        final List<Peer> peers = peerGroup.getConnectedPeers();
+        final List<String> connected = new ArrayList<>(peers.size());
+        for (final Peer peer : peers) {
+            final String key = SyncMetrics.keyOf(peer.getAddress());
+            connected.add(key);
+            final long pingTime = peer.getPingTime();
+            if (pingTime < Long.MAX_VALUE)
+                peerScores.recordPing(key, pingTime, now);
+        }
+
+        final Peer downloadPeer = peerGroup.getDownloadPeer();
+        final boolean stalled = sample.stalls > scoredStalls;
+        scoredStalls = sample.stalls;
+        if (downloadPeer == null || sample.blocksLeft <= 0)
+            return;
+        final String key = SyncMetrics.keyOf(downloadPeer.getAddress());
+        final Double bytesPerSec = sample.peerBytesPerSec.get(key);
+        peerScores.recordDownloadRate(key, bytesPerSec != null ? bytesPerSec : 0, now);
+        if (stalled)
+            peerScores.recordStall(key, now);
+
+        // swap out a slow download peer, but give it some time to get up to speed
+        if (downloadPeer != scoredDownloadPeer) {
+            scoredDownloadPeer = downloadPeer;
+            scoredDownloadPeerSince = now;
+        } else if (now - scoredDownloadPeerSince >= MIN_DOWNLOAD_PEER_MS
+                && sample.blocksLeft >= CONNECTIVITY_NOTIFICATION_PROGRESS_MIN_BLOCKS) {
+            final String replacement = peerScores.getReplacement(key, connected);
+            if (replacement != null) {
+                log.info("download peer {} is slow, disconnecting in favor of {}", key, replacement);
+                scoredDownloadPeerSince = now;
+                downloadPeer.close();
+            }
+        }
+    }
+
     private static class ImpedimentsLiveData extends LiveData<Set<Impediment>> {
         private final WalletApplication application;
         private final ConnectivityManager connectivityManager;
@@ -471,6 +552,7 @@ public class BlockchainService extends LifecycleService {
         super.onCreate();
 
         application = (WalletApplication) getApplication();
+        application.getStartup().await(); // notification channels
         config = application.getConfiguration();
 
         pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
@@ -495,8 +577,9 @@ public class BlockchainService extends LifecycleService {
         backgroundThread.start();
         backgroundHandler = new Handler(backgroundThread.getLooper());
 
-        addressBookDao = AddressBookDatabase.getDatabase(application).addressBookDao();
+        addressBook = AddressBookLabelIndex.get(application);
         blockChainFile = new File(getDir("blockstore", Context.MODE_PRIVATE), Constants.Files.BLOCKCHAIN_FILENAME);
+        peerScores = PeerScores.load(new File(getFilesDir(), Constants.Files.PEER_SCORES_FILENAME));
 
         config.registerOnSharedPreferenceChangeListener(preferenceChangeListener);
 
@@ -527,35 +610,41 @@ public class BlockchainService extends LifecycleService {
             @Override
             public void onChanged(final Wallet wallet) {
                 BlockchainService.this.wallet.removeObserver(this);
+                final int blockChainStoreCapacity = application.blockchainStoreCapacity();
+                // resizing copies the whole block store
+                backgroundHandler.post(() -> {
+                    if (blockChainFile.exists()) {
+                        try {
+                            BlockStoreResizer.resize(blockChainFile, blockChainStoreCapacity);
+                        } catch (final IOException x) {
+                            log.warn("problem resizing blockstore, removing", x);
+                            blockChainFile.delete();
+                        }
+                    }
+                    handler.post(() -> {
+                        if (getLifecycle().getCurrentState() != Lifecycle.State.DESTROYED)
+                            setUpBlockChain(wallet, blockChainStoreCapacity);
+                    });
+                });
+            }
+
+            private void setUpBlockChain(final Wallet wallet, final int blockChainStoreCapacity) {
                 final boolean blockChainFileExists = blockChainFile.exists();
                 if (!blockChainFileExists) {
                     log.info("blockchain does not exist, resetting wallet");
                     wallet.reset();
+                    application.autosaveWalletNow(); // the journal can't express a reset
                 }
 
                 try {
                     blockStore = new SPVBlockStore(Constants.NETWORK_PARAMETERS, blockChainFile,
-                            Constants.Files.BLOCKCHAIN_STORE_CAPACITY, true);
+                            blockChainStoreCapacity, true);
                     blockStore.getChainHead(); // detect corruptions as early as possible
 
                     final long earliestKeyCreationTimeSecs = wallet.getEarliestKeyCreationTime();
 
-                    if (!blockChainFileExists && earliestKeyCreationTimeSecs > 0) {
-                        try {
-                            log.info("loading checkpoints for birthdate {} from '{}'",
-                                    Utils.dateTimeFormat(earliestKeyCreationTimeSecs * 1000),
-                                    Constants.Files.CHECKPOINTS_ASSET);
-                            final Stopwatch watch = Stopwatch.createStarted();
-                            final InputStream checkpointsInputStream = getAssets()
-                                    .open(Constants.Files.CHECKPOINTS_ASSET);
-                            CheckpointManager.checkpoint(Constants.NETWORK_PARAMETERS, checkpointsInputStream,
-                                    blockStore, earliestKeyCreationTimeSecs);
-                            watch.stop();
-                            log.info("checkpoints loaded, took {}", watch);
-                        } catch (final IOException x) {
-                            log.error("problem reading checkpoints, continuing without", x);
-                        }
-                    }
+                    if (!blockChainFileExists && earliestKeyCreationTimeSecs > 0)
+                        loadCheckpoints(earliestKeyCreationTimeSecs);
                 } catch (final BlockStoreException x) {
                     blockChainFile.delete();
 
@@ -569,12 +658,50 @@ public class BlockchainService extends LifecycleService {
                 } catch (final BlockStoreException x) {
                     throw new Error("blockchain cannot be created", x);
                 }
+                // registered after the wallet, so blocks are journaled after their transactions
+                blockChain.addNewBestBlockListener(Threading.SAME_THREAD, block -> {
+                    final WalletJournal walletJournal = application.getWalletJournal();
+                    if (walletJournal != null)
+                        walletJournal.notifyNewBestBlock(block);
+                });
+                recentBlocks = new RecentBlocksCache(blockStore, RECENT_BLOCKS_CAPACITY);
+                recentBlocks.fill(blockChain.getChainHead());
+                blockChain.addNewBestBlockListener(Threading.SAME_THREAD, recentBlocks);
+                blockChain.addReorganizeListener(Threading.SAME_THREAD, recentBlocks);
+                try {
+                    blockStoreView = BlockStoreView.map(Constants.NETWORK_PARAMETERS, blockChainFile);
+                } catch (final IOException x) {
+                    log.info("cannot map block store, serving only recent blocks", x);
+                }
 
                 observeLiveDatasThatAreDependentOnWalletAndBlockchain();
             }
         });
     }
 
+    private void loadCheckpoints(final long earliestKeyCreationTimeSecs) throws BlockStoreException {
+        log.info("loading checkpoints for birthdate {}", Utils.dateTimeFormat(earliestKeyCreationTimeSecs * 1000));
+        final Stopwatch watch = Stopwatch.createStarted();
+        try (final AssetFileDescriptor fd = getAssets().openFd(Constants.Files.CHECKPOINTS_INDEX_ASSET);
+                final FileInputStream is = fd.createInputStream()) {
+            final ByteBuffer buffer = is.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(),
+                    fd.getLength());
+            new CheckpointIndex(Constants.NETWORK_PARAMETERS, buffer).checkpoint(blockStore,
+                    earliestKeyCreationTimeSecs);
+            log.info("checkpoints loaded from '{}', took {}", Constants.Files.CHECKPOINTS_INDEX_ASSET, watch);
+            return;
+        } catch (final IOException x) {
+            log.warn("problem reading checkpoint index, falling back to '" + Constants.Files.CHECKPOINTS_ASSET + "'",
+                    x);
+        }
+        try (final InputStream is = getAssets().open(Constants.Files.CHECKPOINTS_ASSET)) {
+            CheckpointManager.checkpoint(Constants.NETWORK_PARAMETERS, is, blockStore, earliestKeyCreationTimeSecs);
+            log.info("checkpoints loaded from '{}', took {}", Constants.Files.CHECKPOINTS_ASSET, watch);
+        } catch (final IOException x) {
+            log.error("problem reading checkpoints, continuing without", x);
+        }
+    }
+
     private void observeLiveDatasThatAreDependentOnWalletAndBlockchain() {
         final NewTransactionLiveData newTransaction = new NewTransactionLiveData(wallet.getValue());
         newTransaction.observe(this, tx -> {
@@ -615,7 +742,13 @@ public class BlockchainService extends LifecycleService {
                 }
 
                 final Configuration.SyncMode syncMode = config.getSyncMode();
-                peerGroup = new PeerGroup(Constants.NETWORK_PARAMETERS, blockChain);
+                peerGroup = new PeerGroup(Constants.NETWORK_PARAMETERS, blockChain) {
+                    @Override
+                    protected Peer selectDownloadPeer(final List<Peer> peers) {
+                        final Peer peer = super.selectDownloadPeer(peers);
+                        return peer != null ? peerScores.selectDownloadPeer(peer, peers) : null;
+                    }
+                };
                 log.info("creating {}, sync mode: {}", peerGroup, syncMode);
                 peerGroup.setDownloadTxDependencies(0); // recursive implementation causes StackOverflowError
                 peerGroup.addWallet(wallet);
@@ -631,7 +764,8 @@ public class BlockchainService extends LifecycleService {
                 peerGroup.setMaxConnections(trustedPeerOnly ? 0 : maxConnectedPeers);
                 peerGroup.setConnectTimeoutMillis(Constants.PEER_TIMEOUT_MS);
                 peerGroup.setPeerDiscoveryTimeoutMillis(Constants.PEER_DISCOVERY_TIMEOUT_MS);
-                peerGroup.setStallThreshold(20, Block.HEADER_SIZE * 10);
+                peerGroup.setStallThreshold(STALL_PERIOD_SECS, STALL_MIN_BYTES_PER_SEC);
+                peerGroup.addPreMessageReceivedEventListener(Threading.SAME_THREAD, syncMetrics);
 
                 final ResolveDnsTask resolveDnsTask = new ResolveDnsTask(backgroundHandler) {
                     @Override
@@ -656,6 +790,18 @@ public class BlockchainService extends LifecycleService {
                 if (trustedPeerOnly) {
                     log.info("trusted peers only – not adding any random nodes from the P2P network");
                 } else {
+                    final List<HostAndPort> scoredPeers = peerScores.getBest(maxConnectedPeers);
+                    log.info("adding {} best scored peers", scoredPeers.size());
+                    for (final HostAndPort scoredPeer : scoredPeers) {
+                        try {
+                            peerGroup.addAddress(new PeerAddress(Constants.NETWORK_PARAMETERS,
+                                    InetAddresses.forString(scoredPeer.getHost()), scoredPeer.getPort()),
+                                    SCORED_PEER_PRIORITY);
+                        } catch (final IllegalArgumentException x) {
+                            log.info("cannot add scored peer '{}': {}", scoredPeer, x.getMessage());
+                        }
+                    }
+
                     log.info("adding random peers from the P2P network");
                     if (syncMode == Configuration.SyncMode.CONNECTION_FILTER)
                         peerGroup.setRequiredServices(VersionMessage.NODE_BLOOM | VersionMessage.NODE_WITNESS);
@@ -674,12 +820,15 @@ public class BlockchainService extends LifecycleService {
             private void shutdown() {
                 final Wallet wallet = BlockchainService.this.wallet.getValue();
 
+                backgroundHandler.removeCallbacks(sampleSyncMetricsRunnable);
+                peerGroup.removePreMessageReceivedEventListener(syncMetrics);
                 peerGroup.removeDisconnectedEventListener(peerConnectivityListener);
                 peerGroup.removeConnectedEventListener(peerConnectivityListener);
                 peerGroup.removeWallet(wallet);
                 log.info("stopping {} asynchronously", peerGroup);
                 peerGroup.stopAsync();
                 peerGroup = null;
+                peerScores.save();
             }
         });
     }
@@ -723,6 +872,7 @@ public class BlockchainService extends LifecycleService {
             peerGroup.removeWallet(wallet.getValue());
             peerGroup.stopAsync();
             log.info("stopping {} asynchronously", peerGroup);
+            peerScores.save();
         }
 
         peerConnectivityListener.stop();
@@ -740,6 +890,8 @@ public class BlockchainService extends LifecycleService {
             }
         }
 
+        if (blockChain != null && !resetBlockchainOnShutdown) // between checkpoints, only persisted here
+            config.maybeIncrementBestChainHeightEver(blockChain.getBestChainHeight());
         application.autosaveWalletNow();
 
         if (resetBlockchainOnShutdown) {
@@ -807,6 +959,10 @@ public class BlockchainService extends LifecycleService {
         return peerGroup.getConnectedPeers();
     }
 
+    public SyncMetrics getSyncMetrics() {
+        return syncMetrics;
+    }
+
     public void dropAllPeers() {
         if (peerGroup == null)
             return;
@@ -815,21 +971,15 @@ public class BlockchainService extends LifecycleService {
 
     @Nullable
     public List<StoredBlock> getRecentBlocks(final int maxBlocks) {
-        if (blockChain == null || blockStore == null)
+        if (recentBlocks == null)
             return null;
 
-        final List<StoredBlock> blocks = new ArrayList<>(maxBlocks);
-        StoredBlock block = blockChain.getChainHead();
-        while (block != null) {
-            blocks.add(block);
-            if (blocks.size() >= maxBlocks)
-                break;
-            try {
-                block = block.getPrev(blockStore);
-            } catch (final BlockStoreException x) {
-                log.info("skipping blocks because of exception", x);
-                break;
-            }
+        final List<StoredBlock> blocks;
+        if (maxBlocks > recentBlocks.getCapacity() && blockStoreView != null) {
+            final int bestChainHeight = blockChain.getBestChainHeight();
+            blocks = blockStoreView.getBestChain(bestChainHeight - maxBlocks + 1, bestChainHeight);
+        } else {
+            blocks = recentBlocks.get(maxBlocks);
         }
         return blocks.isEmpty() ? null : blocks;
     }
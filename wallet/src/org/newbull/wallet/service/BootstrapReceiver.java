@@ -63,6 +63,7 @@ public class BootstrapReceiver extends BroadcastReceiver {
     @WorkerThread
     private void onAsyncReceive(final Context context, final Intent intent) {
         final WalletApplication application = (WalletApplication) context.getApplicationContext();
+        application.getStartup().await(); // last version code, notification channels
 
         final String action = intent.getAction();
         final boolean bootCompleted = Intent.ACTION_BOOT_COMPLETED.equals(action);
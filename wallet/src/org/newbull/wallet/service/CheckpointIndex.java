@@ -0,0 +1,155 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.service;
+
+import androidx.annotation.Nullable;
+import com.google.common.io.BaseEncoding;
+import org.bitcoinj.core.CheckpointManager;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Binary index of block checkpoints, for finding the checkpoint to start syncing from without parsing all of them.
+ * It is built from the textual checkpoints file that {@link CheckpointManager} reads, using
+ * {@link #build(NetworkParameters, InputStream, OutputStream)}, and is meant to be memory-mapped.
+ *
+ * <p>
+ * The index starts with a magic and the number of records. Each record is {@value #RECORD_SIZE} bytes: the block time
+ * in seconds, followed by the compact serialization of the {@link StoredBlock}. Records are sorted by block time, so
+ * lookups are a binary search that decodes only the checkpoint found.
+ *
+ * @author agent
+ */
+public final class CheckpointIndex {
+    private final NetworkParameters params;
+    private final ByteBuffer buffer;
+    private final int size;
+
+    private static final byte[] MAGIC = "CHKPIDX1".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = MAGIC.length + 4;
+    private static final int RECORD_SIZE = 4 + StoredBlock.COMPACT_SERIALIZED_SIZE;
+    private static final String TEXTUAL_MAGIC = "TXT CHECKPOINTS 1";
+    private static final long CHECKPOINT_MARGIN_SECS = 60 * 60 * 24 * 7; // same as CheckpointManager
+
+    /**
+     * @param buffer
+     *            contents of the index, usually memory-mapped
+     */
+    public CheckpointIndex(final NetworkParameters params, final ByteBuffer buffer) throws IOException {
+        this.params = params;
+        this.buffer = buffer.slice();
+        final byte[] magic = new byte[MAGIC.length];
+        if (this.buffer.remaining() < HEADER_SIZE)
+            throw new IOException("checkpoint index too short");
+        this.buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("not a checkpoint index");
+        this.size = this.buffer.getInt();
+        if (size < 0 || this.buffer.limit() != HEADER_SIZE + (long) size * RECORD_SIZE)
+            throw new IOException("checkpoint index has bad size: " + size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the newest checkpoint with a block time at or before the given time, or {@code null} if there is none
+     */
+    @Nullable
+    public StoredBlock getCheckpointBefore(final long timeSecs) {
+        int low = 0, high = size - 1, found = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (time(mid) <= timeSecs) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (found < 0)
+            return null;
+        final ByteBuffer record = buffer.duplicate();
+        record.position(HEADER_SIZE + found * RECORD_SIZE + 4);
+        return StoredBlock.deserializeCompact(params, record);
+    }
+
+    private long time(final int index) {
+        return buffer.getInt(HEADER_SIZE + index * RECORD_SIZE) & 0xffffffffL;
+    }
+
+    /**
+     * Like {@link CheckpointManager#checkpoint(NetworkParameters, InputStream, BlockStore, long)}, put the checkpoint
+     * a week before the given time into the store and make it the chain head. If there is no such checkpoint, the
+     * store is left at genesis.
+     */
+    public void checkpoint(final BlockStore store, final long timeSecs) throws BlockStoreException {
+        final StoredBlock checkpoint = getCheckpointBefore(timeSecs - CHECKPOINT_MARGIN_SECS);
+        if (checkpoint != null) {
+            store.put(checkpoint);
+            store.setChainHead(checkpoint);
+        }
+    }
+
+    /** Build an index from the textual checkpoints format. */
+    public static void build(final NetworkParameters params, final InputStream textual, final OutputStream index)
+            throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(textual, StandardCharsets.US_ASCII));
+        if (!TEXTUAL_MAGIC.equals(reader.readLine()))
+            throw new IOException("not textual checkpoints");
+        final int numSignatures = Integer.parseInt(reader.readLine().trim());
+        for (int i = 0; i < numSignatures; i++)
+            reader.readLine();
+        final int numCheckpoints = Integer.parseInt(reader.readLine().trim());
+        final List<StoredBlock> checkpoints = new ArrayList<>(numCheckpoints);
+        for (int i = 0; i < numCheckpoints; i++) {
+            final byte[] bytes = BaseEncoding.base64().decode(reader.readLine().trim());
+            checkpoints.add(StoredBlock.deserializeCompact(params, ByteBuffer.wrap(bytes)));
+        }
+        Collections.sort(checkpoints,
+                (b1, b2) -> Long.compare(b1.getHeader().getTimeSeconds(), b2.getHeader().getTimeSeconds()));
+
+        final DataOutputStream os = new DataOutputStream(index);
+        os.write(MAGIC);
+        os.writeInt(checkpoints.size());
+        final ByteBuffer record = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
+        for (final StoredBlock checkpoint : checkpoints) {
+            os.writeInt((int) checkpoint.getHeader().getTimeSeconds());
+            record.clear();
+            checkpoint.serializeCompact(record);
+            os.write(record.array());
+        }
+        os.flush();
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.service;
+
+import androidx.annotation.Nullable;
+import com.google.common.net.HostAndPort;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.VersionMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Scores of peers by how well they served the chain download: ping time, block delivery rate of the download peer and
+ * number of stalls. Scores are kept across service restarts in a small text file, one peer per line, so that the next
+ * startup can seed the fastest peers and prefer them as download peer.
+ *
+ * <p>
+ * Rates and ping times are exponentially weighted averages, so a peer that was fast a long time ago but is slow now
+ * loses its advantage after a few samples. Only the most recently seen {@link #MAX_PEERS} peers are kept.
+ *
+ * @author agent
+ */
+public final class PeerScores {
+    private static final class Score {
+        double bytesPerSec = Double.NaN;
+        double pingMs = Double.NaN;
+        int stalls = 0;
+        long lastSeen = 0;
+
+        double effectiveRate() {
+            return Double.isNaN(bytesPerSec) ? Double.NaN : bytesPerSec / (1 + stalls);
+        }
+    }
+
+    private final File file;
+    private final Map<String, Score> scores = new HashMap<>();
+
+    static final int MAX_PEERS = 64;
+    private static final double EWMA_WEIGHT = 0.2;
+    private static final int SWAP_RATE_FACTOR = 4;
+
+    private static final Logger log = LoggerFactory.getLogger(PeerScores.class);
+
+    private PeerScores(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load scores from the given file. A missing or damaged file results in no scores.
+     */
+    public static PeerScores load(final File file) {
+        final PeerScores peerScores = new PeerScores(file);
+        if (!file.exists())
+            return peerScores;
+        try (final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                final String[] fields = line.split("\\s+");
+                if (fields.length != 5) {
+                    log.info("ignoring line in {}: '{}'", file, line);
+                    continue;
+                }
+                final Score score = new Score();
+                score.bytesPerSec = Double.parseDouble(fields[1]);
+                score.pingMs = Double.parseDouble(fields[2]);
+                score.stalls = Integer.parseInt(fields[3]);
+                score.lastSeen = Long.parseLong(fields[4]);
+                peerScores.scores.put(HostAndPort.fromString(fields[0]).toString(), score);
+            }
+            log.info("loaded {} peer scores from {}", peerScores.scores.size(), file);
+        } catch (final IOException | RuntimeException x) {
+            log.warn("problem loading peer scores from " + file + ", starting over", x);
+            peerScores.scores.clear();
+        }
+        return peerScores;
+    }
+
+    /**
+     * Save scores to the file they were loaded from, keeping only the most recently seen peers.
+     */
+    public synchronized void save() {
+        final List<Map.Entry<String, Score>> entries = new ArrayList<>(scores.entrySet());
+        Collections.sort(entries, (e1, e2) -> Long.compare(e2.getValue().lastSeen, e1.getValue().lastSeen));
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (final Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+            writer.write("# peer bytes_per_sec ping_ms stalls last_seen\n");
+            for (final Map.Entry<String, Score> entry : entries.subList(0, Math.min(entries.size(), MAX_PEERS))) {
+                final Score score = entry.getValue();
+                writer.write(String.format(Locale.US, "%s %.0f %.0f %d %d\n", entry.getKey(), score.bytesPerSec,
+                        score.pingMs, score.stalls, score.lastSeen));
+            }
+        } catch (final IOException x) {
+            log.warn("problem saving peer scores to " + tempFile, x);
+            return;
+        }
+        if (!tempFile.renameTo(file))
+            log.warn("cannot rename {} to {}", tempFile, file);
+    }
+
+    public synchronized void recordPing(final String peer, final long pingMs, final long now) {
+        final Score score = score(peer, now);
+        score.pingMs = ewma(score.pingMs, pingMs);
+    }
+
+    /** Record the rate at which the download peer delivered blocks. */
+    public synchronized void recordDownloadRate(final String peer, final double bytesPerSec, final long now) {
+        final Score score = score(peer, now);
+        score.bytesPerSec = ewma(score.bytesPerSec, bytesPerSec);
+    }
+
+    public synchronized void recordStall(final String peer, final long now) {
+        score(peer, now).stalls++;
+    }
+
+    private Score score(final String peer, final long now) {
+        Score score = scores.get(peer);
+        if (score == null) {
+            score = new Score();
+            scores.put(peer, score);
+        }
+        score.lastSeen = now;
+        return score;
+    }
+
+    private static double ewma(final double average, final double value) {
+        return Double.isNaN(average) ? value : average + EWMA_WEIGHT * (value - average);
+    }
+
+    /**
+     * Best first: peers with a known delivery rate by rate, reduced by their stalls, then peers with only a known
+     * ping time by ping time.
+     */
+    private final Comparator<String> bestFirst = (peer1, peer2) -> {
+        final Score score1 = scores.get(peer1), score2 = scores.get(peer2);
+        final double rate1 = score1 != null ? score1.effectiveRate() : Double.NaN;
+        final double rate2 = score2 != null ? score2.effectiveRate() : Double.NaN;
+        if (!Double.isNaN(rate1) || !Double.isNaN(rate2)) {
+            if (Double.isNaN(rate2))
+                return -1;
+            if (Double.isNaN(rate1))
+                return 1;
+            return Double.compare(rate2, rate1);
+        }
+        final double ping1 = score1 != null && !Double.isNaN(score1.pingMs) ? score1.pingMs : Double.MAX_VALUE;
+        final double ping2 = score2 != null && !Double.isNaN(score2.pingMs) ? score2.pingMs : Double.MAX_VALUE;
+        return Double.compare(ping1, ping2);
+    };
+
+    /**
+     * @return up to the given number of scored peers, best first
+     */
+    public synchronized List<HostAndPort> getBest(final int maxPeers) {
+        final List<String> peers = new ArrayList<>(scores.keySet());
+        Collections.sort(peers, bestFirst);
+        final List<HostAndPort> best = new ArrayList<>(Math.min(peers.size(), maxPeers));
+        for (final String peer : peers.subList(0, Math.min(peers.size(), maxPeers)))
+            best.add(HostAndPort.fromString(peer));
+        return best;
+    }
+
+    /**
+     * @return the best of the given peers, or {@code null} if there are none
+     */
+    @Nullable
+    public synchronized String getBestOf(final Collection<String> peers) {
+        return peers.isEmpty() ? null : Collections.min(peers, bestFirst);
+    }
+
+    /**
+     * Among the peers that are as eligible for downloading the chain as the one {@link org.bitcoinj.core.PeerGroup}
+     * chose by default, choose the best scored one.
+     */
+    public Peer selectDownloadPeer(final Peer defaultPeer, final List<Peer> peers) {
+        final VersionMessage defaultVersion = defaultPeer.getPeerVersionMessage();
+        final Map<String, Peer> candidates = new HashMap<>();
+        for (final Peer peer : peers) {
+            final VersionMessage version = peer.getPeerVersionMessage();
+            if (peer.getBestHeight() >= defaultPeer.getBestHeight() && version.hasBlockChain()
+                    && (version.isWitnessSupported() || !defaultVersion.isWitnessSupported()))
+                candidates.put(SyncMetrics.keyOf(peer.getAddress()), peer);
+        }
+        final String best = getBestOf(candidates.keySet());
+        return best != null ? candidates.get(best) : defaultPeer;
+    }
+
+    /**
+     * @return a peer from the given candidates that is known to deliver blocks much faster than the download peer
+     *         currently does, or {@code null} if the download peer should be kept
+     */
+    @Nullable
+    public synchronized String getReplacement(final String downloadPeer, final Collection<String> candidates) {
+        final Score current = scores.get(downloadPeer);
+        if (current == null || Double.isNaN(current.effectiveRate()))
+            return null;
+        final List<String> others = new ArrayList<>(candidates);
+        others.remove(downloadPeer);
+        final String best = getBestOf(others);
+        if (best == null)
+            return null;
+        final double bestRate = scores.containsKey(best) ? scores.get(best).effectiveRate() : Double.NaN;
+        return bestRate > current.effectiveRate() * SWAP_RATE_FACTOR ? best : null;
+    }
+
+    public synchronized int size() {
+        return scores.size();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.service;
+
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.listeners.NewBestBlockListener;
+import org.bitcoinj.core.listeners.ReorganizeListener;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring of the most recent blocks of the best chain, kept in step with the block chain by listening to new best blocks
+ * and reorganizations. Serves the block monitor without walking the block store. On a reorganization, or if a new best
+ * block doesn't extend the newest cached one, the ring is refilled from the store.
+ *
+ * @author agent
+ */
+public final class RecentBlocksCache implements NewBestBlockListener, ReorganizeListener {
+    private final BlockStore blockStore;
+    private final StoredBlock[] ring;
+    private int newest = -1; // index of newest block in ring
+    private int size = 0;
+
+    private static final Logger log = LoggerFactory.getLogger(RecentBlocksCache.class);
+
+    public RecentBlocksCache(final BlockStore blockStore, final int capacity) {
+        this.blockStore = blockStore;
+        this.ring = new StoredBlock[capacity];
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    @Override
+    public synchronized void notifyNewBestBlock(final StoredBlock block) {
+        if (size > 0 && ring[newest].getHeader().getHash().equals(block.getHeader().getPrevBlockHash()))
+            push(block);
+        else
+            fill(block);
+    }
+
+    /** The block chain notifies only reorganize listeners of the new chain head, so this must refill the ring. */
+    @Override
+    public synchronized void reorganize(final StoredBlock splitPoint, final List<StoredBlock> oldBlocks,
+            final List<StoredBlock> newBlocks) {
+        StoredBlock newChainHead = splitPoint;
+        for (final StoredBlock block : newBlocks)
+            if (block.getHeight() > newChainHead.getHeight())
+                newChainHead = block;
+        fill(newChainHead);
+    }
+
+    /** Refill the ring, walking the store back from the given chain head. */
+    public synchronized void fill(final StoredBlock chainHead) {
+        final StoredBlock[] blocks = new StoredBlock[ring.length];
+        int numBlocks = 0;
+        StoredBlock block = chainHead;
+        while (block != null && numBlocks < blocks.length) {
+            blocks[numBlocks++] = block;
+            try {
+                block = block.getPrev(blockStore);
+            } catch (final BlockStoreException x) {
+                log.info("skipping blocks because of exception", x);
+                break;
+            }
+        }
+        newest = -1;
+        size = 0;
+        for (int i = numBlocks - 1; i >= 0; i--)
+            push(blocks[i]);
+    }
+
+    private void push(final StoredBlock block) {
+        newest = (newest + 1) % ring.length;
+        ring[newest] = block;
+        size = Math.min(size + 1, ring.length);
+    }
+
+    /**
+     * @return up to {@code maxBlocks} blocks, newest first
+     */
+    public synchronized List<StoredBlock> get(final int maxBlocks) {
+        final int numBlocks = Math.min(maxBlocks, size);
+        final List<StoredBlock> blocks = new ArrayList<>(numBlocks);
+        for (int i = 0; i < numBlocks; i++)
+            blocks.add(ring[(newest - i + ring.length) % ring.length]);
+        return blocks;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.service;
+
+import androidx.annotation.Nullable;
+import com.google.common.net.HostAndPort;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.listeners.PreMessageReceivedEventListener;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of the chain sync, for telling whether a slow sync is bound by the network or by the CPU. Counters are
+ * updated on the network thread; {@link #sample(long)} turns them into a {@link Sample} once per interval and keeps a
+ * bounded history that can be exported as CSV.
+ *
+ * <p>
+ * Processing time is measured from the arrival of the message that completes a block until the block chain, including
+ * the wallet, has processed it. The remainder of the sampling interval, while blocks are still to be downloaded, counts
+ * as network time. A stall is counted whenever the download rate stays below the threshold that is also configured
+ * on the peer group.
+ *
+ * @author agent
+ */
+public final class SyncMetrics implements PreMessageReceivedEventListener {
+    public static final class Sample {
+        public final long time;
+        public final double blocksPerSec, bytesPerSec;
+        public final long filteredBlocks, fullBlocks;
+        public final long processingMs, networkMs;
+        public final int blocksLeft;
+        public final int stalls;
+        public final Map<String, Double> peerBytesPerSec;
+
+        public Sample(final long time, final double blocksPerSec, final double bytesPerSec, final long filteredBlocks,
+                final long fullBlocks, final long processingMs, final long networkMs, final int blocksLeft,
+                final int stalls, final Map<String, Double> peerBytesPerSec) {
+            this.time = time;
+            this.blocksPerSec = blocksPerSec;
+            this.bytesPerSec = bytesPerSec;
+            this.filteredBlocks = filteredBlocks;
+            this.fullBlocks = fullBlocks;
+            this.processingMs = processingMs;
+            this.networkMs = networkMs;
+            this.blocksLeft = blocksLeft;
+            this.stalls = stalls;
+            this.peerBytesPerSec = Collections.unmodifiableMap(peerBytesPerSec);
+        }
+    }
+
+    private final int stallPeriodSecs;
+    private final int stallMinBytesPerSec;
+    private final int maxSamples;
+
+    // updated on the network thread
+    private final ConcurrentHashMap<String, AtomicLong> peerBytes = new ConcurrentHashMap<>();
+    private final AtomicLong numBlocks = new AtomicLong();
+    private final AtomicLong filteredBlocks = new AtomicLong();
+    private final AtomicLong fullBlocks = new AtomicLong();
+    private final AtomicLong processingNanos = new AtomicLong();
+    private final AtomicInteger blocksLeft = new AtomicInteger();
+    private volatile long lastMessageNanos = 0;
+
+    // guarded by this
+    private final ArrayDeque<Sample> samples = new ArrayDeque<>();
+    private final Map<String, Long> lastPeerBytes = new TreeMap<>();
+    private long lastSampleTime = 0;
+    private long lastNumBlocks = 0;
+    private long lastProcessingNanos = 0;
+    private int numStalls = 0;
+    private boolean stalled = false;
+
+    /**
+     * @param stallPeriodSecs
+     *            see {@link org.bitcoinj.core.PeerGroup#setStallThreshold(int, int)}
+     * @param stallMinBytesPerSec
+     *            see {@link org.bitcoinj.core.PeerGroup#setStallThreshold(int, int)}
+     * @param maxSamples
+     *            number of samples to keep
+     */
+    public SyncMetrics(final int stallPeriodSecs, final int stallMinBytesPerSec, final int maxSamples) {
+        this.stallPeriodSecs = stallPeriodSecs;
+        this.stallMinBytesPerSec = stallMinBytesPerSec;
+        this.maxSamples = maxSamples;
+    }
+
+    @Override
+    public Message onPreMessageReceived(final Peer peer, final Message m) {
+        lastMessageNanos = System.nanoTime();
+        final String key = keyOf(peer.getAddress());
+        AtomicLong bytes = peerBytes.get(key);
+        if (bytes == null) {
+            final AtomicLong newBytes = new AtomicLong();
+            bytes = peerBytes.putIfAbsent(key, newBytes);
+            if (bytes == null)
+                bytes = newBytes;
+        }
+        bytes.addAndGet(m.getMessageSize());
+        return m;
+    }
+
+    /** A chain download of the given number of blocks has started. */
+    public void onChainDownloadStarted(final int blocksToDownload) {
+        blocksLeft.set(blocksToDownload);
+    }
+
+    /** A block has been processed by the block chain. */
+    public void onBlockProcessed(final boolean filtered, final int blocksLeft) {
+        final long lastMessageNanos = this.lastMessageNanos;
+        if (lastMessageNanos != 0)
+            processingNanos.addAndGet(System.nanoTime() - lastMessageNanos);
+        numBlocks.incrementAndGet();
+        (filtered ? filteredBlocks : fullBlocks).incrementAndGet();
+        this.blocksLeft.set(blocksLeft);
+    }
+
+    /** A peer has disconnected, so its throughput is no longer of interest. */
+    public void onPeerDisconnected(final Peer peer) {
+        peerBytes.remove(keyOf(peer.getAddress()));
+    }
+
+    /**
+     * Sampling is paused. The next call to {@link #sample(long)} only starts a new interval, so the pause isn't
+     * averaged into the rates.
+     */
+    public synchronized void pauseSampling() {
+        lastSampleTime = 0;
+    }
+
+    /**
+     * Take a sample of the counters, covering the time since the last sample.
+     *
+     * @return the sample, or {@code null} if this was the first call or the first since sampling was paused
+     */
+    @Nullable
+    public synchronized Sample sample(final long now) {
+        final long numBlocks = this.numBlocks.get();
+        final long processingNanos = this.processingNanos.get();
+        final Map<String, Long> peerBytes = new TreeMap<>();
+        for (final Map.Entry<String, AtomicLong> entry : this.peerBytes.entrySet())
+            peerBytes.put(entry.getKey(), entry.getValue().get());
+
+        Sample sample = null;
+        if (lastSampleTime != 0 && now > lastSampleTime) {
+            final double secs = (now - lastSampleTime) / 1000.0;
+            final Map<String, Double> peerBytesPerSec = new TreeMap<>();
+            long totalBytes = 0;
+            for (final Map.Entry<String, Long> entry : peerBytes.entrySet()) {
+                final Long lastBytes = lastPeerBytes.get(entry.getKey());
+                final long bytes = entry.getValue() - (lastBytes != null ? lastBytes : 0);
+                peerBytesPerSec.put(entry.getKey(), bytes / secs);
+                totalBytes += bytes;
+            }
+            final int blocksLeft = this.blocksLeft.get();
+            final long intervalBlocks = numBlocks - lastNumBlocks;
+            final long processingMs = (processingNanos - lastProcessingNanos) / 1000000;
+            final boolean downloading = blocksLeft > 0 || intervalBlocks > 0;
+            final long networkMs = downloading ? Math.max(now - lastSampleTime - processingMs, 0) : 0;
+            sample = new Sample(now, intervalBlocks / secs, totalBytes / secs, filteredBlocks.get(),
+                    fullBlocks.get(), processingMs, networkMs, blocksLeft, numStalls, peerBytesPerSec);
+            samples.addLast(sample);
+            while (samples.size() > maxSamples)
+                samples.removeFirst();
+            detectStall(now, downloading);
+        }
+
+        lastSampleTime = now;
+        lastNumBlocks = numBlocks;
+        lastProcessingNanos = processingNanos;
+        lastPeerBytes.clear();
+        lastPeerBytes.putAll(peerBytes);
+        return sample;
+    }
+
+    private void detectStall(final long now, final boolean downloading) {
+        if (!downloading) {
+            stalled = false;
+            return;
+        }
+        // average over the stall period, if there are enough samples to cover it
+        double bytes = 0;
+        long since = now;
+        for (final Iterator<Sample> i = samples.descendingIterator(); i.hasNext();) {
+            final Sample sample = i.next();
+            if (now - sample.time >= stallPeriodSecs * 1000L)
+                break;
+            bytes += sample.bytesPerSec; // samples are about a second apart
+            since = sample.time;
+        }
+        if (now - since < (stallPeriodSecs - 1) * 1000L)
+            return;
+        final boolean stalled = bytes / stallPeriodSecs < stallMinBytesPerSec;
+        if (stalled && !this.stalled) {
+            numStalls++;
+            final Sample last = samples.removeLast();
+            samples.addLast(new Sample(last.time, last.blocksPerSec, last.bytesPerSec, last.filteredBlocks,
+                    last.fullBlocks, last.processingMs, last.networkMs, last.blocksLeft, numStalls,
+                    last.peerBytesPerSec));
+        }
+        this.stalled = stalled;
+    }
+
+    @Nullable
+    public synchronized Sample getLatest() {
+        return samples.peekLast();
+    }
+
+    public synchronized List<Sample> getSamples() {
+        return new ArrayList<>(samples);
+    }
+
+    /** Write all kept samples as CSV, one row per sample. Per-peer rates are combined into a single column. */
+    public void writeCsv(final Writer writer) throws IOException {
+        writer.write("time,blocks_per_sec,bytes_per_sec,filtered_blocks,full_blocks,processing_ms,network_ms,"
+                + "blocks_left,stalls,peer_bytes_per_sec\n");
+        for (final Sample sample : getSamples()) {
+            final StringBuilder peers = new StringBuilder();
+            for (final Map.Entry<String, Double> entry : sample.peerBytesPerSec.entrySet()) {
+                if (peers.length() > 0)
+                    peers.append(' ');
+                peers.append(entry.getKey()).append('=').append(Math.round(entry.getValue()));
+            }
+            writer.write(String.format(Locale.US, "%d,%.2f,%.0f,%d,%d,%d,%d,%d,%d,\"%s\"\n", sample.time,
+                    sample.blocksPerSec, sample.bytesPerSec, sample.filteredBlocks, sample.fullBlocks,
+                    sample.processingMs, sample.networkMs, sample.blocksLeft, sample.stalls, peers));
+        }
+        writer.flush();
+    }
+
+    static String keyOf(final PeerAddress address) {
+        return HostAndPort.fromParts(address.getAddr().getHostAddress(), address.getPort()).toString();
+    }
+}
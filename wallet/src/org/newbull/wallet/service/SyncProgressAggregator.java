@@ -0,0 +1,117 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.service;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects block download events on the peer thread without locking, and hands them to the main thread in batches.
+ * {@link #onBlock(int)} tells the caller when a batch needs to be scheduled; {@link #drain(int)} takes everything
+ * collected so far and tells what actually needs updating: the progress notification only if the visible percentage
+ * changed, and the best chain height ever only if a persistence checkpoint was crossed or the download finished.
+ *
+ * @author agent
+ */
+final class SyncProgressAggregator {
+    private final int persistIntervalBlocks;
+
+    // written on the peer thread
+    private final AtomicInteger blocksToDownload = new AtomicInteger();
+    private final AtomicInteger blocksLeft = new AtomicInteger();
+    private final AtomicInteger numBlocks = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // only used on the main thread
+    private int lastPercent = -1;
+    private int lastPersistedHeight = 0;
+
+    public static final class Batch {
+        public final int height;
+        public final int numBlocks;
+        public final int blocksToDownload, blocksLeft;
+        /** Percentage to show, or -1 if it didn't change since the last batch. */
+        public final int changedPercent;
+        /** Whether the height should be persisted. */
+        public final boolean persistHeight;
+
+        private Batch(final int height, final int numBlocks, final int blocksToDownload, final int blocksLeft,
+                final int changedPercent, final boolean persistHeight) {
+            this.height = height;
+            this.numBlocks = numBlocks;
+            this.blocksToDownload = blocksToDownload;
+            this.blocksLeft = blocksLeft;
+            this.changedPercent = changedPercent;
+            this.persistHeight = persistHeight;
+        }
+    }
+
+    /**
+     * @param persistIntervalBlocks
+     *            the best chain height is persisted whenever it crosses a multiple of this
+     */
+    public SyncProgressAggregator(final int persistIntervalBlocks) {
+        this.persistIntervalBlocks = persistIntervalBlocks;
+    }
+
+    /** Peer thread: a chain download of the given number of blocks has started. */
+    public void onDownloadStarted(final int blocksToDownload) {
+        this.blocksToDownload.set(blocksToDownload);
+        this.blocksLeft.set(blocksToDownload);
+    }
+
+    /**
+     * Peer thread: a block has been downloaded.
+     *
+     * @return true if the caller needs to schedule a {@link #drain(int)}, which is once per batch
+     */
+    public boolean onBlock(final int blocksLeft) {
+        this.blocksLeft.set(blocksLeft);
+        numBlocks.incrementAndGet();
+        return scheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Main thread: take the events collected since the last batch.
+     *
+     * @param height
+     *            current height of the best chain
+     */
+    public Batch drain(final int height) {
+        scheduled.set(false); // events from now on go into the next batch
+        final int numBlocks = this.numBlocks.getAndSet(0);
+        final int blocksToDownload = this.blocksToDownload.get();
+        final int blocksLeft = this.blocksLeft.get();
+
+        int changedPercent = -1;
+        if (blocksToDownload > 0) {
+            final int percent = (int) ((long) (blocksToDownload - Math.max(blocksLeft, 0)) * 100 / blocksToDownload);
+            if (percent != lastPercent) {
+                lastPercent = percent;
+                changedPercent = percent;
+            }
+        }
+
+        final boolean persistHeight = height > lastPersistedHeight && (blocksLeft <= 0
+                || height / persistIntervalBlocks > lastPersistedHeight / persistIntervalBlocks);
+        if (persistHeight)
+            lastPersistedHeight = height;
+
+        return new Batch(height, numBlocks, blocksToDownload, blocksLeft, changedPercent, persistHeight);
+    }
+}
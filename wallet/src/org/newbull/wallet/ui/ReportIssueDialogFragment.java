@@ -39,6 +39,7 @@ import org.newbull.wallet.Configuration;
 import org.newbull.wallet.Constants;
 import org.newbull.wallet.R;
 import org.newbull.wallet.WalletApplication;
+import org.newbull.wallet.data.WalletReadScheduler;
 import org.newbull.wallet.util.Bluetooth;
 import org.newbull.wallet.util.CrashReporter;
 import org.newbull.wallet.util.Installer;
@@ -285,6 +286,11 @@ public class ReportIssueDialogFragment extends DialogFragment {
                 .append(")\n");
         report.append("Best chain height ever: ").append(Integer.toString(config.getBestChainHeightEver()))
                 .append("\n");
+        report.append("Wallet reads: ").append(WalletReadScheduler.get().toString()).append("\n");
+        report.append("Wallet writes: ").append(application.getWalletAutosave()).append(", ")
+                .append(String.valueOf(application.getWalletJournal())).append("\n");
+        report.append("Wallet load: ").append(String.valueOf(application.getWalletLoadMetrics())).append(", ")
+                .append(String.valueOf(application.getWalletAudit())).append("\n");
 
         report.append("Databases:");
         for (final String db : application.databaseList())
@@ -0,0 +1,191 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.ui;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+import android.util.LruCache;
+import androidx.annotation.Nullable;
+import org.newbull.wallet.Constants;
+import org.newbull.wallet.addressbook.AddressBookEntry;
+import org.newbull.wallet.ui.TransactionsAdapter.ListItem.TransactionItem;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Transaction.Purpose;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.utils.ExchangeRate;
+import org.bitcoinj.utils.MonetaryFormat;
+import org.bitcoinj.wallet.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Memoizes {@link TransactionItem}s, so that rebuilding a row whose transaction didn't visibly change costs a map
+ * lookup rather than evaluating scripts and formatting. Items are keyed by txid, the visible transaction state
+ * (including confidence type and depth capped at {@link Constants#MAX_NUM_CONFIRMATIONS}), the address book generation
+ * and the format. Least recently used items are evicted.
+ *
+ * @author agent
+ */
+public class TransactionItemCache {
+    private final LruCache<Key, TransactionItem> cache;
+    @Nullable
+    private Wallet wallet;
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionItemCache.class);
+
+    public TransactionItemCache(final int maxSize) {
+        this.cache = new LruCache<>(maxSize);
+    }
+
+    public TransactionItem get(final Context context, final Transaction tx, final State state, final Wallet wallet,
+            @Nullable final Map<String, AddressBookEntry> addressBook, final int addressBookGeneration,
+            final MonetaryFormat format, final int maxConnectedPeers) {
+        synchronized (this) {
+            if (wallet != this.wallet) {
+                // items depend on the wallet, so none of them can be reused
+                if (this.wallet != null)
+                    log.info("wallet replaced, evicting {} cached transaction items", cache.size());
+                cache.evictAll();
+                this.wallet = wallet;
+            }
+        }
+
+        final Key key = new Key(tx.getTxId(), state, addressBookGeneration, format);
+        TransactionItem item = cache.get(key);
+        if (item == null) {
+            item = new TransactionItem(context, tx, wallet, addressBook, format, maxConnectedPeers);
+            cache.put(key, item);
+        }
+        return item;
+    }
+
+    public void evictAll() {
+        cache.evictAll();
+    }
+
+    @Override
+    public String toString() {
+        return cache.toString();
+    }
+
+    private static final class Key {
+        final Sha256Hash txId;
+        final State state;
+        final int addressBookGeneration;
+        final MonetaryFormat format;
+
+        Key(final Sha256Hash txId, final State state, final int addressBookGeneration, final MonetaryFormat format) {
+            this.txId = txId;
+            this.state = state;
+            this.addressBookGeneration = addressBookGeneration;
+            this.format = format;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            final Key other = (Key) o;
+            return this.txId.equals(other.txId) && this.state.equals(other.state)
+                    && this.addressBookGeneration == other.addressBookGeneration && this.format.equals(other.format);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(txId, state, addressBookGeneration, format);
+        }
+    }
+
+    /**
+     * Everything about a transaction its {@link TransactionItem} depends on, apart from the transaction content
+     * itself. Cheap to compute and compare, as opposed to building the item.
+     */
+    public static final class State {
+        public final ConfidenceType confidenceType;
+        public final int depth;
+        public final int numBroadcastPeers;
+        public final TransactionConfidence.Source source;
+        public final Purpose purpose;
+        public final long updateTime;
+        private final long ageBucket;
+        private final long lastBlockSeenTimeSecs;
+        @Nullable
+        private final String memo;
+        @Nullable
+        private final ExchangeRate exchangeRate;
+
+        public State(final Transaction tx, final long now, final long lastBlockSeenTimeSecs) {
+            final TransactionConfidence confidence = tx.getConfidence();
+            this.confidenceType = confidence.getConfidenceType();
+            final int maxDepth = tx.isCoinBase() ? Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth()
+                    : Constants.MAX_NUM_CONFIRMATIONS;
+            this.depth = confidenceType == ConfidenceType.BUILDING
+                    ? Math.min(confidence.getDepthInBlocks(), maxDepth) : 0;
+            this.numBroadcastPeers = confidence.numBroadcastPeers();
+            this.source = confidence.getSource();
+            this.purpose = tx.getPurpose();
+            final Date updateTime = tx.getUpdateTime();
+            this.updateTime = updateTime != null ? updateTime.getTime() : 0;
+            this.ageBucket = ageBucket(now - this.updateTime);
+            // only pending transactions show a delay message relative to the last seen block
+            this.lastBlockSeenTimeSecs = confidenceType == ConfidenceType.PENDING ? lastBlockSeenTimeSecs : 0;
+            this.memo = tx.getMemo();
+            this.exchangeRate = tx.getExchangeRate();
+        }
+
+        // granularity of the relative time shown in the list
+        private static long ageBucket(final long ageMs) {
+            if (ageMs < DateUtils.HOUR_IN_MILLIS)
+                return ageMs / DateUtils.MINUTE_IN_MILLIS;
+            else if (ageMs < DateUtils.DAY_IN_MILLIS)
+                return 100 + ageMs / DateUtils.HOUR_IN_MILLIS;
+            else if (ageMs < DateUtils.WEEK_IN_MILLIS)
+                return 200 + ageMs / DateUtils.DAY_IN_MILLIS;
+            else
+                return 300;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            final State other = (State) o;
+            return this.confidenceType == other.confidenceType && this.depth == other.depth
+                    && this.numBroadcastPeers == other.numBroadcastPeers && this.source == other.source
+                    && this.purpose == other.purpose && this.updateTime == other.updateTime
+                    && this.ageBucket == other.ageBucket && this.lastBlockSeenTimeSecs == other.lastBlockSeenTimeSecs
+                    && Objects.equals(this.memo, other.memo) && Objects.equals(this.exchangeRate, other.exchangeRate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(confidenceType, depth, numBroadcastPeers, source, purpose, updateTime, ageBucket,
+                    lastBlockSeenTimeSecs, memo, exchangeRate);
+        }
+    }
+}
@@ -41,6 +41,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import org.newbull.wallet.Constants;
 import org.newbull.wallet.R;
 import org.newbull.wallet.addressbook.AddressBookEntry;
+import org.newbull.wallet.data.WalletUiSnapshot;
 import org.newbull.wallet.ui.TransactionsAdapter.ListItem.TransactionItem;
 import org.newbull.wallet.util.Formats;
 import org.newbull.wallet.util.WalletUtils;
@@ -58,7 +59,6 @@ import org.bitcoinj.wallet.DefaultCoinSelector;
 import org.bitcoinj.wallet.Wallet;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.List;
@@ -69,19 +69,6 @@ import java.util.Objects;
  * @author Andreas Schildbach
  */
 public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListItem, RecyclerView.ViewHolder> {
-    public static List<ListItem> buildListItems(final Context context, final List<Transaction> transactions,
-            final WarningType warning, final @Nullable Wallet wallet,
-            final @Nullable Map<String, AddressBookEntry> addressBook, final MonetaryFormat format,
-            final int maxConnectedPeers) {
-        final MonetaryFormat noCodeFormat = format.noCode();
-        final List<ListItem> items = new ArrayList<>(transactions.size() + 1);
-        if (warning != null)
-            items.add(new ListItem.WarningItem(warning));
-        for (final Transaction tx : transactions)
-            items.add(new ListItem.TransactionItem(context, tx, wallet, addressBook, noCodeFormat, maxConnectedPeers));
-        return items;
-    }
-
     public static abstract class ListItem {
         // internal item id
         public final long id;
@@ -126,8 +113,17 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
             public TransactionItem(final Context context, final Transaction tx, final @Nullable Wallet wallet,
                     final @Nullable Map<String, AddressBookEntry> addressBook, final MonetaryFormat format,
                     final int maxConnectedPeers) {
-                super(id(tx.getTxId()));
-                this.transactionId = tx.getTxId();
+                this(context, Facts.of(tx, wallet, addressBook, maxConnectedPeers), format);
+            }
+
+            /** Reduced item for the first paint, built from what was recorded on the last wallet save. */
+            public TransactionItem(final Context context, final WalletUiSnapshot.Row row, final MonetaryFormat format) {
+                this(context, Facts.of(row), format);
+            }
+
+            private TransactionItem(final Context context, final Facts facts, final MonetaryFormat format) {
+                super(id(facts.transactionId));
+                this.transactionId = facts.transactionId;
 
                 final int colorSignificant = context.getColor(R.color.fg_significant);
                 final int colorLessSignificant = context.getColor(R.color.fg_less_significant);
@@ -136,21 +132,16 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                 final int colorValueNegative = context.getColor(R.color.fg_value_negative);
                 final int colorError = context.getColor(R.color.fg_error);
 
-                final Coin value = tx.getValue(wallet);
-                final boolean sent = value.signum() < 0;
-                final boolean self = WalletUtils.isEntirelySelf(tx, wallet);
-                final TransactionConfidence confidence = tx.getConfidence();
-                final ConfidenceType confidenceType = confidence.getConfidenceType();
-                final boolean isOwn = confidence.getSource().equals(TransactionConfidence.Source.SELF);
-                final Transaction.Purpose purpose = tx.getPurpose();
-                final String[] memo = Formats.sanitizeMemo(tx.getMemo());
+                final boolean sent = facts.sent;
+                final ConfidenceType confidenceType = facts.confidenceType;
+                final String[] memo = facts.memo;
 
                 final int textColor, lessSignificantColor, valueColor;
                 if (confidenceType == ConfidenceType.DEAD) {
                     textColor = colorError;
                     lessSignificantColor = colorError;
                     valueColor = colorError;
-                } else if (DefaultCoinSelector.isSelectable(tx)) {
+                } else if (facts.selectable) {
                     textColor = colorSignificant;
                     lessSignificantColor = colorLessSignificant;
                     valueColor = sent ? colorValueNegative : colorValuePositive;
@@ -164,13 +155,19 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                 if (confidenceType == ConfidenceType.PENDING) {
                     this.confidenceCircularMaxProgress = 1;
                     this.confidenceCircularProgress = 1;
-                    this.confidenceCircularMaxSize = maxConnectedPeers / 2; // magic value
-                    this.confidenceCircularSize = confidence.numBroadcastPeers();
+                    if (facts.complete) {
+                        this.confidenceCircularMaxSize = facts.maxConnectedPeers / 2; // magic value
+                        this.confidenceCircularSize = facts.numBroadcastPeers;
+                    } else {
+                        // peers are not known yet
+                        this.confidenceCircularMaxSize = 1;
+                        this.confidenceCircularSize = 0;
+                    }
                     this.confidenceCircularFillColor = colorInsignificant;
                     this.confidenceCircularStrokeColor = Color.TRANSPARENT;
                     this.confidenceTextual = null;
                     this.confidenceTextualColor = 0;
-                    this.confidenceMessage = sent && confidence.numBroadcastPeers() == 0
+                    this.confidenceMessage = facts.complete && sent && facts.numBroadcastPeers == 0
                             ? SpannedString.valueOf(
                                     context.getString(R.string.transaction_row_confidence_message_sent_unbroadcasted))
                             : null;
@@ -187,11 +184,10 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                     this.confidenceMessage = null;
                     this.confidenceMessageOnlyShownWhenSelected = false;
                 } else if (confidenceType == ConfidenceType.BUILDING) {
-                    this.confidenceCircularMaxProgress = tx.isCoinBase()
+                    this.confidenceCircularMaxProgress = facts.coinbase
                             ? Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth()
                             : Constants.MAX_NUM_CONFIRMATIONS;
-                    this.confidenceCircularProgress = Math.min(confidence.getDepthInBlocks(),
-                            this.confidenceCircularMaxProgress);
+                    this.confidenceCircularProgress = Math.min(facts.depth, this.confidenceCircularMaxProgress);
                     this.confidenceCircularMaxSize = 1;
                     this.confidenceCircularSize = 1;
                     this.confidenceCircularFillColor = ColorUtils.blendARGB(colorValueNegative, colorValuePositive,
@@ -199,9 +195,10 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                     this.confidenceCircularStrokeColor = Color.TRANSPARENT;
                     this.confidenceTextual = null;
                     this.confidenceTextualColor = 0;
-                    this.confidenceMessage = SpannedString.valueOf(
+                    this.confidenceMessage = facts.complete ? SpannedString.valueOf(
                             context.getString(sent ? R.string.transaction_row_confidence_message_sent_successful
-                                    : R.string.transaction_row_confidence_message_received_successful));
+                                    : R.string.transaction_row_confidence_message_received_successful))
+                            : null;
                     this.confidenceMessageOnlyShownWhenSelected = true;
                 } else if (confidenceType == ConfidenceType.DEAD) {
                     this.confidenceTextual = CONFIDENCE_SYMBOL_DEAD;
@@ -212,9 +209,10 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                     this.confidenceCircularSize = 0;
                     this.confidenceCircularFillColor = 0;
                     this.confidenceCircularStrokeColor = 0;
-                    this.confidenceMessage = SpannedString
+                    this.confidenceMessage = facts.complete ? SpannedString
                             .valueOf(context.getString(sent ? R.string.transaction_row_confidence_message_sent_failed
-                                    : R.string.transaction_row_confidence_message_received_failed));
+                                    : R.string.transaction_row_confidence_message_received_failed))
+                            : null;
                     this.confidenceMessageOnlyShownWhenSelected = false;
                 } else {
                     this.confidenceTextual = CONFIDENCE_SYMBOL_UNKNOWN;
@@ -230,50 +228,36 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                 }
 
                 // time
-                final Date time = tx.getUpdateTime();
-                this.time = DateUtils.getRelativeTimeSpanString(context, time.getTime());
-                this.timeSelected = DateUtils.formatDateTime(context, time.getTime(),
+                this.time = DateUtils.getRelativeTimeSpanString(context, facts.time.getTime());
+                this.timeSelected = DateUtils.formatDateTime(context, facts.time.getTime(),
                         DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME);
                 this.timeColor = textColor;
 
                 // address
-                final Address address = sent ? WalletUtils.getToAddressOfSent(tx, wallet)
-                        : WalletUtils.getWalletAddressOfReceived(tx, wallet);
-                final String addressLabel;
-                if (addressBook == null || address == null) {
-                    addressLabel = null;
-                } else {
-                    final AddressBookEntry entry = addressBook.get(address.toString());
-                    if (entry != null)
-                        addressLabel = entry.getLabel();
-                    else
-                        addressLabel = null;
-                }
-                if (tx.isCoinBase()) {
+                if (facts.coinbase) {
                     this.address = SpannedString
                             .valueOf(context.getString(R.string.wallet_transactions_fragment_coinbase));
                     this.addressColor = textColor;
                     this.addressTypeface = Typeface.DEFAULT_BOLD;
-                } else if (purpose == Purpose.RAISE_FEE) {
+                } else if (facts.raiseFee) {
                     this.address = null;
                     this.addressColor = 0;
                     this.addressTypeface = Typeface.DEFAULT;
-                } else if (purpose == Purpose.KEY_ROTATION || self) {
+                } else if (facts.internal) {
                     this.address = SpannedString.valueOf(context.getString(R.string.symbol_internal) + " "
                             + context.getString(R.string.wallet_transactions_fragment_internal));
                     this.addressColor = lessSignificantColor;
                     this.addressTypeface = Typeface.DEFAULT_BOLD;
-                } else if (addressLabel != null) {
-                    this.address = SpannedString.valueOf(addressLabel);
+                } else if (facts.label != null) {
+                    this.address = SpannedString.valueOf(facts.label);
                     this.addressColor = textColor;
                     this.addressTypeface = Typeface.DEFAULT_BOLD;
                 } else if (memo != null && memo.length >= 2) {
                     this.address = SpannedString.valueOf(memo[1]);
                     this.addressColor = textColor;
                     this.addressTypeface = Typeface.DEFAULT_BOLD;
-                } else if (address != null) {
-                    this.address = WalletUtils.formatAddress(address, Constants.ADDRESS_FORMAT_GROUP_SIZE,
-                            Constants.ADDRESS_FORMAT_LINE_SIZE);
+                } else if (facts.address != null) {
+                    this.address = facts.address;
                     this.addressColor = lessSignificantColor;
                     this.addressTypeface = Typeface.DEFAULT;
                 } else {
@@ -283,14 +267,14 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                 }
 
                 // fee
-                final Coin fee = tx.getFee();
-                final boolean showFee = sent && fee != null && !fee.isZero();
+                final Coin fee = facts.fee;
                 this.feeFormat = format;
-                this.fee = showFee ? fee.negate() : null;
+                this.fee = facts.showFee ? fee.negate() : null;
 
                 // value
+                final Coin value = facts.value;
                 this.valueFormat = format;
-                if (purpose == Purpose.RAISE_FEE) {
+                if (facts.raiseFee) {
                     this.valueColor = valueColor;
                     this.value = fee.negate();
                 } else if (value.isZero()) {
@@ -298,11 +282,11 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                     this.value = null;
                 } else {
                     this.valueColor = valueColor;
-                    this.value = showFee ? value.add(fee) : value;
+                    this.value = facts.showFee ? value.add(fee) : value;
                 }
 
                 // fiat value
-                final ExchangeRate exchangeRate = tx.getExchangeRate();
+                final ExchangeRate exchangeRate = facts.exchangeRate;
                 if (exchangeRate != null && !value.isZero()) {
                     this.fiat = exchangeRate.coinToFiat(value);
                     this.fiatFormat = Constants.LOCAL_FORMAT.code(0,
@@ -315,15 +299,18 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                 }
 
                 // message
-                if (purpose == Purpose.KEY_ROTATION) {
+                if (!facts.complete) {
+                    this.message = null;
+                    this.messageColor = 0;
+                } else if (facts.keyRotation) {
                     this.message = Html
                             .fromHtml(context.getString(R.string.transaction_row_message_purpose_key_rotation));
                     this.messageColor = colorSignificant;
-                } else if (purpose == Purpose.RAISE_FEE) {
+                } else if (facts.raiseFee) {
                     this.message = SpannedString
                             .valueOf(context.getString(R.string.transaction_row_message_purpose_raise_fee));
                     this.messageColor = colorInsignificant;
-                } else if (!isOwn && confidenceType == ConfidenceType.PENDING && confidence.numBroadcastPeers() == 0) {
+                } else if (!facts.own && confidenceType == ConfidenceType.PENDING && facts.numBroadcastPeers == 0) {
                     this.message = SpannedString
                             .valueOf(context.getString(R.string.transaction_row_message_received_direct));
                     this.messageColor = colorInsignificant;
@@ -331,9 +318,7 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                     this.message = SpannedString
                             .valueOf(context.getString(R.string.transaction_row_message_received_dust));
                     this.messageColor = colorInsignificant;
-                } else if (!sent && confidenceType == ConfidenceType.PENDING
-                        && (tx.getUpdateTime() == null || wallet.getLastBlockSeenTimeSecs() * 1000
-                                - tx.getUpdateTime().getTime() > Constants.DELAYED_TRANSACTION_THRESHOLD_MS)) {
+                } else if (!sent && confidenceType == ConfidenceType.PENDING && facts.delayed) {
                     this.message = SpannedString
                             .valueOf(context.getString(R.string.transaction_row_message_received_unconfirmed_delayed));
                     this.messageColor = colorInsignificant;
@@ -349,11 +334,11 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                     this.message = SpannedString
                             .valueOf(context.getString(R.string.transaction_row_message_received_dead));
                     this.messageColor = colorError;
-                } else if (!sent && WalletUtils.isPayToManyTransaction(tx)) {
+                } else if (!sent && facts.payToMany) {
                     this.message = SpannedString
                             .valueOf(context.getString(R.string.transaction_row_message_received_pay_to_many));
                     this.messageColor = colorInsignificant;
-                } else if (!sent && tx.isOptInFullRBF()) {
+                } else if (!sent && facts.rbf) {
                     this.message = SpannedString
                             .valueOf(context.getString(R.string.transaction_row_message_received_rbf));
                     this.messageColor = colorInsignificant;
@@ -366,11 +351,111 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                 }
             }
 
+            /**
+             * What an item is made of, taken either from a transaction of the wallet or from a row of the snapshot.
+             * Rows are incomplete: they know nothing about peers, fiat value and messages.
+             */
+            private static final class Facts {
+                Sha256Hash transactionId;
+                boolean complete;
+                boolean sent, selectable, coinbase, internal, raiseFee, keyRotation;
+                ConfidenceType confidenceType;
+                int depth, numBroadcastPeers, maxConnectedPeers;
+                Date time;
+                @Nullable
+                String label;
+                @Nullable
+                String[] memo;
+                @Nullable
+                Spanned address;
+                @Nullable
+                Coin fee;
+                boolean showFee;
+                Coin value;
+                @Nullable
+                ExchangeRate exchangeRate;
+                boolean own, delayed, payToMany, rbf;
+
+                static Facts of(final Transaction tx, final @Nullable Wallet wallet,
+                        final @Nullable Map<String, AddressBookEntry> addressBook, final int maxConnectedPeers) {
+                    final Facts facts = new Facts();
+                    facts.transactionId = tx.getTxId();
+                    facts.complete = true;
+                    facts.value = tx.getValue(wallet);
+                    facts.sent = facts.value.signum() < 0;
+                    facts.selectable = DefaultCoinSelector.isSelectable(tx);
+                    facts.coinbase = tx.isCoinBase();
+                    final Transaction.Purpose purpose = tx.getPurpose();
+                    facts.raiseFee = purpose == Purpose.RAISE_FEE;
+                    facts.keyRotation = purpose == Purpose.KEY_ROTATION;
+                    facts.internal = facts.keyRotation || WalletUtils.isEntirelySelf(tx, wallet);
+                    final TransactionConfidence confidence = tx.getConfidence();
+                    facts.confidenceType = confidence.getConfidenceType();
+                    if (facts.confidenceType == ConfidenceType.BUILDING)
+                        facts.depth = confidence.getDepthInBlocks();
+                    facts.numBroadcastPeers = confidence.numBroadcastPeers();
+                    facts.maxConnectedPeers = maxConnectedPeers;
+                    facts.own = confidence.getSource().equals(TransactionConfidence.Source.SELF);
+                    facts.time = tx.getUpdateTime();
+                    facts.delayed = !facts.sent && facts.confidenceType == ConfidenceType.PENDING
+                            && (tx.getUpdateTime() == null || wallet.getLastBlockSeenTimeSecs() * 1000
+                                    - tx.getUpdateTime().getTime() > Constants.DELAYED_TRANSACTION_THRESHOLD_MS);
+                    final Address address = facts.sent ? WalletUtils.getToAddressOfSent(tx, wallet)
+                            : WalletUtils.getWalletAddressOfReceived(tx, wallet);
+                    if (addressBook != null && address != null) {
+                        final AddressBookEntry entry = addressBook.get(address.toString());
+                        if (entry != null)
+                            facts.label = entry.getLabel();
+                    }
+                    if (address != null)
+                        facts.address = WalletUtils.formatAddress(address, Constants.ADDRESS_FORMAT_GROUP_SIZE,
+                                Constants.ADDRESS_FORMAT_LINE_SIZE);
+                    facts.memo = Formats.sanitizeMemo(tx.getMemo());
+                    facts.fee = tx.getFee();
+                    facts.showFee = facts.sent && facts.fee != null && !facts.fee.isZero();
+                    facts.exchangeRate = tx.getExchangeRate();
+                    facts.payToMany = !facts.sent && WalletUtils.isPayToManyTransaction(tx);
+                    facts.rbf = !facts.sent && tx.isOptInFullRBF();
+                    return facts;
+                }
+
+                static Facts of(final WalletUiSnapshot.Row row) {
+                    final Facts facts = new Facts();
+                    facts.transactionId = row.transactionId;
+                    facts.complete = false;
+                    facts.value = row.value;
+                    facts.sent = row.sent;
+                    facts.selectable = true;
+                    facts.coinbase = row.coinbase;
+                    facts.internal = row.internal;
+                    facts.confidenceType = row.confidenceType;
+                    facts.depth = row.depth;
+                    facts.time = row.time;
+                    facts.label = row.label;
+                    if (row.address != null)
+                        facts.address = WalletUtils.formatHash(row.address, Constants.ADDRESS_FORMAT_GROUP_SIZE,
+                                Constants.ADDRESS_FORMAT_LINE_SIZE);
+                    facts.fee = row.fee;
+                    facts.showFee = row.fee != null && !row.fee.isZero();
+                    return facts;
+                }
+            }
+
             private static long id(final Sha256Hash txId) {
                 return ByteBuffer.wrap(txId.getBytes()).getLong();
             }
         }
 
+        /** Stands in for a transaction whose item hasn't been built yet, because it is far from being visible. */
+        public static class PlaceholderItem extends ListItem {
+            public final Sha256Hash transactionId;
+
+            public PlaceholderItem(final Sha256Hash transactionId) {
+                super(TransactionItem.id(transactionId));
+                this.transactionId = transactionId;
+            }
+        }
+
         public static class WarningItem extends ListItem {
             public final WarningType type;
 
@@ -411,6 +496,8 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
     private final ContextMenuCallback contextMenuCallback;
     @Nullable
     private Sha256Hash selectedTransactionId;
+    // height of an unselected transaction row as last laid out, so placeholders don't make the list jump
+    private int rowHeight = 0;
 
     private static final String CONFIDENCE_SYMBOL_IN_CONFLICT = "\u26A0"; // warning sign
     private static final String CONFIDENCE_SYMBOL_DEAD = "\u271D"; // latin cross
@@ -418,6 +505,7 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
 
     private static final int VIEW_TYPE_TRANSACTION = 0;
     private static final int VIEW_TYPE_WARNING = 1;
+    private static final int VIEW_TYPE_PLACEHOLDER = 2;
 
     private enum ChangeType {
         CONFIDENCE, TIME, ADDRESS, FEE, VALUE, FIAT, MESSAGE, SELECTION
@@ -428,11 +516,17 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
         super(new DiffUtil.ItemCallback<ListItem>() {
             @Override
             public boolean areItemsTheSame(final ListItem oldItem, final ListItem newItem) {
-                return oldItem.id == newItem.id;
+                // placeholders and the items replacing them share their id, so they are swapped in place
+                return oldItem.id == newItem.id
+                        && (oldItem instanceof ListItem.WarningItem) == (newItem instanceof ListItem.WarningItem);
             }
 
             @Override
             public boolean areContentsTheSame(final ListItem oldItem, final ListItem newItem) {
+                if (oldItem == newItem)
+                    return true; // reused by TransactionsListIndex
+                if (oldItem.getClass() != newItem.getClass())
+                    return false;
                 if (oldItem instanceof TransactionItem) {
                     final TransactionItem oldTransactionItem = (TransactionItem) oldItem;
                     final TransactionItem newTransactionItem = (TransactionItem) newItem;
@@ -510,6 +604,8 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
 
             @Override
             public Object getChangePayload(final ListItem oldItem, final ListItem newItem) {
+                if (oldItem.getClass() != newItem.getClass())
+                    return null; // different view, needs a full bind
                 final EnumSet<ChangeType> changes = EnumSet.noneOf(ChangeType.class);
                 if (oldItem instanceof TransactionItem) {
                     final TransactionItem oldTransactionItem = (TransactionItem) oldItem;
@@ -595,6 +691,9 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                 final ListItem item = list.get(i);
                 if (item instanceof ListItem.TransactionItem && ((TransactionItem) item).transactionId.equals(transactionId))
                     return i;
+                if (item instanceof ListItem.PlaceholderItem
+                        && ((ListItem.PlaceholderItem) item).transactionId.equals(transactionId))
+                    return i;
             }
         }
         return RecyclerView.NO_POSITION;
@@ -607,6 +706,8 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
             return VIEW_TYPE_WARNING;
         else if (listItem instanceof ListItem.TransactionItem)
             return VIEW_TYPE_TRANSACTION;
+        else if (listItem instanceof ListItem.PlaceholderItem)
+            return VIEW_TYPE_PLACEHOLDER;
         else
             throw new IllegalStateException();
     }
@@ -619,10 +720,17 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
 
     @Override
     public RecyclerView.ViewHolder onCreateViewHolder(final ViewGroup parent, final int viewType) {
-        if (viewType == VIEW_TYPE_TRANSACTION)
-            return new TransactionViewHolder(inflater.inflate(R.layout.transaction_row_card, parent, false));
-        else if (viewType == VIEW_TYPE_WARNING)
+        if (viewType == VIEW_TYPE_TRANSACTION) {
+            final View view = inflater.inflate(R.layout.transaction_row_card, parent, false);
+            view.addOnLayoutChangeListener((v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) -> {
+                if (!v.isSelected())
+                    rowHeight = bottom - top;
+            });
+            return new TransactionViewHolder(view);
+        } else if (viewType == VIEW_TYPE_WARNING)
             return new WarningViewHolder(inflater.inflate(R.layout.transaction_row_warning, parent, false));
+        else if (viewType == VIEW_TYPE_PLACEHOLDER)
+            return new PlaceholderViewHolder(inflater.inflate(R.layout.transaction_row_placeholder, parent, false));
         else
             throw new IllegalStateException("unknown type: " + viewType);
     }
@@ -680,6 +788,12 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
                 transactionHolder.bindFiat(transactionItem);
             if (fullBind || changes.contains(ChangeType.MESSAGE) || changes.contains(ChangeType.SELECTION))
                 transactionHolder.bindMessage(transactionItem, isSelected);
+        } else if (holder instanceof PlaceholderViewHolder) {
+            final ViewGroup.LayoutParams layoutParams = holder.itemView.getLayoutParams();
+            if (rowHeight > 0 && layoutParams.height != rowHeight) {
+                layoutParams.height = rowHeight;
+                holder.itemView.setLayoutParams(layoutParams);
+            }
         } else if (holder instanceof WarningViewHolder) {
             final WarningViewHolder warningHolder = (WarningViewHolder) holder;
             final ListItem.WarningItem warningItem = (ListItem.WarningItem) listItem;
@@ -858,6 +972,12 @@ public class TransactionsAdapter extends ListAdapter<TransactionsAdapter.ListIte
         }
     }
 
+    public static class PlaceholderViewHolder extends RecyclerView.ViewHolder {
+        private PlaceholderViewHolder(final View itemView) {
+            super(itemView);
+        }
+    }
+
     public static class WarningViewHolder extends RecyclerView.ViewHolder {
         private final TextView message;
 
@@ -0,0 +1,234 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.ui;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import org.newbull.wallet.addressbook.AddressBookEntry;
+import org.newbull.wallet.ui.TransactionsAdapter.ListItem;
+import org.newbull.wallet.ui.TransactionsAdapter.ListItem.TransactionItem;
+import org.newbull.wallet.ui.WalletTransactionsViewModel.Direction;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Transaction.Purpose;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.utils.MonetaryFormat;
+import org.bitcoinj.wallet.Wallet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Incrementally maintained index of the transactions shown in the transaction list. Keeps a lightweight entry (txid,
+ * update time, pending flag, direction) per transaction, sorted and keyed by txid. Full {@link TransactionItem}s are
+ * only built for a window of positions around what is currently visible; all other positions are represented by
+ * {@link ListItem.PlaceholderItem}s. The list itself only extends as far as it has been scrolled to, plus a page. Items are obtained from a {@link TransactionItemCache}, so items of unchanged
+ * transactions are reused as-is and list diffing can short-cut on identity.
+ *
+ * This class is not thread-safe; all calls must be made from the same worker thread.
+ *
+ * @author agent
+ */
+public class TransactionsListIndex {
+    private final Map<Sha256Hash, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> sorted = new TreeSet<>(ENTRY_COMPARATOR);
+    private final TransactionItemCache itemCache;
+    // entries holding a full item as of the last build
+    private Set<Entry> itemEntries = new HashSet<>();
+
+    @Nullable
+    private Direction lastDirection;
+    @Nullable
+    private TransactionsAdapter.WarningType lastWarning;
+    private int lastLimit;
+    private boolean dirty = true;
+    @Nullable
+    private Wallet lastWallet;
+    @Nullable
+    private Map<String, AddressBookEntry> lastAddressBook;
+    private int lastAddressBookGeneration;
+    @Nullable
+    private MonetaryFormat lastFormat;
+    private int lastMaxConnectedPeers;
+
+    public TransactionsListIndex(final TransactionItemCache itemCache) {
+        this.itemCache = itemCache;
+    }
+
+    /**
+     * Bring the index up to date with the given transactions. This doesn't build any items yet.
+     *
+     * @param addressBookGeneration
+     *            must change whenever the address book changes
+     * @return number of transactions that were added, removed or changed
+     */
+    @WorkerThread
+    public int update(final Collection<Transaction> transactions, final Wallet wallet,
+            @Nullable final Map<String, AddressBookEntry> addressBook, final int addressBookGeneration,
+            final MonetaryFormat format, final int maxConnectedPeers) {
+        final MonetaryFormat noCodeFormat = format.noCode();
+        final long now = System.currentTimeMillis();
+        final long lastBlockSeenTimeSecs = wallet.getLastBlockSeenTimeSecs();
+        final boolean walletChanged = wallet != lastWallet;
+        final boolean invalidated = walletChanged || addressBookGeneration != lastAddressBookGeneration
+                || !noCodeFormat.equals(lastFormat);
+        lastWallet = wallet;
+        lastAddressBook = addressBook;
+        lastAddressBookGeneration = addressBookGeneration;
+        lastFormat = noCodeFormat;
+        lastMaxConnectedPeers = maxConnectedPeers;
+        int numChanges = 0;
+
+        // remove transactions that are gone
+        final Set<Sha256Hash> txIds = new HashSet<>(transactions.size());
+        for (final Transaction tx : transactions)
+            txIds.add(tx.getTxId());
+        for (final Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+            final Entry entry = i.next();
+            if (!txIds.contains(entry.txId)) {
+                sorted.remove(entry);
+                i.remove();
+                numChanges++;
+            }
+        }
+
+        // add new and update changed transactions
+        for (final Transaction tx : transactions) {
+            final Sha256Hash txId = tx.getTxId();
+            final TransactionItemCache.State state = new TransactionItemCache.State(tx, now, lastBlockSeenTimeSecs);
+            Entry entry = entries.get(txId);
+            if (entry != null && !invalidated && state.equals(entry.state))
+                continue;
+
+            if (entry == null) {
+                entry = new Entry(txId);
+                entries.put(txId, entry);
+            } else {
+                sorted.remove(entry);
+            }
+            if (entry.state == null || walletChanged)
+                entry.sent = tx.getValue(wallet).signum() < 0;
+            entry.pending = state.confidenceType == ConfidenceType.PENDING;
+            entry.time = state.updateTime;
+            entry.internal = state.purpose == Purpose.KEY_ROTATION;
+            entry.state = state;
+            entry.item = null;
+            sorted.add(entry);
+            numChanges++;
+        }
+
+        if (numChanges > 0)
+            dirty = true;
+        return numChanges;
+    }
+
+    /**
+     * Build the list of items for the given filter, up to the given number of items. Only positions within the given
+     * window get a full {@link TransactionItem}, items outside the window are released. Transactions beyond the limit
+     * aren't looked at, so the cost depends on the part of the list that has been scrolled to rather than on the
+     * size of the wallet.
+     *
+     * @return list of items, or {@code null} if nothing changed since the last call
+     */
+    @WorkerThread
+    @Nullable
+    public List<ListItem> buildListItems(final Context context, @Nullable final Direction direction,
+            @Nullable final TransactionsAdapter.WarningType warning, final int windowFrom, final int windowTo,
+            final int limit) {
+        boolean changed = dirty || direction != lastDirection || warning != lastWarning || limit != lastLimit;
+        final List<ListItem> items = new ArrayList<>(Math.min(sorted.size() + 1, limit));
+        final Set<Entry> itemEntries = new HashSet<>();
+        if (warning != null)
+            items.add(new ListItem.WarningItem(warning));
+        for (final Iterator<Entry> i = sorted.iterator(); i.hasNext() && items.size() < limit;) {
+            final Entry entry = i.next();
+            if (direction != null && (entry.internal || (direction == Direction.SENT) != entry.sent))
+                continue;
+            final int position = items.size();
+            if (position >= windowFrom && position <= windowTo) {
+                if (entry.item == null) {
+                    final Transaction tx = lastWallet.getTransaction(entry.txId);
+                    if (tx != null) {
+                        entry.item = itemCache.get(context, tx, entry.state, lastWallet, lastAddressBook,
+                                lastAddressBookGeneration, lastFormat, lastMaxConnectedPeers);
+                        changed = true;
+                    }
+                }
+            } else if (entry.item != null) {
+                entry.item = null;
+                changed = true;
+            }
+            if (entry.item != null) {
+                items.add(entry.item);
+                itemEntries.add(entry);
+            } else {
+                if (entry.placeholder == null)
+                    entry.placeholder = new ListItem.PlaceholderItem(entry.txId);
+                items.add(entry.placeholder);
+            }
+        }
+        // release items that are now beyond the limit or filtered out
+        for (final Entry entry : this.itemEntries)
+            if (!itemEntries.contains(entry))
+                entry.item = null;
+        this.itemEntries = itemEntries;
+        if (!changed)
+            return null;
+        lastDirection = direction;
+        lastWarning = warning;
+        lastLimit = limit;
+        dirty = false;
+        return items;
+    }
+
+    private static final class Entry {
+        final Sha256Hash txId;
+        boolean pending;
+        long time;
+        boolean sent;
+        boolean internal;
+        TransactionItemCache.State state;
+        @Nullable
+        TransactionItem item;
+        @Nullable
+        ListItem.PlaceholderItem placeholder;
+
+        private Entry(final Sha256Hash txId) {
+            this.txId = txId;
+        }
+    }
+
+    private static final Comparator<Entry> ENTRY_COMPARATOR = (entry1, entry2) -> {
+        if (entry1.pending != entry2.pending)
+            return entry1.pending ? -1 : 1;
+
+        if (entry1.time != entry2.time)
+            return entry1.time > entry2.time ? -1 : 1;
+
+        return entry1.txId.compareTo(entry2.txId);
+    };
+}
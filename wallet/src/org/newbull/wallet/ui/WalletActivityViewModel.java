@@ -63,6 +63,7 @@ public class WalletActivityViewModel extends AndroidViewModel implements OnFirst
 
     @Override
     public boolean onFirstPreDraw() {
+        application.getStartup().firstFrame();
         globalLayoutFinished = true;
         maybeToggleState();
         return true;
@@ -91,6 +91,10 @@ public class WalletAddressViewModel extends AndroidViewModel {
     public static class CurrentAddressLiveData extends AbstractWalletLiveData<Address> {
         public CurrentAddressLiveData(final WalletApplication application) {
             super(application);
+            application.getWalletUiSnapshotAsync(snapshot -> {
+                if (snapshot.currentReceiveAddress != null && getValue() == null)
+                    setValue(snapshot.currentReceiveAddress); // first paint, until the wallet is loaded
+            });
         }
 
         @Override
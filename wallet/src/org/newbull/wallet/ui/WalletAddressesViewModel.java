@@ -19,7 +19,6 @@ package org.newbull.wallet.ui;
 
 import android.app.Application;
 import android.graphics.Bitmap;
-import android.os.AsyncTask;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
@@ -29,6 +28,7 @@ import org.newbull.wallet.addressbook.AddressBookDatabase;
 import org.newbull.wallet.addressbook.AddressBookEntry;
 import org.newbull.wallet.data.AbstractWalletLiveData;
 import org.newbull.wallet.data.ConfigOwnNameLiveData;
+import org.newbull.wallet.data.WalletReadScheduler;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.ECKey;
 import org.bitcoinj.core.LegacyAddress;
@@ -85,7 +85,7 @@ public class WalletAddressesViewModel extends AndroidViewModel {
 
         private void loadAddresses() {
             final Wallet wallet = getWallet();
-            AsyncTask.execute(() -> {
+            WalletReadScheduler.get().schedule(WalletReadScheduler.Lane.LIST, this, () -> {
                 final List<Address> addresses = wallet.getIssuedReceiveAddresses();
                 Collections.reverse(addresses);
                 postValue(addresses);
@@ -117,7 +117,7 @@ public class WalletAddressesViewModel extends AndroidViewModel {
 
         private void loadAddresses() {
             final Wallet wallet = getWallet();
-            AsyncTask.execute(() -> {
+            WalletReadScheduler.get().schedule(WalletReadScheduler.Lane.LIST, this, () -> {
                 final List<ECKey> importedKeys = wallet.getImportedKeys();
                 Collections.reverse(importedKeys);
                 final List<Address> importedAddresses = new ArrayList<>(importedKeys.size());
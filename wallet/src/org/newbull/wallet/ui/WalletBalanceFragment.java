@@ -34,6 +34,7 @@ import org.newbull.wallet.Configuration;
 import org.newbull.wallet.Constants;
 import org.newbull.wallet.R;
 import org.newbull.wallet.WalletApplication;
+import org.newbull.wallet.WalletLoader;
 import org.newbull.wallet.exchangerate.ExchangeRateEntry;
 import org.newbull.wallet.service.BlockchainState;
 import org.newbull.wallet.ui.send.FeeCategory;
@@ -81,6 +82,7 @@ public final class WalletBalanceFragment extends Fragment {
         viewModel = new ViewModelProvider(this).get(WalletBalanceViewModel.class);
 
         application.blockchainState.observe(this, blockchainState -> updateView());
+        application.walletLoadProgress.observe(this, progress -> updateView());
         viewModel.getBalance().observe(this, balance -> {
             activity.invalidateOptionsMenu();
             updateView();
@@ -154,9 +156,16 @@ public final class WalletBalanceFragment extends Fragment {
         final Coin balance = viewModel.getBalance().getValue();
         final ExchangeRateEntry exchangeRate = viewModel.getExchangeRate().getValue();
 
+        final WalletLoader.Progress loadProgress = application.walletLoadProgress.getValue();
+
         final boolean showProgress;
 
-        if (blockchainState != null && blockchainState.bestChainDate != null) {
+        if (balance == null && loadProgress != null && loadProgress.bytesRead < loadProgress.bytesTotal) {
+            // nothing to show from the UI snapshot, so show how far loading the wallet got
+            showProgress = true;
+            viewProgress.setText(getString(R.string.wallet_balance_fragment_loading,
+                    (int) (100 * loadProgress.bytesRead / loadProgress.bytesTotal)));
+        } else if (blockchainState != null && blockchainState.bestChainDate != null) {
             final long blockchainLag = System.currentTimeMillis() - blockchainState.bestChainDate.getTime();
             final boolean blockchainUptodate = blockchainLag < BLOCKCHAIN_UPTODATE_THRESHOLD_MS;
             final boolean noImpediments = blockchainState.impediments.isEmpty();
@@ -39,13 +39,14 @@ import android.widget.ViewAnimator;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentManager;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
+import androidx.recyclerview.widget.SimpleItemAnimator;
 import org.newbull.wallet.Configuration;
 import org.newbull.wallet.Constants;
 import org.newbull.wallet.R;
 import org.newbull.wallet.WalletApplication;
-import org.newbull.wallet.addressbook.AddressBookDao;
-import org.newbull.wallet.addressbook.AddressBookDatabase;
+import org.newbull.wallet.addressbook.AddressBookLabelIndex;
 import org.newbull.wallet.ui.TransactionsAdapter.WarningType;
 import org.newbull.wallet.ui.send.RaiseFeeDialogFragment;
 import org.newbull.wallet.util.Qr;
@@ -66,7 +67,7 @@ public class WalletTransactionsFragment extends Fragment implements Transactions
     private WalletApplication application;
     private Configuration config;
     private FragmentManager fragmentManager;
-    private AddressBookDao addressBookDao;
+    private AddressBookLabelIndex addressBook;
     private DevicePolicyManager devicePolicyManager;
 
     private ViewAnimator viewGroup;
@@ -88,7 +89,7 @@ public class WalletTransactionsFragment extends Fragment implements Transactions
         this.activity = (AbstractWalletActivity) context;
         this.application = activity.getWalletApplication();
         this.config = application.getConfiguration();
-        this.addressBookDao = AddressBookDatabase.getDatabase(context).addressBookDao();
+        this.addressBook = AddressBookLabelIndex.get(context);
         this.devicePolicyManager = (DevicePolicyManager) application.getSystemService(Context.DEVICE_POLICY_SERVICE);
     }
 
@@ -174,8 +175,18 @@ public class WalletTransactionsFragment extends Fragment implements Transactions
 
         recyclerView = view.findViewById(R.id.wallet_transactions_list);
         recyclerView.setHasFixedSize(true);
+        // placeholders are swapped for their items in place, without a cross-fade
+        ((SimpleItemAnimator) recyclerView.getItemAnimator()).setSupportsChangeAnimations(false);
         recyclerView.setLayoutManager(new StickToTopLinearLayoutManager(activity));
         recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(final RecyclerView recyclerView, final int dx, final int dy) {
+                final LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                viewModel.setVisibleRange(layoutManager.findFirstVisibleItemPosition(),
+                        layoutManager.findLastVisibleItemPosition());
+            }
+        });
         recyclerView.addItemDecoration(new RecyclerView.ItemDecoration() {
             private final int PADDING = 2
                     * activity.getResources().getDimensionPixelOffset(R.dimen.card_margin_vertical);
@@ -266,7 +277,7 @@ public class WalletTransactionsFragment extends Fragment implements Transactions
                 .findItem(R.id.wallet_transactions_context_edit_address);
         if (txAddress != null) {
             editAddressMenuItem.setVisible(true);
-            final boolean isAdd = addressBookDao.resolveLabel(txAddress.toString()) == null;
+            final boolean isAdd = addressBook.resolveLabel(txAddress.toString()) == null;
             final boolean isOwn = wallet.isAddressMine(txAddress);
 
             if (isOwn)
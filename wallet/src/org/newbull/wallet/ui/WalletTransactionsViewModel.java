@@ -19,24 +19,22 @@ package org.newbull.wallet.ui;
 
 import android.app.Application;
 import android.graphics.Bitmap;
-import android.os.AsyncTask;
 import androidx.lifecycle.AndroidViewModel;
-import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.recyclerview.widget.RecyclerView;
 import org.newbull.wallet.Constants;
 import org.newbull.wallet.WalletApplication;
-import org.newbull.wallet.addressbook.AddressBookDatabase;
-import org.newbull.wallet.addressbook.AddressBookEntry;
+import org.newbull.wallet.addressbook.AddressBookLabelIndex;
 import org.newbull.wallet.data.AbstractWalletLiveData;
 import org.newbull.wallet.data.ConfigFormatLiveData;
 import org.newbull.wallet.data.WalletLiveData;
+import org.newbull.wallet.data.WalletReadScheduler;
+import org.newbull.wallet.data.WalletUiSnapshot;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
-import org.bitcoinj.core.Transaction.Purpose;
-import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
 import org.bitcoinj.core.listeners.TransactionConfidenceEventListener;
 import org.bitcoinj.utils.MonetaryFormat;
 import org.bitcoinj.utils.Threading;
@@ -45,13 +43,11 @@ import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
 import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
 import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
 import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -66,7 +62,7 @@ public class WalletTransactionsViewModel extends AndroidViewModel {
     public final TransactionsLiveData transactions;
     public final WalletLiveData wallet;
     private final TransactionsConfidenceLiveData transactionsConfidence;
-    private final LiveData<List<AddressBookEntry>> addressBook;
+    private final AddressBookLabelIndex addressBook;
     private final ConfigFormatLiveData configFormat;
     public final MutableLiveData<Direction> direction = new MutableLiveData<>();
     public final MutableLiveData<Sha256Hash> selectedTransaction = new MutableLiveData<>();
@@ -76,20 +72,45 @@ public class WalletTransactionsViewModel extends AndroidViewModel {
     public final MutableLiveData<Event<Address>> showEditAddressBookEntryDialog = new MutableLiveData<>();
     public final MutableLiveData<Event<Sha256Hash>> showReportIssueDialog = new MutableLiveData<>();
 
+    // only accessed from list reads, which never run concurrently
+    private final TransactionsListIndex listIndex = new TransactionsListIndex(
+            new TransactionItemCache(ITEM_CACHE_SIZE));
+    private static final int ITEM_CACHE_SIZE = 2048;
+
+    // window of list positions that get full items, the rest are placeholders
+    private volatile int windowFrom = 0;
+    private volatile int windowTo = 2 * WINDOW_MARGIN;
+    private static final int WINDOW_MARGIN = 50;
+
+    // the list extends by a page whenever its end comes close to being visible
+    private volatile int listLimit = PAGE_SIZE;
+    private static final int PAGE_SIZE = 200;
+
+    // makes sure the snapshot list never replaces the real one
+    private final Object listPostLock = new Object();
+    private boolean realListPosted = false;
+
+    private static final Logger log = LoggerFactory.getLogger(WalletTransactionsViewModel.class);
+
     public WalletTransactionsViewModel(final Application application) {
         super(application);
         this.application = (WalletApplication) application;
         this.transactions = new TransactionsLiveData(this.application);
         this.wallet = new WalletLiveData(this.application);
         this.transactionsConfidence = new TransactionsConfidenceLiveData(this.application);
-        this.addressBook = AddressBookDatabase.getDatabase(this.application).addressBookDao().getAll();
+        this.addressBook = AddressBookLabelIndex.get(this.application);
         this.configFormat = new ConfigFormatLiveData(this.application);
         this.list.addSource(transactions, transactions -> maybePostList());
         this.list.addSource(wallet, wallet -> maybePostList());
         this.list.addSource(transactionsConfidence, v -> maybePostList());
-        this.list.addSource(addressBook, addressBook -> maybePostList());
+        this.list.addSource(addressBook.getLiveData(), snapshot -> maybePostList());
         this.list.addSource(direction, direction -> maybePostList());
         this.list.addSource(configFormat, format -> maybePostList());
+
+        this.application.getWalletUiSnapshotAsync(snapshot -> {
+            if (!snapshot.rows.isEmpty())
+                postSnapshotList(snapshot);
+        });
     }
 
     public void setDirection(final Direction direction) {
@@ -100,48 +121,66 @@ public class WalletTransactionsViewModel extends AndroidViewModel {
         this.warning.setValue(warning);
     }
 
+    public void setVisibleRange(final int first, final int last) {
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION)
+            return;
+        boolean changed = false;
+        if ((first < windowFrom + WINDOW_MARGIN / 2 && windowFrom > 0) || last > windowTo - WINDOW_MARGIN / 2) {
+            windowFrom = Math.max(first - WINDOW_MARGIN, 0);
+            windowTo = last + WINDOW_MARGIN;
+            changed = true;
+        }
+        if (last > listLimit - WINDOW_MARGIN) {
+            listLimit += PAGE_SIZE;
+            changed = true;
+        }
+        if (changed)
+            maybePostList();
+    }
+
     private void maybePostList() {
-        AsyncTask.execute(() -> {
+        WalletReadScheduler.get().schedule(WalletReadScheduler.Lane.LIST, list, () -> {
             org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
             final Set<Transaction> transactions = WalletTransactionsViewModel.this.transactions.getValue();
             final MonetaryFormat format = configFormat.getValue();
-            final Map<String, AddressBookEntry> addressBook = AddressBookEntry
-                    .asMap(WalletTransactionsViewModel.this.addressBook.getValue());
-            if (transactions != null && format != null && addressBook != null) {
-                final List<Transaction> filteredTransactions = new ArrayList<>(transactions.size());
+            final AddressBookLabelIndex.Snapshot addressBook = WalletTransactionsViewModel.this.addressBook
+                    .getSnapshot();
+            if (transactions != null && format != null) {
                 final Wallet wallet = application.getWallet();
-                final Direction direction = WalletTransactionsViewModel.this.direction.getValue();
-                for (final Transaction tx : transactions) {
-                    final boolean sent = tx.getValue(wallet).signum() < 0;
-                    final boolean isInternal = tx.getPurpose() == Purpose.KEY_ROTATION;
-                    if ((direction == Direction.RECEIVED && !sent && !isInternal) || direction == null
-                            || (direction == Direction.SENT && sent && !isInternal))
-                        filteredTransactions.add(tx);
+                final int numChanges = listIndex.update(transactions, wallet, addressBook.entries,
+                        addressBook.generation, format, application.maxConnectedPeers());
+                final List<TransactionsAdapter.ListItem> items = listIndex.buildListItems(application,
+                        direction.getValue(), warning.getValue(), windowFrom, windowTo, listLimit);
+                if (items != null) {
+                    log.debug("{} of {} transactions changed, posting list", numChanges, transactions.size());
+                    synchronized (listPostLock) {
+                        realListPosted = true;
+                        list.postValue(items);
+                    }
                 }
-
-                Collections.sort(filteredTransactions, TRANSACTION_COMPARATOR);
-
-                list.postValue(TransactionsAdapter.buildListItems(application, filteredTransactions,
-                        warning.getValue(), wallet, addressBook, format, application.maxConnectedPeers()));
             }
         });
     }
 
-    private static final Comparator<Transaction> TRANSACTION_COMPARATOR = (tx1, tx2) -> {
-        final boolean pending1 = tx1.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-        final boolean pending2 = tx2.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-        if (pending1 != pending2)
-            return pending1 ? -1 : 1;
-
-        final Date updateTime1 = tx1.getUpdateTime();
-        final long time1 = updateTime1 != null ? updateTime1.getTime() : 0;
-        final Date updateTime2 = tx2.getUpdateTime();
-        final long time2 = updateTime2 != null ? updateTime2.getTime() : 0;
-        if (time1 != time2)
-            return time1 > time2 ? -1 : 1;
-
-        return tx1.getTxId().compareTo(tx2.getTxId());
-    };
+    /** Show the newest transactions as of the last wallet save, until the wallet is loaded. */
+    private void postSnapshotList(final WalletUiSnapshot snapshot) {
+        final MonetaryFormat format = application.getConfiguration().getFormat().noCode();
+        WalletReadScheduler.get().schedule(WalletReadScheduler.Lane.LIST, snapshot, () -> {
+            final Direction direction = this.direction.getValue();
+            final List<TransactionsAdapter.ListItem> items = new ArrayList<>(snapshot.rows.size());
+            for (final WalletUiSnapshot.Row row : snapshot.rows) {
+                if (direction != null && (row.internal || (direction == Direction.SENT) != row.sent))
+                    continue;
+                items.add(new TransactionsAdapter.ListItem.TransactionItem(application, row, format));
+            }
+            synchronized (listPostLock) {
+                if (!realListPosted) {
+                    log.debug("posting {} transactions from wallet UI snapshot", items.size());
+                    list.postValue(items);
+                }
+            }
+        });
+    }
 
     public static class TransactionsLiveData extends AbstractWalletLiveData<Set<Transaction>> {
         private static final long THROTTLE_MS = 1000;
@@ -178,7 +217,7 @@ public class WalletTransactionsViewModel extends AndroidViewModel {
         @Override
         protected void load() {
             final Wallet wallet = getWallet();
-            AsyncTask.execute(() -> {
+            WalletReadScheduler.get().schedule(WalletReadScheduler.Lane.LIST, this, () -> {
                 org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
                 postValue(wallet.getTransactions(true));
             });
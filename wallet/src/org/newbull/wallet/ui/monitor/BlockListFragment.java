@@ -29,6 +29,7 @@ import android.view.ViewGroup;
 import android.widget.ViewAnimator;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import org.newbull.wallet.Configuration;
 import org.newbull.wallet.Constants;
@@ -112,6 +113,13 @@ public final class BlockListFragment extends Fragment implements BlockListAdapte
         recyclerView.setHasFixedSize(true);
         recyclerView.setLayoutManager(new StickToTopLinearLayoutManager(activity));
         recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(final RecyclerView recyclerView, final int dx, final int dy) {
+                final LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                viewModel.setLastVisiblePosition(layoutManager.findLastVisibleItemPosition());
+            }
+        });
         return view;
     }
 
@@ -18,7 +18,6 @@
 package org.newbull.wallet.ui.monitor;
 
 import android.app.Application;
-import android.os.AsyncTask;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
@@ -29,6 +28,7 @@ import org.newbull.wallet.addressbook.AddressBookEntry;
 import org.newbull.wallet.data.AbstractWalletLiveData;
 import org.newbull.wallet.data.BlockchainServiceLiveData;
 import org.newbull.wallet.data.TimeLiveData;
+import org.newbull.wallet.data.WalletReadScheduler;
 import org.newbull.wallet.service.BlockchainService;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.StoredBlock;
@@ -51,7 +51,10 @@ public class BlockListViewModel extends AndroidViewModel {
     public final LiveData<List<AddressBookEntry>> addressBook;
     private TimeLiveData time;
 
-    private static final int MAX_BLOCKS = 100;
+    private int numBlocks = PAGE_BLOCKS;
+
+    private static final int PAGE_BLOCKS = 100;
+    private static final int MAX_BLOCKS = 1000;
 
     public BlockListViewModel(final Application application) {
         super(application);
@@ -66,7 +69,19 @@ public class BlockListViewModel extends AndroidViewModel {
     private void maybeRefreshBlocks() {
         final BlockchainService blockchainService = this.blockchainService.getValue();
         if (blockchainService != null)
-            this.blocks.setValue(blockchainService.getRecentBlocks(MAX_BLOCKS));
+            this.blocks.setValue(blockchainService.getRecentBlocks(numBlocks));
+    }
+
+    /**
+     * Show another page of older blocks once the last block is visible, unless the block store doesn't reach back any
+     * further.
+     */
+    public void setLastVisiblePosition(final int position) {
+        final List<StoredBlock> blocks = this.blocks.getValue();
+        if (blocks == null || blocks.size() < numBlocks || position < numBlocks - 1 || numBlocks >= MAX_BLOCKS)
+            return;
+        numBlocks = Math.min(numBlocks + PAGE_BLOCKS, MAX_BLOCKS);
+        maybeRefreshBlocks();
     }
 
     public TransactionsLiveData getTransactions() {
@@ -95,7 +110,7 @@ public class BlockListViewModel extends AndroidViewModel {
             final Wallet wallet = getWallet();
             if (wallet == null)
                 return;
-            AsyncTask.execute(() -> {
+            WalletReadScheduler.get().schedule(WalletReadScheduler.Lane.MONITOR, this, () -> {
                 org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
                 final Set<Transaction> transactions = wallet.getTransactions(false);
                 final Set<Transaction> filteredTransactions = new HashSet<>(transactions.size());
@@ -19,6 +19,7 @@ package org.newbull.wallet.ui.monitor;
 
 import android.content.Context;
 import android.graphics.drawable.Drawable;
+import android.text.format.Formatter;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -53,7 +54,7 @@ import java.util.Objects;
  */
 public class PeerListAdapter extends ListAdapter<PeerListAdapter.ListItem, PeerListAdapter.ViewHolder> {
     public static List<ListItem> buildListItems(final Context context, final List<Peer> peers,
-            final Map<InetAddress, String> hostnames) {
+            final Map<InetAddress, String> hostnames, @Nullable final Map<String, Double> peerBytesPerSec) {
         final List<ListItem> items = new ArrayList<>(peers.size());
         for (final Peer peer : peers) {
             final PeerAddress peerAddress = peer.getAddress();
@@ -74,8 +75,12 @@ public class PeerListAdapter extends ListAdapter<PeerListAdapter.ListItem, PeerL
             final String protocol = "protocol: " + versionMessage.clientVersion;
             final String services = peer.toStringServices(versionMessage.localServices).toLowerCase(Locale.US);
             final long pingTime = peer.getPingTime();
-            final String ping = pingTime < Long.MAX_VALUE ?
+            final Double bytesPerSec = peerBytesPerSec != null ? peerBytesPerSec.get(hostAndPort.toString()) : null;
+            final String rate = bytesPerSec != null ? context.getString(R.string.peer_list_row_rate,
+                    Formatter.formatShortFileSize(context, Math.round(bytesPerSec))) : null;
+            final String pingTimeStr = pingTime < Long.MAX_VALUE ?
                     context.getString(R.string.peer_list_row_ping_time, pingTime) : null;
+            final String ping = rate != null ? (pingTimeStr != null ? rate + "  " + pingTimeStr : rate) : pingTimeStr;
             final Drawable icon;
             if (peer.isDownloadData()) {
                 icon = context.getDrawable(R.drawable.ic_sync_white_24dp);
@@ -18,20 +18,38 @@
 package org.newbull.wallet.ui.monitor;
 
 import android.content.Context;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.text.format.Formatter;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.TextView;
 import android.widget.ViewAnimator;
+import androidx.core.app.ShareCompat;
+import androidx.core.content.FileProvider;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.common.net.HostAndPort;
 import org.newbull.wallet.R;
+import org.newbull.wallet.service.SyncMetrics;
 import org.newbull.wallet.ui.AbstractWalletActivity;
 import org.bitcoinj.core.Peer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /**
@@ -40,6 +58,7 @@ import java.util.List;
 public final class PeerListFragment extends Fragment implements PeerListAdapter.OnClickListener {
     private AbstractWalletActivity activity;
 
+    private TextView syncMetricsView;
     private ViewAnimator viewGroup;
     private RecyclerView recyclerView;
     private PeerListAdapter adapter;
@@ -47,6 +66,10 @@ public final class PeerListFragment extends Fragment implements PeerListAdapter.
     private NetworkMonitorViewModel activityViewModel;
     private PeerListViewModel viewModel;
 
+    private final Handler handler = new Handler();
+
+    private static final Logger log = LoggerFactory.getLogger(PeerListFragment.class);
+
     @Override
     public void onAttach(final Context context) {
         super.onAttach(context);
@@ -77,14 +100,28 @@ public final class PeerListFragment extends Fragment implements PeerListAdapter.
                     viewModel.getHostnames().reverseLookup(peer.getAddress().getAddr());
         });
         viewModel.getHostnames().observe(this, hostnames -> maybeSubmitList());
+        viewModel.getSyncMetrics().observe(this, sample -> {
+            if (sample != null) {
+                syncMetricsView.setText(getString(R.string.peer_list_sync_metrics, sample.blocksPerSec,
+                        Formatter.formatShortFileSize(activity, Math.round(sample.bytesPerSec)), sample.blocksLeft,
+                        sample.filteredBlocks, sample.fullBlocks, sample.processingMs, sample.networkMs,
+                        sample.stalls));
+                syncMetricsView.setVisibility(View.VISIBLE);
+            } else {
+                syncMetricsView.setVisibility(View.GONE);
+            }
+            maybeSubmitList();
+        });
 
         adapter = new PeerListAdapter(activity, this);
+        setHasOptionsMenu(true);
     }
 
     @Override
     public View onCreateView(final LayoutInflater inflater, final ViewGroup container,
             final Bundle savedInstanceState) {
         final View view = inflater.inflate(R.layout.peer_list_fragment, container, false);
+        syncMetricsView = view.findViewById(R.id.peer_list_sync_metrics);
         viewGroup = view.findViewById(R.id.peer_list_group);
         recyclerView = view.findViewById(R.id.peer_list);
         recyclerView.setHasFixedSize(true);
@@ -95,8 +132,55 @@ public final class PeerListFragment extends Fragment implements PeerListAdapter.
 
     private void maybeSubmitList() {
         final List<Peer> peers = viewModel.peers.getValue();
+        final SyncMetrics.Sample syncMetrics = viewModel.getSyncMetrics().getValue();
         if (peers != null)
-            adapter.submitList(PeerListAdapter.buildListItems(activity, peers, viewModel.getHostnames().getValue()));
+            adapter.submitList(PeerListAdapter.buildListItems(activity, peers, viewModel.getHostnames().getValue(),
+                    syncMetrics != null ? syncMetrics.peerBytesPerSec : null));
+    }
+
+    @Override
+    public void onCreateOptionsMenu(final Menu menu, final MenuInflater inflater) {
+        inflater.inflate(R.menu.peer_list_fragment_options, menu);
+        super.onCreateOptionsMenu(menu, inflater);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(final MenuItem item) {
+        if (item.getItemId() == R.id.peer_list_options_export_sync_metrics) {
+            handleExportSyncMetrics();
+            return true;
+        } else {
+            return super.onOptionsItemSelected(item);
+        }
+    }
+
+    private void handleExportSyncMetrics() {
+        final SyncMetrics syncMetrics = viewModel.getSyncMetricsSource();
+        if (syncMetrics == null)
+            return;
+        final File reportDir = new File(activity.getCacheDir(), "report");
+        AsyncTask.execute(() -> {
+            try {
+                reportDir.mkdir();
+                final File file = File.createTempFile("sync-metrics.", ".csv", reportDir);
+                try (final Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                        StandardCharsets.UTF_8)) {
+                    syncMetrics.writeCsv(writer);
+                }
+                file.deleteOnExit();
+                handler.post(() -> {
+                    final ShareCompat.IntentBuilder builder = ShareCompat.IntentBuilder.from(activity);
+                    builder.addStream(FileProvider.getUriForFile(activity,
+                            activity.getPackageName() + ".file_attachment", file));
+                    builder.setType("text/csv");
+                    builder.setChooserTitle(R.string.peer_list_export_sync_metrics_chooser);
+                    builder.startChooser();
+                    log.info("invoked chooser for exporting sync metrics");
+                });
+            } catch (final IOException x) {
+                log.info("problem exporting sync metrics", x);
+            }
+        });
     }
 
     @Override
@@ -20,12 +20,15 @@ package org.newbull.wallet.ui.monitor;
 import android.app.Application;
 import android.os.AsyncTask;
 import android.os.Handler;
+import android.text.format.DateUtils;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
 import org.newbull.wallet.WalletApplication;
 import org.newbull.wallet.data.BlockchainServiceLiveData;
 import org.newbull.wallet.service.BlockchainService;
+import org.newbull.wallet.service.SyncMetrics;
 import org.bitcoinj.core.Peer;
 
 import java.net.InetAddress;
@@ -41,6 +44,7 @@ public class PeerListViewModel extends AndroidViewModel {
     private final BlockchainServiceLiveData blockchainService;
     public final MediatorLiveData<List<Peer>> peers;
     private HostnamesLiveData hostnames;
+    private SyncMetricsLiveData syncMetrics;
 
     public PeerListViewModel(final Application application) {
         super(application);
@@ -63,6 +67,52 @@ public class PeerListViewModel extends AndroidViewModel {
         return hostnames;
     }
 
+    public SyncMetricsLiveData getSyncMetrics() {
+        if (syncMetrics == null)
+            syncMetrics = new SyncMetricsLiveData(blockchainService);
+        return syncMetrics;
+    }
+
+    @Nullable
+    public SyncMetrics getSyncMetricsSource() {
+        final BlockchainService blockchainService = this.blockchainService.getValue();
+        return blockchainService != null ? blockchainService.getSyncMetrics() : null;
+    }
+
+    public static class SyncMetricsLiveData extends MediatorLiveData<SyncMetrics.Sample> implements Runnable {
+        private final LiveData<BlockchainService> blockchainService;
+        private final Handler handler = new Handler();
+
+        private static final long REFRESH_MS = DateUtils.SECOND_IN_MILLIS;
+
+        public SyncMetricsLiveData(final LiveData<BlockchainService> blockchainService) {
+            this.blockchainService = blockchainService;
+            addSource(blockchainService, service -> run());
+        }
+
+        @Override
+        protected void onActive() {
+            super.onActive();
+            handler.postDelayed(this, REFRESH_MS);
+        }
+
+        @Override
+        protected void onInactive() {
+            super.onInactive();
+            handler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run() {
+            final BlockchainService blockchainService = this.blockchainService.getValue();
+            if (blockchainService != null)
+                setValue(blockchainService.getSyncMetrics().getLatest());
+            handler.removeCallbacks(this);
+            if (hasActiveObservers())
+                handler.postDelayed(this, REFRESH_MS);
+        }
+    }
+
     public static class HostnamesLiveData extends LiveData<Map<InetAddress, String>> {
         private final Handler handler = new Handler();
 
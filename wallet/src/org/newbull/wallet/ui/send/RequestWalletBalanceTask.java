@@ -17,24 +17,19 @@
 
 package org.newbull.wallet.ui.send;
 
-import android.content.res.AssetManager;
 import android.os.Handler;
 import android.os.Looper;
-import androidx.annotation.Nullable;
-import com.google.common.base.Splitter;
-import com.google.common.base.Strings;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
-import com.google.common.hash.Hashing;
-import com.squareup.moshi.JsonAdapter;
-import com.squareup.moshi.JsonDataException;
-import com.squareup.moshi.Moshi;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.newbull.wallet.Constants;
 import org.newbull.wallet.R;
-import org.newbull.wallet.util.Assets;
-import okio.BufferedSink;
-import okio.BufferedSource;
-import okio.Okio;
+import org.newbull.wallet.WalletApplication;
+import org.newbull.wallet.electrum.ElectrumClient;
+import org.newbull.wallet.electrum.ElectrumServer;
+import org.newbull.wallet.electrum.ElectrumServerRegistry;
+import org.newbull.wallet.electrum.Quorum;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.ECKey;
@@ -44,42 +39,17 @@ import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.UTXO;
 import org.bitcoinj.script.Script;
 import org.bitcoinj.script.ScriptBuilder;
-import org.bitcoinj.utils.ContextPropagatingThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.net.SocketFactory;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLPeerUnverifiedException;
-import javax.net.ssl.SSLSession;
-import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.ConnectException;
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -90,6 +60,11 @@ public final class RequestWalletBalanceTask {
     private final Handler callbackHandler;
     private final ResultCallback resultCallback;
 
+    private static final long HEDGE_DELAY_MS = 2000;
+    private static final int NUM_SPARE_SERVERS = 4;
+    private static final int NUM_HEDGE_SERVERS = 2;
+    private static final long TIMEOUT_MS = 10000;
+
     private static final Logger log = LoggerFactory.getLogger(RequestWalletBalanceTask.class);
 
     public interface ResultCallback {
@@ -104,43 +79,7 @@ public final class RequestWalletBalanceTask {
         this.resultCallback = resultCallback;
     }
 
-    public static class JsonRpcRequest {
-        public final int id;
-        public final String method;
-        public final String[] params;
-
-        private static transient int idCounter = 0;
-
-        public JsonRpcRequest(final String method, final String[] params) {
-            this(idCounter++, method, params);
-        }
-
-        public JsonRpcRequest(final int id, final String method, final String[] params) {
-            this.id = id;
-            this.method = method;
-            this.params = params;
-        }
-    }
-
-    public static class JsonRpcResponse {
-        public int id;
-        public Utxo[] result;
-        public Error error;
-
-        public static class Utxo {
-            public String tx_hash;
-            public int tx_pos;
-            public long value;
-            public int height;
-        }
-
-        public static class Error {
-            public int code;
-            public String message;
-        }
-    }
-
-    public void requestWalletBalance(final AssetManager assets, final ECKey key) {
+    public void requestWalletBalance(final WalletApplication application, final ECKey key) {
         backgroundHandler.post(new Runnable() {
             @Override
             public void run() {
@@ -159,103 +98,61 @@ public final class RequestWalletBalanceTask {
                     addressesStr = legacyAddress.toString();
                 }
 
-                final List<ElectrumServer> servers = loadElectrumServers(
-                        Assets.open(assets, Constants.Files.ELECTRUM_SERVERS_ASSET));
-                final List<Callable<Set<UTXO>>> tasks = new ArrayList<>(servers.size());
-                for (final ElectrumServer server : servers) {
-                    tasks.add(() -> {
-                        log.info("{} - trying to request wallet balance for {}", server.socketAddress,
-                                addressesStr);
-                        try (final Socket socket = connect(server)) {
-                            final BufferedSink sink = Okio.buffer(Okio.sink(socket));
-                            sink.timeout().timeout(5000, TimeUnit.MILLISECONDS);
-                            final BufferedSource source = Okio.buffer(Okio.source(socket));
-                            source.timeout().timeout(5000, TimeUnit.MILLISECONDS);
-                            final Moshi moshi = new Moshi.Builder().build();
-                            final JsonAdapter<JsonRpcRequest> requestAdapter = moshi.adapter(JsonRpcRequest.class);
-                            for (final Script outputScript : outputScripts) {
-                                requestAdapter.toJson(sink, new JsonRpcRequest(
-                                        outputScript.getScriptType().ordinal(), "blockchain.scripthash.listunspent",
-                                        new String[] { Constants.HEX.encode(
-                                                Sha256Hash.of(outputScript.getProgram()).getReversedBytes()) }));
-                                sink.writeUtf8("\n").flush();
-                            }
-                            final JsonAdapter<JsonRpcResponse> responseAdapter = moshi
-                                    .adapter(JsonRpcResponse.class);
-                            final Set<UTXO> utxos = new HashSet<>();
-                            for (final Script outputScript : outputScripts) {
-                                final JsonRpcResponse response = responseAdapter.fromJson(source);
-                                final int expectedResponseId = outputScript.getScriptType().ordinal();
-                                if (response.id != expectedResponseId) {
-                                    log.warn("{} - id mismatch response:{} vs request:{}", server.socketAddress,
-                                            response.id, expectedResponseId);
-                                    return null;
-                                }
-                                if (response.error != null) {
-                                    log.info("{} - server error {}: {}", server.socketAddress, response.error.code,
-                                            response.error.message);
-                                    return null;
-                                }
-                                if (response.result == null) {
-                                    log.info("{} - missing result", server.socketAddress);
-                                    return null;
-                                }
-                                for (final JsonRpcResponse.Utxo responseUtxo : response.result) {
-                                    final Sha256Hash utxoHash = Sha256Hash.wrap(responseUtxo.tx_hash);
-                                    final int utxoIndex = responseUtxo.tx_pos;
-                                    final Coin utxoValue = Coin.valueOf(responseUtxo.value);
-                                    final UTXO utxo = new UTXO(utxoHash, utxoIndex, utxoValue, responseUtxo.height,
-                                            false, outputScript);
-                                    utxos.add(utxo);
-                                }
-                            }
-                            log.info("{} - got {} UTXOs {}", server.socketAddress, utxos.size(), utxos);
-                            return utxos;
-                        } catch (final ConnectException | SSLPeerUnverifiedException | JsonDataException x) {
-                            log.warn("{} - {}", server.socketAddress, x.getMessage());
-                            return null;
-                        } catch (final IOException x) {
-                            log.info(server.socketAddress.toString(), x);
-                            return null;
-                        } catch (final RuntimeException x) {
-                            log.error(server.socketAddress.toString(), x);
-                            throw x;
-                        }
-                    });
-                }
+                final ElectrumServerRegistry registry = application.getElectrumServerRegistry();
+                final List<ElectrumServer> servers = registry.getServers();
+                final List<String> scriptHashes = new ArrayList<>(outputScripts.length);
+                for (final Script outputScript : outputScripts)
+                    scriptHashes.add(
+                            Constants.HEX.encode(Sha256Hash.of(outputScript.getProgram()).getReversedBytes()));
 
-                final ExecutorService threadPool = Executors.newFixedThreadPool(servers.size(),
-                        new ContextPropagatingThreadFactory("request"));
-                final List<Future<Set<UTXO>>> futures;
+                final ElectrumClient client = ElectrumClient.get();
+                final int trustThreshold = servers.size() / 2;
+                final int quorumThreshold = Math.max(trustThreshold, 1);
+                // best servers first; the quorum asks the spares only when needed
+                final List<ElectrumServer> bestServers = registry.getBest(quorumThreshold + NUM_SPARE_SERVERS,
+                        System.currentTimeMillis());
+                final Quorum<Set<UTXO>> quorum = new Quorum<>(bestServers, quorumThreshold,
+                        server -> {
+                            log.info("{} - trying to request wallet balance for {}", server, addressesStr);
+                            return Futures.transform(client.listUnspent(server, scriptHashes),
+                                    response -> toUtxos(response, outputScripts), MoreExecutors.directExecutor());
+                        }, client.getScheduler());
+                final Quorum.Result<Set<UTXO>> result;
                 try {
-                    futures = threadPool.invokeAll(tasks, 10, TimeUnit.SECONDS);
-                } catch (final InterruptedException x) {
+                    result = quorum.start(HEDGE_DELAY_MS, NUM_HEDGE_SERVERS, TIMEOUT_MS,
+                            TimeUnit.MILLISECONDS).get();
+                } catch (final InterruptedException | ExecutionException x) {
                     throw new RuntimeException(x);
-                } finally {
-                    threadPool.shutdown();
                 }
-
-                final Multiset<UTXO> countedUtxos = HashMultiset.create();
-                int numSuccess = 0, numFail = 0, numTimeOuts = 0;
-                for (Future<Set<UTXO>> future : futures) {
-                    if (!future.isCancelled()) {
-                        try {
-                            final Set<UTXO> utxos = future.get();
-                            if (utxos != null) {
-                                countedUtxos.addAll(utxos);
-                                numSuccess++;
-                            } else {
-                                numFail++;
-                            }
-                        } catch (InterruptedException | ExecutionException x) {
-                            throw new RuntimeException(x);
-                        }
-                    } else {
-                        numTimeOuts++;
-                    }
+                final Map<ElectrumServer, Long> handshakesMs = new HashMap<>();
+                for (final ElectrumServer server : bestServers) {
+                    final long handshakeMs = client.getHandshakeMs(server);
+                    if (handshakeMs > 0)
+                        handshakesMs.put(server, handshakeMs);
+                }
+                registry.record(result, handshakesMs, System.currentTimeMillis());
+                registry.saveLater(client.getScheduler());
+                for (final Map.Entry<ElectrumServer, Set<UTXO>> entry : result.answers.entrySet())
+                    log.info("{} - got {} UTXOs {}", entry.getKey(), entry.getValue().size(), entry.getValue());
+
+                final int numSuccess = result.answers.size();
+                final int numFail = result.count(Quorum.Outcome.FAILED);
+                final int numTimeOuts = result.count(Quorum.Outcome.TIMED_OUT);
+                if (result.agreed != null) {
+                    log.info("{} servers agreed on {} UTXOs, {} fails, {} time-outs, {} servers unneeded",
+                            result.count(Quorum.Outcome.AGREED), result.agreed.size(), numFail, numTimeOuts,
+                            result.count(Quorum.Outcome.UNNEEDED) + result.count(Quorum.Outcome.NOT_ASKED));
+                    if (result.agreed.isEmpty())
+                        onFail(R.string.sweep_wallet_fragment_request_wallet_balance_empty);
+                    else
+                        onResult(result.agreed);
+                    return;
                 }
 
-                final int trustThreshold = servers.size() / 2;
+                // no agreement on the whole set, so fall back to counting single UTXOs
+                final Multiset<UTXO> countedUtxos = HashMultiset.create();
+                for (final Set<UTXO> answer : result.answers.values())
+                    countedUtxos.addAll(answer);
                 for (final Iterator<Multiset.Entry<UTXO>> i = countedUtxos.entrySet().iterator(); i.hasNext();) {
                     final Multiset.Entry<UTXO> entry = i.next();
                     if (entry.getCount() < trustThreshold)
@@ -272,36 +169,22 @@ public final class RequestWalletBalanceTask {
                 else
                     onResult(utxos);
             }
+        });
+    }
 
-            private Socket connect(final ElectrumServer server) throws IOException {
-                final Socket socket;
-                if (server.type == ElectrumServer.Type.TLS) {
-                    final SocketFactory sf = sslTrustAllCertificates();
-                    socket = sf.createSocket(server.socketAddress.getHostName(), server.socketAddress.getPort());
-                    final SSLSession sslSession = ((SSLSocket) socket).getSession();
-                    final Certificate certificate = sslSession.getPeerCertificates()[0];
-                    final String certificateFingerprint = sslCertificateFingerprint(certificate);
-                    if (server.certificateFingerprint == null) {
-                        // signed by CA
-                        if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(server.socketAddress.getHostName(),
-                                sslSession))
-                            throw new SSLPeerUnverifiedException("Expected " + server.socketAddress.getHostName()
-                                    + ", got " + sslSession.getPeerPrincipal());
-                    } else {
-                        // self-signed
-                        if (!certificateFingerprint.equals(server.certificateFingerprint))
-                            throw new SSLPeerUnverifiedException("Expected " + server.certificateFingerprint + " for "
-                                    + server.socketAddress.getHostName() + ", got " + certificateFingerprint);
-                    }
-                } else if (server.type == ElectrumServer.Type.TCP) {
-                    socket = new Socket();
-                    socket.connect(server.socketAddress, 5000);
-                } else {
-                    throw new IllegalStateException("Cannot handle: " + server.type);
-                }
-                return socket;
+    private static Set<UTXO> toUtxos(final List<ElectrumClient.Utxo[]> result, final Script[] outputScripts) {
+        final Set<UTXO> utxos = new HashSet<>();
+        for (int iScript = 0; iScript < outputScripts.length; iScript++) {
+            for (final ElectrumClient.Utxo responseUtxo : result.get(iScript)) {
+                final Sha256Hash utxoHash = Sha256Hash.wrap(responseUtxo.tx_hash);
+                final int utxoIndex = responseUtxo.tx_pos;
+                final Coin utxoValue = Coin.valueOf(responseUtxo.value);
+                final UTXO utxo = new UTXO(utxoHash, utxoIndex, utxoValue, responseUtxo.height, false,
+                        outputScripts[iScript]);
+                utxos.add(utxo);
             }
-        });
+        }
+        return utxos;
     }
 
     protected void onResult(final Set<UTXO> utxos) {
@@ -311,93 +194,4 @@ public final class RequestWalletBalanceTask {
     protected void onFail(final int messageResId, final Object... messageArgs) {
         callbackHandler.post(() -> resultCallback.onFail(messageResId, messageArgs));
     }
-
-    public static class ElectrumServer {
-        public enum Type {
-            TCP, TLS
-        }
-
-        public final InetSocketAddress socketAddress;
-        public final Type type;
-        @Nullable
-        public final String certificateFingerprint;
-
-        public ElectrumServer(final String type, final String host, final @Nullable String port,
-                final @Nullable String certificateFingerprint) {
-            this.type = Type.valueOf(type.toUpperCase());
-            if (port != null)
-                this.socketAddress = InetSocketAddress.createUnresolved(host, Integer.parseInt(port));
-            else if ("tcp".equalsIgnoreCase(type))
-                this.socketAddress = InetSocketAddress.createUnresolved(host,
-                        Constants.ELECTRUM_SERVER_DEFAULT_PORT_TCP);
-            else if ("tls".equalsIgnoreCase(type))
-                this.socketAddress = InetSocketAddress.createUnresolved(host,
-                        Constants.ELECTRUM_SERVER_DEFAULT_PORT_TLS);
-            else
-                throw new IllegalStateException("Cannot handle: " + type);
-            this.certificateFingerprint = certificateFingerprint != null ?
-                    certificateFingerprint.toLowerCase(Locale.US) : null;
-        }
-    }
-
-    private static List<ElectrumServer> loadElectrumServers(final InputStream is) {
-        final Splitter splitter = Splitter.on(':').trimResults();
-        final List<ElectrumServer> servers = new LinkedList<>();
-        String line = null;
-        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-            while (true) {
-                line = reader.readLine();
-                if (line == null)
-                    break;
-                line = line.trim();
-                if (line.length() == 0 || line.charAt(0) == '#')
-                    continue;
-
-                final Iterator<String> i = splitter.split(line).iterator();
-                final String type = i.next();
-                final String host = i.next();
-                final String port = i.hasNext() ? Strings.emptyToNull(i.next()) : null;
-                final String fingerprint = i.hasNext() ? Strings.emptyToNull(i.next()) : null;
-                servers.add(new ElectrumServer(type, host, port, fingerprint));
-            }
-        } catch (final Exception x) {
-            throw new RuntimeException("Error while parsing: '" + line + "'", x);
-        }
-        return servers;
-    }
-
-    private SSLSocketFactory sslTrustAllCertificates() {
-        try {
-            final SSLContext context = SSLContext.getInstance("SSL");
-            context.init(null, new TrustManager[] { TRUST_ALL_CERTIFICATES }, null);
-            return context.getSocketFactory();
-        } catch (final Exception x) {
-            throw new RuntimeException(x);
-        }
-    }
-
-    private static final X509TrustManager TRUST_ALL_CERTIFICATES = new X509TrustManager() {
-        @Override
-        public void checkClientTrusted(final X509Certificate[] chain, final String authType)
-                throws CertificateException {
-        }
-
-        @Override
-        public void checkServerTrusted(final X509Certificate[] chain, final String authType)
-                throws CertificateException {
-        }
-
-        @Override
-        public X509Certificate[] getAcceptedIssuers() {
-            return new X509Certificate[0];
-        }
-    };
-
-    private String sslCertificateFingerprint(final Certificate certificate) {
-        try {
-            return Hashing.sha256().newHasher().putBytes(certificate.getEncoded()).hash().toString();
-        } catch (final Exception x) {
-            throw new RuntimeException(x);
-        }
-    }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.ui.send;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.MainThread;
+import androidx.lifecycle.MutableLiveData;
+import com.google.common.base.Stopwatch;
+import org.newbull.wallet.data.PaymentIntent;
+import org.newbull.wallet.data.WalletReadScheduler;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.wallet.SendRequest;
+import org.bitcoinj.wallet.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Completes unsigned transactions for the send screen in the background, to show the fee and to tell whether the
+ * amount can be sent. Requests are debounced, so typing an amount doesn't start a run per key press. A run that has
+ * been superseded by a newer request is skipped if it hasn't started yet, and its result is dropped if it has.
+ *
+ * <p>
+ * Results are published on the main thread. While a run is outstanding, both the transaction and the exception are
+ * {@code null}, so a result for an outdated amount can never be used.
+ *
+ * @author agent
+ */
+final class SendCoinsDryrun {
+    private final MutableLiveData<Transaction> transaction;
+    private final MutableLiveData<Exception> exception;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger generation = new AtomicInteger();
+    // only used by runs, which never run concurrently
+    private final SnapshotCoinSelector coinSelector = new SnapshotCoinSelector();
+    private Runnable pending = null;
+
+    private static final long DEBOUNCE_MS = 150;
+
+    private static final Logger log = LoggerFactory.getLogger(SendCoinsDryrun.class);
+
+    public SendCoinsDryrun(final MutableLiveData<Transaction> transaction, final MutableLiveData<Exception> exception) {
+        this.transaction = transaction;
+        this.exception = exception;
+    }
+
+    /**
+     * Request a run, replacing any outstanding one.
+     *
+     * @param emptyWallet
+     *            whether all available coins are to be sent
+     */
+    @MainThread
+    public void request(final Wallet wallet, final PaymentIntent paymentIntent, final Coin amount,
+            final boolean emptyWallet, final Coin feePerKb) {
+        final int generation = invalidate();
+        pending = () -> WalletReadScheduler.get().schedule(WalletReadScheduler.Lane.SEND, this,
+                () -> execute(generation, wallet, paymentIntent, amount, emptyWallet, feePerKb));
+        handler.postDelayed(pending, DEBOUNCE_MS);
+    }
+
+    /** Cancel any outstanding run and clear the result. */
+    @MainThread
+    public void cancel() {
+        invalidate();
+    }
+
+    private int invalidate() {
+        if (pending != null) {
+            handler.removeCallbacks(pending);
+            pending = null;
+        }
+        if (transaction.getValue() != null)
+            transaction.setValue(null);
+        if (exception.getValue() != null)
+            exception.setValue(null);
+        return generation.incrementAndGet();
+    }
+
+    private void execute(final int generation, final Wallet wallet, final PaymentIntent paymentIntent,
+            final Coin amount, final boolean emptyWallet, final Coin feePerKb) {
+        if (generation != this.generation.get())
+            return; // superseded while waiting
+
+        final Stopwatch watch = Stopwatch.createStarted();
+        Transaction tx = null;
+        Exception x = null;
+        try {
+            final Address dummy = wallet.currentReceiveAddress(); // won't be used, tx is never committed
+            final SendRequest sendRequest = paymentIntent.mergeWithEditedValues(amount, dummy).toSendRequest();
+            sendRequest.signInputs = false;
+            sendRequest.emptyWallet = emptyWallet;
+            sendRequest.feePerKb = feePerKb;
+            sendRequest.coinSelector = coinSelector.prepare(wallet);
+            wallet.completeTx(sendRequest);
+            tx = sendRequest.tx;
+        } catch (final Exception e) {
+            x = e;
+        }
+        watch.stop();
+        log.debug("dry run for {} took {}", amount.toFriendlyString(), watch);
+
+        final Transaction finalTx = tx;
+        final Exception finalX = x;
+        handler.post(() -> {
+            if (generation != this.generation.get())
+                return; // superseded while running
+            exception.setValue(finalX);
+            transaction.setValue(finalTx);
+        });
+    }
+}
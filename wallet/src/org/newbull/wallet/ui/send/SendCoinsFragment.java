@@ -56,13 +56,14 @@ import androidx.fragment.app.FragmentManager;
 import androidx.lifecycle.ViewModelProvider;
 import com.google.common.base.Joiner;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.newbull.wallet.Configuration;
 import org.newbull.wallet.Constants;
 import org.newbull.wallet.R;
 import org.newbull.wallet.WalletApplication;
-import org.newbull.wallet.addressbook.AddressBookDao;
-import org.newbull.wallet.addressbook.AddressBookDatabase;
+import org.newbull.wallet.addressbook.AddressBookAutocomplete;
 import org.newbull.wallet.addressbook.AddressBookEntry;
+import org.newbull.wallet.addressbook.AddressBookLabelIndex;
 import org.newbull.wallet.data.PaymentIntent;
 import org.newbull.wallet.data.PaymentIntent.Standard;
 import org.newbull.wallet.integration.android.NewBullIntegration;
@@ -112,6 +113,9 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * @author Andreas Schildbach
@@ -120,7 +124,9 @@ public final class SendCoinsFragment extends Fragment {
     private AbstractWalletActivity activity;
     private WalletApplication application;
     private Configuration config;
-    private AddressBookDao addressBookDao;
+    private AddressBookLabelIndex addressBookIndex;
+    private ScheduledExecutorService autocompleteScheduler;
+    private AddressBookAutocomplete autocomplete;
     private ContentResolver contentResolver;
     private FragmentManager fragmentManager;
     @Nullable
@@ -156,6 +162,9 @@ public final class SendCoinsFragment extends Fragment {
     private static final int REQUEST_CODE_ENABLE_BLUETOOTH_FOR_PAYMENT_REQUEST = 1;
     private static final int REQUEST_CODE_ENABLE_BLUETOOTH_FOR_DIRECT_PAYMENT = 2;
 
+    private static final int MAX_AUTOCOMPLETE_ENTRIES = 50;
+    private static final long AUTOCOMPLETE_DEBOUNCE_MS = 150;
+
     private AbstractWalletActivityViewModel walletActivityViewModel;
     private SendCoinsViewModel viewModel;
 
@@ -208,7 +217,7 @@ public final class SendCoinsFragment extends Fragment {
         @Override
         public void changed() {
             updateView();
-            handler.post(dryrunRunnable);
+            postDryrun();
         }
 
         @Override
@@ -253,32 +262,56 @@ public final class SendCoinsFragment extends Fragment {
 
         @Override
         public Filter getFilter() {
-            return new Filter() {
-                @Override
-                protected FilterResults performFiltering(final CharSequence constraint) {
-                    final String trimmedConstraint = constraint.toString().trim();
-                    final FilterResults results = new FilterResults();
-                    if (viewModel.validatedAddress == null && !trimmedConstraint.isEmpty()) {
-                        final List<AddressBookEntry> entries = addressBookDao.get(trimmedConstraint);
-                        results.values = entries;
-                        results.count = entries.size();
-                    } else {
-                        results.values = Collections.emptyList();
-                        results.count = 0;
+            return filter;
+        }
+
+        private final Filter filter = new Filter() {
+            private volatile int publishedCount = 0;
+
+            @Override
+            public void filter(final CharSequence constraint, final FilterListener listener) {
+                autocomplete.request();
+                super.filter(constraint, listener);
+            }
+
+            @Override
+            protected FilterResults performFiltering(final CharSequence constraint) {
+                final FilterResults results = new FilterResults();
+                if (viewModel.validatedAddress == null && constraint != null) {
+                    try {
+                        final List<AddressBookEntry> entries = autocomplete.query(constraint.toString()).get();
+                        if (entries != null) {
+                            results.values = entries;
+                            results.count = entries.size();
+                        } else {
+                            // superseded, keep showing what we have until the newer results arrive
+                            results.count = publishedCount;
+                        }
+                    } catch (final InterruptedException x) {
+                        results.count = publishedCount;
+                    } catch (final ExecutionException x) {
+                        log.warn("problem looking up address book", x.getCause());
+                        results.count = publishedCount;
                     }
-                    return results;
+                } else {
+                    results.values = Collections.emptyList();
+                    results.count = 0;
                 }
+                return results;
+            }
 
-                @Override
-                protected void publishResults(final CharSequence constraint, final FilterResults results) {
-                    setNotifyOnChange(false);
-                    clear();
-                    if (results.count > 0)
-                        addAll((List<AddressBookEntry>) results.values);
-                    notifyDataSetChanged();
-                }
-            };
-        }
+            @Override
+            protected void publishResults(final CharSequence constraint, final FilterResults results) {
+                if (results.values == null)
+                    return;
+                setNotifyOnChange(false);
+                clear();
+                if (results.count > 0)
+                    addAll((List<AddressBookEntry>) results.values);
+                notifyDataSetChanged();
+                publishedCount = results.count;
+            }
+        };
     }
 
     private final DialogInterface.OnClickListener activityDismissListener = new DialogInterface.OnClickListener() {
@@ -294,7 +327,11 @@ public final class SendCoinsFragment extends Fragment {
         this.activity = (AbstractWalletActivity) context;
         this.application = activity.getWalletApplication();
         this.config = application.getConfiguration();
-        this.addressBookDao = AddressBookDatabase.getDatabase(context).addressBookDao();
+        this.addressBookIndex = AddressBookLabelIndex.get(context);
+        this.autocompleteScheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("autocomplete").setDaemon(true).build());
+        this.autocomplete = new AddressBookAutocomplete(addressBookIndex::search, MAX_AUTOCOMPLETE_ENTRIES,
+                AUTOCOMPLETE_DEBOUNCE_MS, autocompleteScheduler);
         this.contentResolver = application.getContentResolver();
     }
 
@@ -318,8 +355,10 @@ public final class SendCoinsFragment extends Fragment {
         }
         viewModel.dynamicFees.observe(this, dynamicFees -> {
             updateView();
-            handler.post(dryrunRunnable);
+            postDryrun();
         });
+        viewModel.dryrunTransaction.observe(this, dryrunTransaction -> updateView());
+        viewModel.dryrunException.observe(this, dryrunException -> updateView());
         application.blockchainState.observe(this, blockchainState -> updateView());
         viewModel.balance.observe(this, coin -> activity.invalidateOptionsMenu());
         viewModel.progress.observe(this, new ProgressDialogFragment.Observer(fragmentManager));
@@ -467,7 +506,7 @@ public final class SendCoinsFragment extends Fragment {
         privateKeyPasswordView.addTextChangedListener(privateKeyPasswordListener);
 
         updateView();
-        handler.post(dryrunRunnable);
+        postDryrun();
     }
 
     @Override
@@ -488,6 +527,8 @@ public final class SendCoinsFragment extends Fragment {
     @Override
     public void onDestroy() {
         backgroundThread.getLooper().quit();
+        autocompleteScheduler.shutdownNow();
+        log.info("{}", autocomplete);
         super.onDestroy();
     }
 
@@ -589,7 +630,7 @@ public final class SendCoinsFragment extends Fragment {
             final String addressStr = receivingAddressView.getText().toString().trim();
             if (!addressStr.isEmpty()) {
                 final Address address = Address.fromString(Constants.NETWORK_PARAMETERS, addressStr);
-                final String label = addressBookDao.resolveLabel(address.toString());
+                final String label = addressBookIndex.resolveLabel(address.toString());
                 viewModel.validatedAddress = new AddressAndLabel(Constants.NETWORK_PARAMETERS, address.toString(),
                         label);
                 receivingAddressView.setText(null);
@@ -618,8 +659,8 @@ public final class SendCoinsFragment extends Fragment {
     }
 
     private boolean isAmountPlausible() {
-        if (viewModel.dryrunTransaction != null)
-            return viewModel.dryrunException == null;
+        if (viewModel.dryrunTransaction.getValue() != null)
+            return viewModel.dryrunException.getValue() == null;
         else if (viewModel.paymentIntent.mayEditAmount())
             return amountCalculatorLink.hasAmount();
         else
@@ -656,6 +697,14 @@ public final class SendCoinsFragment extends Fragment {
     private void handleGo() {
         privateKeyBadPasswordView.setVisibility(View.INVISIBLE);
 
+        // the dry run is redone whenever the inputs change, so its fee is taken now
+        final Transaction dryrunTransaction = viewModel.dryrunTransaction.getValue();
+        if (dryrunTransaction == null) {
+            log.info("dry run not finished yet, ignoring go");
+            return;
+        }
+        final Coin dryrunFee = dryrunTransaction.getFee();
+
         final Wallet wallet = walletActivityViewModel.wallet.getValue();
         if (wallet.isEncrypted()) {
             new DeriveKeyTask(backgroundHandler, application.scryptIterationsTarget()) {
@@ -663,17 +712,17 @@ public final class SendCoinsFragment extends Fragment {
                 protected void onSuccess(final KeyParameter encryptionKey, final boolean wasChanged) {
                     if (wasChanged)
                         WalletUtils.autoBackupWallet(activity, wallet);
-                    signAndSendPayment(encryptionKey);
+                    signAndSendPayment(encryptionKey, dryrunFee);
                 }
             }.deriveKey(wallet, privateKeyPasswordView.getText().toString().trim());
 
             setState(SendCoinsViewModel.State.DECRYPTING);
         } else {
-            signAndSendPayment(null);
+            signAndSendPayment(null, dryrunFee);
         }
     }
 
-    private void signAndSendPayment(final KeyParameter encryptionKey) {
+    private void signAndSendPayment(final KeyParameter encryptionKey, final Coin fee) {
         setState(SendCoinsViewModel.State.SIGNING);
 
         // final payment intent
@@ -693,7 +742,6 @@ public final class SendCoinsFragment extends Fragment {
         sendRequest.exchangeRate = amountCalculatorLink.getExchangeRate();
         sendRequest.aesKey = encryptionKey;
 
-        final Coin fee = viewModel.dryrunTransaction.getFee();
         if (fee.isGreaterThan(finalAmount)) {
             setState(SendCoinsViewModel.State.INPUT);
 
@@ -843,7 +891,7 @@ public final class SendCoinsFragment extends Fragment {
         log.info("switching to {} fee category", feeCategory);
 
         updateView();
-        handler.post(dryrunRunnable);
+        postDryrun();
     }
 
     private void handleEmpty() {
@@ -851,7 +899,13 @@ public final class SendCoinsFragment extends Fragment {
         amountCalculatorLink.setBtcAmount(available);
 
         updateView();
-        handler.post(dryrunRunnable);
+        postDryrun();
+    }
+
+    private void postDryrun() {
+        // once the payment is being sent, the inputs are frozen
+        if (viewModel.state == SendCoinsViewModel.State.INPUT)
+            handler.post(dryrunRunnable);
     }
 
     private Runnable dryrunRunnable = new Runnable() {
@@ -864,27 +918,16 @@ public final class SendCoinsFragment extends Fragment {
         }
 
         private void executeDryrun() {
-            viewModel.dryrunTransaction = null;
-            viewModel.dryrunException = null;
-
             final Wallet wallet = walletActivityViewModel.wallet.getValue();
             final Map<FeeCategory, Coin> fees = viewModel.dynamicFees.getValue();
             final Coin amount = amountCalculatorLink.getAmount();
-            if (amount != null && fees != null) {
-                try {
-                    final Address dummy = wallet.currentReceiveAddress(); // won't be used, tx is never
-                                                                          // committed
-                    final SendRequest sendRequest = viewModel.paymentIntent.mergeWithEditedValues(amount, dummy)
-                            .toSendRequest();
-                    sendRequest.signInputs = false;
-                    sendRequest.emptyWallet = viewModel.paymentIntent.mayEditAmount()
-                            && amount.equals(wallet.getBalance(BalanceType.AVAILABLE));
-                    sendRequest.feePerKb = fees.get(viewModel.feeCategory);
-                    wallet.completeTx(sendRequest);
-                    viewModel.dryrunTransaction = sendRequest.tx;
-                } catch (final Exception x) {
-                    viewModel.dryrunException = x;
-                }
+            if (wallet != null && amount != null && fees != null) {
+                final boolean emptyWallet = viewModel.paymentIntent.mayEditAmount()
+                        && amount.equals(viewModel.balance.getValue());
+                viewModel.dryrun.request(wallet, viewModel.paymentIntent, amount, emptyWallet,
+                        fees.get(viewModel.feeCategory));
+            } else {
+                viewModel.dryrun.cancel();
             }
         }
     };
@@ -900,7 +943,7 @@ public final class SendCoinsFragment extends Fragment {
         final Wallet wallet = walletActivityViewModel.wallet.getValue();
         final Map<FeeCategory, Coin> fees = viewModel.dynamicFees.getValue();
         final BlockchainState blockchainState = application.blockchainState.getValue();
-        final Map<String, AddressBookEntry> addressBook = AddressBookEntry.asMap(viewModel.addressBook.getValue());
+        final Map<String, AddressBookEntry> addressBook = addressBookIndex.getSnapshot().entries;
 
         if (viewModel.paymentIntent != null) {
             final MonetaryFormat btcFormat = config.getFormat();
@@ -943,7 +986,7 @@ public final class SendCoinsFragment extends Fragment {
 
                 receivingStaticAddressView.setText(WalletUtils.formatAddress(viewModel.validatedAddress.address,
                         Constants.ADDRESS_FORMAT_GROUP_SIZE, Constants.ADDRESS_FORMAT_LINE_SIZE));
-                final String addressBookLabel = addressBookDao
+                final String addressBookLabel = addressBookIndex
                         .resolveLabel(viewModel.validatedAddress.address.toString());
                 final String staticLabel;
                 if (addressBookLabel != null)
@@ -983,6 +1026,8 @@ public final class SendCoinsFragment extends Fragment {
             directPaymentEnableView.setVisibility(directPaymentVisible ? View.VISIBLE : View.GONE);
             directPaymentEnableView.setEnabled(viewModel.state == SendCoinsViewModel.State.INPUT);
 
+            final Transaction dryrunTransaction = viewModel.dryrunTransaction.getValue();
+            final Exception dryrunException = viewModel.dryrunException.getValue();
             hintView.setVisibility(View.GONE);
             if (viewModel.state == SendCoinsViewModel.State.INPUT) {
                 if (blockchainState != null && blockchainState.replaying) {
@@ -994,19 +1039,19 @@ public final class SendCoinsFragment extends Fragment {
                     hintView.setTextColor(activity.getColor(R.color.fg_error));
                     hintView.setVisibility(View.VISIBLE);
                     hintView.setText(R.string.send_coins_fragment_receiving_address_error);
-                } else if (viewModel.dryrunException != null) {
+                } else if (dryrunException != null) {
                     hintView.setTextColor(activity.getColor(R.color.fg_error));
                     hintView.setVisibility(View.VISIBLE);
-                    if (viewModel.dryrunException instanceof DustySendRequested)
+                    if (dryrunException instanceof DustySendRequested)
                         hintView.setText(getString(R.string.send_coins_fragment_hint_dusty_send));
-                    else if (viewModel.dryrunException instanceof InsufficientMoneyException)
+                    else if (dryrunException instanceof InsufficientMoneyException)
                         hintView.setText(getString(R.string.send_coins_fragment_hint_insufficient_money,
-                                btcFormat.format(((InsufficientMoneyException) viewModel.dryrunException).missing)));
-                    else if (viewModel.dryrunException instanceof CouldNotAdjustDownwards)
+                                btcFormat.format(((InsufficientMoneyException) dryrunException).missing)));
+                    else if (dryrunException instanceof CouldNotAdjustDownwards)
                         hintView.setText(getString(R.string.send_coins_fragment_hint_empty_wallet_failed));
                     else
-                        hintView.setText(viewModel.dryrunException.toString());
-                } else if (viewModel.dryrunTransaction != null && viewModel.dryrunTransaction.getFee() != null) {
+                        hintView.setText(dryrunException.toString());
+                } else if (dryrunTransaction != null && dryrunTransaction.getFee() != null) {
                     hintView.setVisibility(View.VISIBLE);
                     final int hintResId;
                     final int colorResId;
@@ -1021,7 +1066,7 @@ public final class SendCoinsFragment extends Fragment {
                         colorResId = R.color.fg_insignificant;
                     }
                     hintView.setTextColor(activity.getColor(colorResId));
-                    hintView.setText(getString(hintResId, btcFormat.format(viewModel.dryrunTransaction.getFee())));
+                    hintView.setText(getString(hintResId, btcFormat.format(dryrunTransaction.getFee())));
                 } else if (viewModel.paymentIntent.mayEditAddress() && viewModel.validatedAddress != null
                         && wallet != null && wallet.isAddressMine(viewModel.validatedAddress.address)) {
                     hintView.setTextColor(activity.getColor(R.color.fg_insignificant));
@@ -1052,7 +1097,7 @@ public final class SendCoinsFragment extends Fragment {
             viewCancel.setEnabled(viewModel.state != SendCoinsViewModel.State.REQUEST_PAYMENT_REQUEST
                     && viewModel.state != SendCoinsViewModel.State.DECRYPTING
                     && viewModel.state != SendCoinsViewModel.State.SIGNING);
-            viewGo.setEnabled(everythingPlausible() && viewModel.dryrunTransaction != null && wallet != null
+            viewGo.setEnabled(everythingPlausible() && dryrunTransaction != null && wallet != null
                     && fees != null && (blockchainState == null || !blockchainState.replaying));
 
             if (viewModel.state == null || viewModel.state == SendCoinsViewModel.State.REQUEST_PAYMENT_REQUEST) {
@@ -1211,7 +1256,7 @@ public final class SendCoinsFragment extends Fragment {
 
                 requestFocusFirst();
                 updateView();
-                handler.post(dryrunRunnable);
+                postDryrun();
             }
         });
     }
@@ -1238,7 +1283,7 @@ public final class SendCoinsFragment extends Fragment {
                     setState(SendCoinsViewModel.State.INPUT);
                     updateStateFrom(paymentIntent);
                     updateView();
-                    handler.post(dryrunRunnable);
+                    postDryrun();
                 } else {
                     final List<String> reasons = new LinkedList<>();
                     if (!viewModel.paymentIntent.equalsAddress(paymentIntent))
@@ -23,8 +23,7 @@ import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import org.newbull.wallet.WalletApplication;
-import org.newbull.wallet.addressbook.AddressBookDatabase;
-import org.newbull.wallet.addressbook.AddressBookEntry;
+import org.newbull.wallet.addressbook.AddressBookLabelIndex;
 import org.newbull.wallet.data.DynamicFeeLiveData;
 import org.newbull.wallet.data.PaymentIntent;
 import org.newbull.wallet.data.SelectedExchangeRateLiveData;
@@ -34,8 +33,6 @@ import org.newbull.wallet.ui.AddressAndLabel;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.wallet.Wallet.BalanceType;
 
-import java.util.List;
-
 /**
  * @author Andreas Schildbach
  */
@@ -47,12 +44,15 @@ public class SendCoinsViewModel extends AndroidViewModel {
     }
 
     private final WalletApplication application;
-    public final LiveData<List<AddressBookEntry>> addressBook;
+    public final LiveData<AddressBookLabelIndex.Snapshot> addressBook;
     public final SelectedExchangeRateLiveData exchangeRate;
     public final DynamicFeeLiveData dynamicFees;
     public final WalletBalanceLiveData balance;
     public final MutableLiveData<String> progress = new MutableLiveData<>();
     public final TransactionLiveData sentTransaction;
+    public final MutableLiveData<Transaction> dryrunTransaction = new MutableLiveData<>();
+    public final MutableLiveData<Exception> dryrunException = new MutableLiveData<>();
+    public final SendCoinsDryrun dryrun = new SendCoinsDryrun(dryrunTransaction, dryrunException);
 
     @Nullable
     public State state = null;
@@ -63,18 +63,20 @@ public class SendCoinsViewModel extends AndroidViewModel {
     public AddressAndLabel validatedAddress = null;
     @Nullable
     public Boolean directPaymentAck = null;
-    @Nullable
-    public Transaction dryrunTransaction = null;
-    @Nullable
-    public Exception dryrunException = null;
 
     public SendCoinsViewModel(final Application application) {
         super(application);
         this.application = (WalletApplication) application;
-        this.addressBook = AddressBookDatabase.getDatabase(this.application).addressBookDao().getAll();
+        this.addressBook = AddressBookLabelIndex.get(this.application).getLiveData();
         this.exchangeRate = new SelectedExchangeRateLiveData(this.application);
         this.dynamicFees = new DynamicFeeLiveData(this.application);
         this.balance = new WalletBalanceLiveData(this.application, BalanceType.AVAILABLE);
         this.sentTransaction = new TransactionLiveData(this.application);
     }
+
+    @Override
+    protected void onCleared() {
+        dryrun.cancel();
+        super.onCleared();
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.ui.send;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.CoinSelector;
+import org.bitcoinj.wallet.DefaultCoinSelector;
+import org.bitcoinj.wallet.Wallet;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Selects coins like {@link DefaultCoinSelector}, but keeps the candidates sorted between selections. Sorting needs the
+ * depth of every candidate, which is expensive to look up, and {@link Wallet#completeTx} selects several times per
+ * transaction while it adjusts the fee. The sorted snapshot is reused as long as the candidates are the same and no
+ * block has been seen since it was taken.
+ *
+ * <p>
+ * Whether a candidate is selectable is still checked on every selection, because that can change without a block.
+ * Not thread-safe.
+ *
+ * @author agent
+ */
+final class SnapshotCoinSelector implements CoinSelector {
+    private int height = -1;
+    private int snapshotHeight = -1;
+    private TransactionOutput[] sorted = null;
+    private Set<TransactionOutput> snapshot = null;
+
+    /** Call before each use, so that the snapshot is dropped once the wallet has seen a new block. */
+    public SnapshotCoinSelector prepare(final Wallet wallet) {
+        height = wallet.getLastBlockSeenHeight();
+        return this;
+    }
+
+    @Override
+    public CoinSelection select(final Coin target, final List<TransactionOutput> candidates) {
+        if (!isSnapshotOf(candidates))
+            takeSnapshot(candidates);
+
+        final List<TransactionOutput> selected = new ArrayList<>();
+        long total = 0;
+        for (final TransactionOutput output : sorted) {
+            if (total >= target.value)
+                break;
+            final Transaction tx = output.getParentTransaction();
+            if (tx != null && DefaultCoinSelector.isSelectable(tx)) {
+                selected.add(output);
+                total += output.getValue().value;
+            }
+        }
+        return new CoinSelection(Coin.valueOf(total), selected);
+    }
+
+    private boolean isSnapshotOf(final List<TransactionOutput> candidates) {
+        if (snapshot == null || snapshotHeight != height || snapshot.size() != candidates.size())
+            return false;
+        for (final TransactionOutput candidate : candidates)
+            if (!snapshot.contains(candidate))
+                return false;
+        return true;
+    }
+
+    private void takeSnapshot(final List<TransactionOutput> candidates) {
+        final int size = candidates.size();
+        final SortKey[] keys = new SortKey[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = new SortKey(candidates.get(i));
+        Arrays.sort(keys);
+        sorted = new TransactionOutput[size];
+        snapshot = Collections.newSetFromMap(new IdentityHashMap<>(size));
+        for (int i = 0; i < size; i++) {
+            sorted[i] = keys[i].output;
+            snapshot.add(keys[i].output);
+        }
+        snapshotHeight = height;
+    }
+
+    /** Same order as {@link DefaultCoinSelector}, with each output's depth looked up only once. */
+    private static final class SortKey implements Comparable<SortKey> {
+        final TransactionOutput output;
+        final BigInteger coinDepth;
+        final BigInteger hash;
+
+        SortKey(final TransactionOutput output) {
+            this.output = output;
+            this.coinDepth = BigInteger.valueOf(output.getValue().value)
+                    .multiply(BigInteger.valueOf(output.getParentTransactionDepthInBlocks()));
+            this.hash = output.getParentTransactionHash().toBigInteger();
+        }
+
+        @Override
+        public int compareTo(final SortKey other) {
+            final int c1 = other.coinDepth.compareTo(coinDepth);
+            if (c1 != 0)
+                return c1;
+            final int c2 = other.output.getValue().compareTo(output.getValue());
+            if (c2 != 0)
+                return c2;
+            return hash.compareTo(other.hash);
+        }
+    }
+}
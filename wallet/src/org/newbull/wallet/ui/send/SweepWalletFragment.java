@@ -47,6 +47,8 @@ import org.newbull.wallet.Constants;
 import org.newbull.wallet.R;
 import org.newbull.wallet.WalletApplication;
 import org.newbull.wallet.data.PaymentIntent;
+import org.newbull.wallet.data.SpentOutPointIndex;
+import org.newbull.wallet.data.WalletReadScheduler;
 import org.newbull.wallet.ui.AbstractWalletActivity;
 import org.newbull.wallet.ui.AbstractWalletActivityViewModel;
 import org.newbull.wallet.ui.DialogBuilder;
@@ -65,8 +67,6 @@ import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionConfidence;
 import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
-import org.bitcoinj.core.TransactionInput;
-import org.bitcoinj.core.TransactionOutPoint;
 import org.bitcoinj.core.TransactionOutput;
 import org.bitcoinj.core.UTXO;
 import org.bitcoinj.core.VerificationException;
@@ -381,10 +381,10 @@ public class SweepWalletFragment extends Fragment {
                 viewModel.progress.setValue(null);
 
                 // Filter UTXOs we've already spent and sort the rest.
-                final Set<Transaction> walletTxns = wallet.getTransactions(false);
+                final SpentOutPointIndex spentOutPoints = SpentOutPointIndex.get(wallet);
                 final Set<UTXO> sortedUtxos = new TreeSet<>(UTXO_COMPARATOR);
                 for (final UTXO utxo : utxos)
-                    if (!utxoSpentBy(walletTxns, utxo))
+                    if (!spentOutPoints.isSpent(utxo.getHash(), utxo.getIndex()))
                         sortedUtxos.add(utxo);
 
                 // Fake transaction funding the wallet to sweep.
@@ -415,17 +415,6 @@ public class SweepWalletFragment extends Fragment {
                 viewModel.walletToSweep.setValue(walletToSweep);
             }
 
-            private boolean utxoSpentBy(final Set<Transaction> transactions, final UTXO utxo) {
-                for (final Transaction tx : transactions) {
-                    for (final TransactionInput input : tx.getInputs()) {
-                        final TransactionOutPoint outpoint = input.getOutpoint();
-                        if (outpoint.getHash().equals(utxo.getHash()) && outpoint.getIndex() == utxo.getIndex())
-                            return true;
-                    }
-                }
-                return false;
-            }
-
             @Override
             public void onFail(final int messageResId, final Object... messageArgs) {
                 viewModel.progress.setValue(null);
@@ -434,9 +423,17 @@ public class SweepWalletFragment extends Fragment {
             }
         };
 
+        // build the index while waiting for the UTXOs
+        final Wallet wallet = walletActivityViewModel.wallet.getValue();
+        if (wallet != null) {
+            final SpentOutPointIndex spentOutPoints = SpentOutPointIndex.get(wallet);
+            WalletReadScheduler.get().schedule(WalletReadScheduler.Lane.SEND, spentOutPoints,
+                    spentOutPoints::prepare);
+        }
+
         final Wallet walletToSweep = viewModel.walletToSweep.getValue();
         final ECKey key = walletToSweep.getImportedKeys().iterator().next();
-        new RequestWalletBalanceTask(backgroundHandler, callback).requestWalletBalance(activity.getAssets(), key);
+        new RequestWalletBalanceTask(backgroundHandler, callback).requestWalletBalance(application, key);
     }
 
     private void setState(final SweepWalletViewModel.State state) {
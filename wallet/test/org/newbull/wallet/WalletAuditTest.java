@@ -0,0 +1,70 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.SegwitAddress;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletTransaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author agent
+ */
+public class WalletAuditTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private Wallet wallet;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2WPKH);
+    }
+
+    @Test
+    public void consistentWallet() throws Exception {
+        addTransaction(WalletTransaction.Pool.UNSPENT, SegwitAddress.fromKey(PARAMS, wallet.freshReceiveKey()));
+        addTransaction(WalletTransaction.Pool.SPENT, SegwitAddress.fromKey(PARAMS, new ECKey()));
+        assertNull(new WalletAudit(wallet).verify(2));
+    }
+
+    @Test
+    public void foreignTransactionInUnspentPool() throws Exception {
+        addTransaction(WalletTransaction.Pool.UNSPENT, SegwitAddress.fromKey(PARAMS, new ECKey()));
+        assertFalse(wallet.isConsistent());
+        assertNotNull(new WalletAudit(wallet).verify(2));
+    }
+
+    private void addTransaction(final WalletTransaction.Pool pool, final SegwitAddress to) {
+        final Transaction tx = new Transaction(PARAMS);
+        tx.addOutput(Coin.COIN, to);
+        wallet.addWalletTransaction(new WalletTransaction(pool, tx));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet;
+
+import org.newbull.wallet.util.ManualScheduler;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletFiles;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author agent
+ */
+public class WalletAutosaveTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private Wallet wallet;
+    private File walletFile;
+    private ManualScheduler scheduler;
+    private WalletAutosave autosave;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2PKH);
+        walletFile = File.createTempFile("wallet", null);
+        walletFile.deleteOnExit();
+        scheduler = new ManualScheduler();
+        autosave = new WalletAutosave(100, 60000, 10, scheduler);
+        final WalletFiles walletFiles = wallet.autosaveToFile(walletFile, autosave.getMaxDelayMs(),
+                TimeUnit.MILLISECONDS, autosave);
+        autosave.attach(wallet, walletFiles);
+    }
+
+    @Test
+    public void countsSaves() throws Exception {
+        autosave.saveNow();
+        autosave.saveNow();
+        assertEquals(2, autosave.getNumSaves());
+        assertEquals(walletFile.length() * 2, autosave.getBytesWritten());
+    }
+
+    @Test
+    public void defersSaveWhileSyncing() throws Exception {
+        autosave.setSyncing(true);
+        assertEquals(WalletAutosave.Mode.SYNCING, autosave.getMode());
+        autosave.onWalletChanged(wallet);
+        scheduler.advance(300);
+        assertEquals(0, autosave.getNumSaves());
+
+        autosave.setSyncing(false); // reschedules with the idle delay
+        scheduler.advance(99);
+        assertEquals(0, autosave.getNumSaves());
+        scheduler.advance(1);
+        assertEquals(1, autosave.getNumSaves());
+    }
+}
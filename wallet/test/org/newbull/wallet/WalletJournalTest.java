@@ -0,0 +1,173 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet;
+
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.utils.ExchangeRate;
+import org.bitcoinj.utils.Fiat;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletFiles;
+import org.bitcoinj.wallet.WalletProtobufSerializer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author agent
+ */
+public class WalletJournalTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private Wallet wallet;
+    private File walletFile;
+    private File journalFile;
+    private WalletJournal journal;
+    private StoredBlock chainHead;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2PKH);
+
+        walletFile = File.createTempFile("wallet", null);
+        walletFile.deleteOnExit();
+        journalFile = File.createTempFile("wallet-journal", null);
+        journalFile.delete();
+        journalFile.deleteOnExit();
+        journal = new WalletJournal(journalFile);
+        final WalletFiles walletFiles = wallet.autosaveToFile(walletFile, 1, TimeUnit.DAYS, journal);
+        journal.attach(wallet, walletFiles);
+        walletFiles.saveNow();
+
+        final Block genesis = PARAMS.getGenesisBlock();
+        chainHead = new StoredBlock(genesis, genesis.getWork(), 0);
+    }
+
+    @Test
+    public void replayOnSnapshot() throws Exception {
+        final Transaction confirmed = fakeTx(Coin.COIN);
+        final Transaction pending = fakeTx(Coin.CENT);
+        wallet.receivePending(pending, null);
+        mineBlock(confirmed);
+        mineBlock();
+
+        final Wallet loaded = loadSnapshot();
+        WalletJournal.replay(journalFile, loaded);
+
+        assertEquals(wallet.getLastBlockSeenHeight(), loaded.getLastBlockSeenHeight());
+        assertEquals(wallet.getLastBlockSeenHash(), loaded.getLastBlockSeenHash());
+        assertEquals(wallet.getBalance(Wallet.BalanceType.ESTIMATED), loaded.getBalance(Wallet.BalanceType.ESTIMATED));
+        final Transaction loadedConfirmed = loaded.getTransaction(confirmed.getTxId());
+        assertEquals(ConfidenceType.BUILDING, loadedConfirmed.getConfidence().getConfidenceType());
+        assertEquals(2, loadedConfirmed.getConfidence().getDepthInBlocks());
+        assertEquals(ConfidenceType.PENDING,
+                loaded.getTransaction(pending.getTxId()).getConfidence().getConfidenceType());
+    }
+
+    @Test
+    public void replaysMetadata() throws Exception {
+        final Transaction tx = fakeTx(Coin.CENT);
+        tx.setMemo("memo");
+        tx.setExchangeRate(new ExchangeRate(Fiat.parseFiat("EUR", "30000")));
+        tx.setPurpose(Transaction.Purpose.USER_PAYMENT);
+        wallet.receivePending(tx, null);
+
+        final Wallet loaded = loadSnapshot();
+        WalletJournal.replay(journalFile, loaded);
+        final Transaction loadedTx = loaded.getTransaction(tx.getTxId());
+        assertEquals("memo", loadedTx.getMemo());
+        assertEquals(tx.getExchangeRate().fiat, loadedTx.getExchangeRate().fiat);
+        assertEquals(Transaction.Purpose.USER_PAYMENT, loadedTx.getPurpose());
+    }
+
+    @Test
+    public void ignoresTornRecord() throws Exception {
+        mineBlock(fakeTx(Coin.COIN));
+        mineBlock();
+        mineBlock();
+        journal.detach();
+        try (final RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+            raf.setLength(raf.length() - 10); // simulate a crash while appending the last block
+        }
+
+        final Wallet loaded = loadSnapshot();
+        WalletJournal.replay(journalFile, loaded);
+        assertEquals(2, loaded.getLastBlockSeenHeight());
+        assertEquals(Coin.COIN, loaded.getBalance(Wallet.BalanceType.ESTIMATED));
+    }
+
+    @Test
+    public void replayIsIdempotent() throws Exception {
+        mineBlock(fakeTx(Coin.COIN));
+        mineBlock();
+
+        final Wallet loaded = loadSnapshot();
+        WalletJournal.replay(journalFile, loaded);
+        assertEquals(0, WalletJournal.replay(journalFile, loaded));
+        assertEquals(2, loaded.getLastBlockSeenHeight());
+        assertEquals(Coin.COIN, loaded.getBalance(Wallet.BalanceType.ESTIMATED));
+    }
+
+    private Wallet loadSnapshot() throws Exception {
+        try (final FileInputStream is = new FileInputStream(walletFile)) {
+            return new WalletProtobufSerializer().readWallet(is);
+        }
+    }
+
+    private Transaction fakeTx(final Coin value) {
+        final Transaction tx = new Transaction(PARAMS);
+        tx.addInput(new TransactionInput(PARAMS, tx, new byte[] { 0 },
+                new TransactionOutPoint(PARAMS, 0, Sha256Hash.of(value.toString().getBytes()))));
+        tx.addOutput(value, wallet.freshReceiveAddress());
+        return tx;
+    }
+
+    private void mineBlock(final Transaction... txns) throws Exception {
+        final Address someoneElse = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2PKH)
+                .currentReceiveAddress();
+        final Block block = chainHead.getHeader().createNextBlock(someoneElse);
+        for (final Transaction tx : txns)
+            block.addTransaction(tx);
+        block.solve();
+        chainHead = chainHead.build(block.cloneAsHeader());
+        int relativityOffset = 0;
+        for (final Transaction tx : txns)
+            wallet.receiveFromBlock(tx, chainHead, AbstractBlockChain.NewBlockType.BEST_CHAIN, relativityOffset++);
+        wallet.notifyNewBestBlock(chainHead);
+        journal.notifyNewBestBlock(chainHead);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.TestNet3Params;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.wallet.UnreadableWalletException;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletProtobufSerializer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class WalletLoaderTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private File walletFile;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        walletFile = File.createTempFile("wallet", null);
+        walletFile.deleteOnExit();
+    }
+
+    @Test
+    public void loadsWallet() throws Exception {
+        final Wallet wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2WPKH);
+        wallet.freshReceiveAddress();
+        wallet.saveToFile(walletFile);
+
+        final List<WalletLoader.Progress> progress = new ArrayList<>();
+        final WalletLoader loader = new WalletLoader(PARAMS, progress::add);
+        final Wallet loaded = loader.load(walletFile);
+
+        final Wallet expected = new WalletProtobufSerializer().readWallet(new FileInputStream(walletFile));
+        assertEquals(expected.currentReceiveAddress(), loaded.currentReceiveAddress());
+        assertEquals(expected.getActiveKeyChain().getIssuedReceiveKeys(),
+                loaded.getActiveKeyChain().getIssuedReceiveKeys());
+        assertEquals(wallet.getKeyChainSeed(), loaded.getKeyChainSeed());
+        assertTrue(!progress.isEmpty());
+        assertEquals(walletFile.length(), progress.get(progress.size() - 1).bytesRead);
+        assertEquals(walletFile.length(), loader.getMetrics().fileSize);
+    }
+
+    @Test(expected = UnreadableWalletException.class)
+    public void rejectsOtherNetworkBeforeDecoding() throws Exception {
+        Context.propagate(new Context(TestNet3Params.get()));
+        Wallet.createDeterministic(TestNet3Params.get(), Script.ScriptType.P2WPKH).saveToFile(walletFile);
+        Context.propagate(new Context(PARAMS));
+        new WalletLoader(PARAMS, progress -> {
+            throw new AssertionError("should not have decoded anything");
+        }).load(walletFile);
+    }
+
+    @Test(expected = UnreadableWalletException.class)
+    public void rejectsNonWallet() throws Exception {
+        try (final RandomAccessFile raf = new RandomAccessFile(walletFile, "rw")) {
+            raf.write("this is not a wallet".getBytes());
+        }
+        new WalletLoader(PARAMS, null).load(walletFile);
+    }
+}
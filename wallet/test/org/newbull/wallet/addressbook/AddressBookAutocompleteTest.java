@@ -0,0 +1,131 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.addressbook;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.newbull.wallet.util.ManualScheduler;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class AddressBookAutocompleteTest {
+    private static final List<AddressBookEntry> ENTRIES = Arrays.asList(
+            new AddressBookEntry("mxAbc123", "Coffee Shop"), new AddressBookEntry("n2Xyz", "Alice Smith"),
+            new AddressBookEntry("q9", "Caf\u00e9 Cr\u00e8me"));
+
+    private final ManualScheduler scheduler = new ManualScheduler();
+
+    @Test
+    public void refinesPreviousResult() throws Exception {
+        final AtomicInteger numSearches = new AtomicInteger();
+        final AddressBookAutocomplete autocomplete = new AddressBookAutocomplete((constraint, limit) -> {
+            numSearches.incrementAndGet();
+            return search(constraint);
+        }, 10, 0, scheduler);
+
+        assertEquals(2, query(autocomplete, "c").size()); // both with a word starting with c
+        final List<AddressBookEntry> result = query(autocomplete, "cafe c");
+        assertEquals(1, result.size());
+        assertEquals("q9", result.get(0).getAddress());
+        assertEquals(1, numSearches.get());
+
+        query(autocomplete, "alice");
+        assertEquals(2, numSearches.get());
+    }
+
+    @Test
+    public void doesNotRefineTruncatedResult() throws Exception {
+        final AtomicInteger numSearches = new AtomicInteger();
+        final AddressBookAutocomplete autocomplete = new AddressBookAutocomplete((constraint, limit) -> {
+            numSearches.incrementAndGet();
+            final List<AddressBookEntry> result = search(constraint);
+            return result.subList(0, Math.min(limit, result.size()));
+        }, 1, 0, scheduler);
+
+        query(autocomplete, "c");
+        query(autocomplete, "cr");
+        assertEquals(2, numSearches.get());
+    }
+
+    @Test
+    public void debouncesQuery() throws Exception {
+        final AtomicInteger numSearches = new AtomicInteger();
+        final AddressBookAutocomplete autocomplete = new AddressBookAutocomplete((constraint, limit) -> {
+            numSearches.incrementAndGet();
+            return search(constraint);
+        }, 10, 200, scheduler);
+
+        final ListenableFuture<List<AddressBookEntry>> result = autocomplete.query("c");
+        scheduler.advance(199);
+        assertFalse(result.isDone());
+        scheduler.advance(1);
+        assertEquals(2, result.get().size());
+        assertEquals(1, numSearches.get());
+    }
+
+    @Test
+    public void abandonsSupersededQuery() throws Exception {
+        final AtomicInteger numSearches = new AtomicInteger();
+        final AddressBookAutocomplete autocomplete = new AddressBookAutocomplete((constraint, limit) -> {
+            numSearches.incrementAndGet();
+            return search(constraint);
+        }, 10, 200, scheduler);
+
+        final ListenableFuture<List<AddressBookEntry>> superseded = autocomplete.query("c");
+        scheduler.advance(50); // still debouncing
+        autocomplete.request();
+        assertNull(superseded.get());
+
+        final ListenableFuture<List<AddressBookEntry>> result = autocomplete.query("co");
+        scheduler.advance(200);
+        assertEquals(1, result.get().size());
+        assertEquals(1, numSearches.get());
+    }
+
+    @Test
+    public void searchOrdersByLabelAndLimits() {
+        final List<AddressBookEntry> result = AddressBookAutocomplete.search(ENTRIES, "c", 10);
+        assertEquals(2, result.size());
+        assertEquals("q9", result.get(0).getAddress()); // Cafe Creme before Coffee Shop
+        assertEquals("mxAbc123", result.get(1).getAddress());
+
+        assertEquals(1, AddressBookAutocomplete.search(ENTRIES, "c", 1).size());
+        assertTrue(AddressBookAutocomplete.search(ENTRIES, " ", 10).isEmpty());
+    }
+
+    private List<AddressBookEntry> query(final AddressBookAutocomplete autocomplete, final String constraint)
+            throws Exception {
+        final ListenableFuture<List<AddressBookEntry>> result = autocomplete.query(constraint);
+        scheduler.advance(0);
+        return result.get();
+    }
+
+    private static List<AddressBookEntry> search(final String constraint) {
+        return AddressBookAutocomplete.search(ENTRIES, constraint, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.data;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.SegwitAddress;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletTransaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class SpentOutPointIndexTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private Wallet wallet;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        wallet = Wallet.createDeterministic(PARAMS, Script.ScriptType.P2WPKH);
+    }
+
+    @Test
+    public void builtFromWallet() {
+        final Sha256Hash spentTxId = Sha256Hash.of(new byte[] { 1 });
+        wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.UNSPENT, spending(spentTxId, 1)));
+
+        final SpentOutPointIndex index = SpentOutPointIndex.get(wallet);
+        assertTrue(index.isSpent(spentTxId, 1));
+        assertFalse(index.isSpent(spentTxId, 0));
+        assertFalse(index.isSpent(Sha256Hash.of(new byte[] { 2 }), 1));
+    }
+
+    @Test
+    public void maintainedFromEvents() throws Exception {
+        final SpentOutPointIndex index = SpentOutPointIndex.get(wallet);
+        final Sha256Hash spentTxId = Sha256Hash.of(new byte[] { 3 });
+        assertFalse(index.isSpent(spentTxId, 0));
+
+        wallet.receivePending(spending(spentTxId, 0), null);
+        assertTrue(index.isSpent(spentTxId, 0));
+
+        wallet.reset();
+        assertFalse(index.isSpent(spentTxId, 0));
+    }
+
+    private Transaction spending(final Sha256Hash txId, final long index) {
+        final Transaction tx = new Transaction(PARAMS);
+        tx.addInput(new TransactionInput(PARAMS, tx, new byte[0], new TransactionOutPoint(PARAMS, index, txId)));
+        tx.addOutput(Coin.COIN, SegwitAddress.fromKey(PARAMS, wallet.freshReceiveKey()));
+        return tx;
+    }
+}
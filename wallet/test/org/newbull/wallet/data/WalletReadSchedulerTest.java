@@ -0,0 +1,152 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.data;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class WalletReadSchedulerTest {
+    private WalletReadScheduler scheduler;
+    private final CountDownLatch blocker = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        blocker.countDown();
+        if (scheduler != null)
+            scheduler.shutdown();
+    }
+
+    @Test
+    public void dropsSupersededTask() throws Exception {
+        scheduler = new WalletReadScheduler(1);
+        final Object owner = new Object();
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<String> executed = new CopyOnWriteArrayList<>();
+
+        blockLane(WalletReadScheduler.Lane.LIST);
+        scheduler.schedule(WalletReadScheduler.Lane.LIST, owner, () -> executed.add("first"));
+        scheduler.schedule(WalletReadScheduler.Lane.LIST, owner, () -> {
+            executed.add("second");
+            done.countDown();
+        });
+        assertEquals(1, scheduler.getQueueDepth(WalletReadScheduler.Lane.LIST));
+        blocker.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, executed.size());
+        assertEquals("second", executed.get(0));
+        assertEquals(1, scheduler.getDroppedCount(WalletReadScheduler.Lane.LIST));
+    }
+
+    @Test
+    public void higherLaneFirst() throws Exception {
+        scheduler = new WalletReadScheduler(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final List<WalletReadScheduler.Lane> executed = new CopyOnWriteArrayList<>();
+
+        blockLane(WalletReadScheduler.Lane.LIST);
+        for (final WalletReadScheduler.Lane lane : new WalletReadScheduler.Lane[] { WalletReadScheduler.Lane.MONITOR,
+                WalletReadScheduler.Lane.LIST, WalletReadScheduler.Lane.BALANCE }) {
+            scheduler.schedule(lane, new Object(), () -> {
+                executed.add(lane);
+                done.countDown();
+            });
+        }
+        blocker.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(WalletReadScheduler.Lane.BALANCE, executed.get(0));
+        assertEquals(WalletReadScheduler.Lane.LIST, executed.get(1));
+        assertEquals(WalletReadScheduler.Lane.MONITOR, executed.get(2));
+    }
+
+    @Test
+    public void sameOwnerNeverConcurrent() throws Exception {
+        scheduler = new WalletReadScheduler(2);
+        final Object owner = new Object();
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<String> executed = new CopyOnWriteArrayList<>();
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch skipped = new CountDownLatch(1);
+
+        scheduler.schedule(WalletReadScheduler.Lane.LIST, owner, () -> {
+            started.countDown();
+            await(blocker);
+            executed.add("first");
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.schedule(WalletReadScheduler.Lane.LIST, owner, () -> {
+            executed.add("second");
+            done.countDown();
+        });
+        // the second thread is idle, but must pass over the task of the busy owner and pick up this one
+        scheduler.schedule(WalletReadScheduler.Lane.LIST, new Object(), skipped::countDown);
+        assertTrue(skipped.await(5, TimeUnit.SECONDS));
+        assertTrue(executed.isEmpty());
+        assertEquals(1, scheduler.getQueueDepth(WalletReadScheduler.Lane.LIST));
+        blocker.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("first", executed.get(0));
+        assertEquals("second", executed.get(1));
+    }
+
+    @Test
+    public void shutdownDiscardsWaitingTasks() throws Exception {
+        scheduler = new WalletReadScheduler(1);
+        final List<String> executed = new CopyOnWriteArrayList<>();
+
+        blockLane(WalletReadScheduler.Lane.LIST);
+        scheduler.schedule(WalletReadScheduler.Lane.LIST, new Object(), () -> executed.add("waiting"));
+        scheduler.shutdown();
+        scheduler.schedule(WalletReadScheduler.Lane.LIST, new Object(), () -> executed.add("late"));
+        assertEquals(0, scheduler.getQueueDepth(WalletReadScheduler.Lane.LIST));
+        blocker.countDown();
+        assertTrue(executed.isEmpty());
+    }
+
+    /** Occupy a worker thread until {@link #blocker} is released. */
+    private void blockLane(final WalletReadScheduler.Lane lane) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        scheduler.schedule(lane, new Object(), () -> {
+            started.countDown();
+            await(blocker);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (final InterruptedException x) {
+            throw new RuntimeException(x);
+        }
+    }
+}
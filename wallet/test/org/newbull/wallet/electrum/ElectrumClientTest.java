@@ -0,0 +1,273 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.electrum;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author agent
+ */
+public class ElectrumClientTest {
+    private StandInServer standIn;
+    private ElectrumServer server;
+    private ElectrumClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        standIn = new StandInServer();
+        server = new ElectrumServer(ElectrumServer.Type.TCP,
+                InetSocketAddress.createUnresolved("127.0.0.1", standIn.getPort()), null);
+        client = new ElectrumClient(1000, 1000, 60000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.closeAll();
+        standIn.close();
+    }
+
+    @Test
+    public void batchOnOneConnection() throws Exception {
+        final List<ElectrumClient.Utxo[]> result = client.listUnspent(server, Arrays.asList("aa", "bb", "cc"))
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(3, result.size());
+        assertEquals(1, result.get(0).length);
+        assertEquals("aa", result.get(0)[0].tx_hash);
+        assertEquals(2, result.get(1).length);
+        assertEquals("bb", result.get(1)[1].tx_hash);
+        assertEquals(1, result.get(1)[1].tx_pos);
+        assertEquals(3, result.get(2).length);
+        assertEquals(1, standIn.numBatches.get());
+
+        client.listUnspent(server, Collections.singletonList("dd")).get(5, TimeUnit.SECONDS);
+        assertEquals(1, standIn.numConnections.get());
+    }
+
+    @Test
+    public void multiplexed() throws Exception {
+        final JsonAdapter<String> adapter = client.getMoshi().adapter(String.class);
+        final List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            futures.add(client.call(server, "echo", adapter, "msg" + i));
+        for (int i = 0; i < 10; i++)
+            assertEquals("msg" + i, futures.get(i).get(5, TimeUnit.SECONDS));
+        assertEquals(1, standIn.numConnections.get());
+    }
+
+    @Test
+    public void serverError() throws Exception {
+        final JsonAdapter<String> adapter = client.getMoshi().adapter(String.class);
+        try {
+            client.call(server, "unknown", adapter).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (final ExecutionException x) {
+            assertTrue(x.getCause() instanceof ElectrumClient.ServerErrorException);
+            assertEquals(-32601, ((ElectrumClient.ServerErrorException) x.getCause()).code);
+        }
+        // connection is still good
+        assertEquals("ok", client.call(server, "echo", adapter, "ok").get(5, TimeUnit.SECONDS));
+        assertEquals(1, standIn.numConnections.get());
+    }
+
+    @Test
+    public void cancelDoesNotAffectSharedConnect() throws Exception {
+        final JsonAdapter<String> adapter = client.getMoshi().adapter(String.class);
+        final Future<String> first = client.call(server, "echo", adapter, "1");
+        final Future<String> second = client.call(server, "echo", adapter, "2");
+        second.cancel(true);
+        assertEquals("1", first.get(5, TimeUnit.SECONDS));
+        assertEquals("3", client.call(server, "echo", adapter, "3").get(5, TimeUnit.SECONDS));
+        assertEquals(1, standIn.numConnections.get());
+    }
+
+    @Test
+    public void timeoutFailsOnlyThatRequest() throws Exception {
+        final ElectrumClient client = new ElectrumClient(100, 100, 60000);
+        try {
+            final JsonAdapter<String> adapter = client.getMoshi().adapter(String.class);
+            final Future<String> silent = client.call(server, "silence", adapter);
+            assertEquals("1", client.call(server, "echo", adapter, "1").get(5, TimeUnit.SECONDS));
+            try {
+                silent.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (final ExecutionException x) {
+                assertTrue(x.getCause() instanceof TimeoutException);
+            }
+            assertEquals("2", client.call(server, "echo", adapter, "2").get(5, TimeUnit.SECONDS));
+            assertEquals(1, standIn.numConnections.get());
+        } finally {
+            client.closeAll();
+        }
+    }
+
+    @Test
+    public void reconnectsAfterServerClosed() throws Exception {
+        final JsonAdapter<String> adapter = client.getMoshi().adapter(String.class);
+        assertEquals("1", client.call(server, "echo", adapter, "1").get(5, TimeUnit.SECONDS));
+        try {
+            client.call(server, "hangup", adapter).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (final ExecutionException x) {
+            assertTrue(x.getCause() instanceof IOException);
+        }
+        assertEquals("2", client.call(server, "echo", adapter, "2").get(5, TimeUnit.SECONDS));
+        assertEquals(2, standIn.numConnections.get());
+    }
+
+    /**
+     * Stand-in for an Electrum server. Answers {@code blockchain.scripthash.listunspent} with as many UTXOs as the
+     * position of the script hash in the batch, {@code echo} with its first param, {@code silence} not at all and
+     * {@code hangup} by closing the connection. Responses to a batch are sent in reverse order, and responses to single requests are delayed a bit
+     * for even ids, so that they overtake each other.
+     */
+    private static class StandInServer implements Runnable {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final AtomicInteger numConnections = new AtomicInteger();
+        final AtomicInteger numBatches = new AtomicInteger();
+        final JsonAdapter<Object> adapter = new Moshi.Builder().build().adapter(Object.class);
+
+        StandInServer() throws IOException {
+            new Thread(this, "stand-in").start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    numConnections.incrementAndGet();
+                    new Thread(() -> serve(socket), "stand-in-connection").start();
+                }
+            } catch (final IOException x) {
+                // closed
+            }
+        }
+
+        private void serve(final Socket socket) {
+            try (final Socket s = socket;
+                    final BufferedReader reader = new BufferedReader(
+                            new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                    final Writer writer = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final Object request = adapter.fromJson(line);
+                    if (request instanceof List) {
+                        numBatches.incrementAndGet();
+                        final List<?> requests = (List<?>) request;
+                        final List<Object> responses = new ArrayList<>();
+                        for (int i = requests.size() - 1; i >= 0; i--)
+                            responses.add(respond((Map<?, ?>) requests.get(i), i + 1));
+                        write(writer, adapter.toJson(responses));
+                    } else {
+                        final Map<?, ?> map = (Map<?, ?>) request;
+                        if ("hangup".equals(map.get("method")))
+                            return;
+                        if ("silence".equals(map.get("method")))
+                            continue;
+                        final Object response = respond(map, 1);
+                        final boolean delay = ((Number) map.get("id")).intValue() % 2 == 0;
+                        new Thread(() -> {
+                            try {
+                                if (delay)
+                                    Thread.sleep(50);
+                                write(writer, adapter.toJson(response));
+                            } catch (final InterruptedException | IOException x) {
+                                // give up
+                            }
+                        }).start();
+                    }
+                }
+            } catch (final IOException x) {
+                // disconnected
+            }
+        }
+
+        private Object respond(final Map<?, ?> request, final int numUtxos) {
+            final Map<String, Object> response = new LinkedHashMap<>();
+            response.put("jsonrpc", "2.0");
+            response.put("id", request.get("id"));
+            final Object method = request.get("method");
+            final List<?> params = (List<?>) request.get("params");
+            if ("blockchain.scripthash.listunspent".equals(method)) {
+                final List<Object> utxos = new ArrayList<>();
+                for (int i = 0; i < numUtxos; i++) {
+                    final Map<String, Object> utxo = new LinkedHashMap<>();
+                    utxo.put("tx_hash", params.get(0));
+                    utxo.put("tx_pos", i);
+                    utxo.put("value", 1000 * (i + 1));
+                    utxo.put("height", 100);
+                    utxos.add(utxo);
+                }
+                response.put("result", utxos);
+            } else if ("echo".equals(method)) {
+                response.put("result", params.get(0));
+            } else {
+                final Map<String, Object> error = new LinkedHashMap<>();
+                error.put("code", -32601);
+                error.put("message", "unknown method");
+                response.put("error", error);
+            }
+            return response;
+        }
+
+        private static void write(final Writer writer, final String json) throws IOException {
+            synchronized (writer) {
+                writer.write(json + "\n");
+                writer.flush();
+            }
+        }
+    }
+}
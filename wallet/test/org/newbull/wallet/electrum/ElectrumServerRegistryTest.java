@@ -0,0 +1,166 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.electrum;
+
+import com.google.common.util.concurrent.Futures;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class ElectrumServerRegistryTest {
+    private static final long NOW = 1600000000000L;
+
+    private ScheduledExecutorService scheduler;
+    private final ElectrumServer good = server("good"), dissenting = server("dissenting"),
+            failing = server("failing"), unknown = server("unknown");
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void parse() {
+        final List<ElectrumServer> servers = ElectrumServerRegistry.parse(new ByteArrayInputStream(
+                ("# comment\n\ntls:a.example.com:50002:AB01\ntls:b.example.com::cd02\ntcp:c.example.com\n")
+                        .getBytes(StandardCharsets.UTF_8)),
+                51001, 51002);
+        assertEquals(3, servers.size());
+        assertEquals(ElectrumServer.Type.TLS, servers.get(0).type);
+        assertEquals(50002, servers.get(0).socketAddress.getPort());
+        assertEquals("ab01", servers.get(0).certificateFingerprint);
+        assertEquals(51002, servers.get(1).socketAddress.getPort());
+        assertEquals(ElectrumServer.Type.TCP, servers.get(2).type);
+        assertEquals(51001, servers.get(2).socketAddress.getPort());
+        assertNull(servers.get(2).certificateFingerprint);
+    }
+
+    @Test
+    public void ranksAndPersists() throws Exception {
+        final File file = tempFile();
+        final List<ElectrumServer> servers = Arrays.asList(failing, dissenting, good, unknown);
+        final ElectrumServerRegistry registry = ElectrumServerRegistry.load(servers, file);
+        registry.record(quorum(Arrays.asList(failing, dissenting, good, server("other")), null),
+                Collections.singletonMap(good, 300L), NOW);
+        registry.save();
+
+        final ElectrumServerRegistry loaded = ElectrumServerRegistry.load(servers, file);
+        final List<ElectrumServer> best = loaded.getBest(4, NOW);
+        assertEquals(unknown, best.get(0));
+        assertEquals(good, best.get(1));
+        assertEquals(failing, best.get(2)); // same as dissenting, so keeps its place
+        assertEquals(dissenting, best.get(3));
+        assertEquals(Arrays.asList(unknown, good), loaded.getBest(2, NOW));
+        assertEquals(1.0, loaded.getHealth(good).getSuccessRate(), 0);
+        assertEquals(300.0, loaded.getHealth(good).getHandshakeMs(), 0);
+        assertEquals(0.0, loaded.getHealth(dissenting).getSuccessRate(), 0);
+
+        // after a week without updates, everybody gets a new chance
+        assertEquals(servers, loaded.getBest(4, NOW + TimeUnit.DAYS.toMillis(8)));
+    }
+
+    @Test
+    public void savesOnlyWhenChanged() throws Exception {
+        final File file = tempFile();
+        final List<ElectrumServer> servers = Arrays.asList(failing, good);
+        final ElectrumServerRegistry registry = ElectrumServerRegistry.load(servers, file);
+        registry.save();
+        assertFalse(file.exists());
+        registry.record(quorum(servers, null), Collections.emptyMap(), NOW);
+        registry.save();
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void fingerprintFailuresGoLast() throws Exception {
+        final List<ElectrumServer> servers = Arrays.asList(failing, good);
+        final ElectrumServerRegistry registry = ElectrumServerRegistry.load(servers, tempFile());
+        registry.record(quorum(servers, good), Collections.emptyMap(), NOW);
+        assertEquals(1, registry.getHealth(good).getFingerprintFailures());
+        assertEquals(0, registry.getHealth(failing).getFingerprintFailures());
+        assertEquals(Arrays.asList(failing, good), registry.getBest(2, NOW));
+    }
+
+    @Test
+    public void percentiles() throws Exception {
+        final File file = tempFile();
+        try (final Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write("tcp:good:50001 1.000 NaN 0 " + NOW + " 20,19,18,17,16,15,14,13,12,11,10,9,8,7,6,5,4,3,2,1\n");
+        }
+        final ElectrumServerRegistry registry = ElectrumServerRegistry.load(Collections.singletonList(good), file);
+        final ElectrumServerRegistry.Health health = registry.getHealth(good);
+        assertEquals(11, health.getLatencyMs(50));
+        assertEquals(20, health.getLatencyMs(95));
+        assertEquals(1, health.getLatencyMs(0));
+        assertNull(registry.getHealth(unknown));
+    }
+
+    /**
+     * Run a quorum in which the server named "failing" fails, the server named "dissenting" answers differently,
+     * all other servers agree and the given server fails the fingerprint check.
+     */
+    private Quorum.Result<String> quorum(final List<ElectrumServer> servers, final ElectrumServer fingerprintFailing)
+            throws Exception {
+        return new Quorum<>(servers, Math.max(servers.size() / 2, 1), server -> {
+            if (server == fingerprintFailing)
+                return Futures.immediateFailedFuture(new ElectrumClient.FingerprintMismatchException("mismatch"));
+            if (server == failing)
+                return Futures.immediateFailedFuture(new IOException());
+            return Futures.immediateFuture(server == dissenting ? "B" : "A");
+        }, scheduler).start(10, 1, 10, TimeUnit.SECONDS).get();
+    }
+
+    private static ElectrumServer server(final String host) {
+        return new ElectrumServer(ElectrumServer.Type.TCP, InetSocketAddress.createUnresolved(host, 50001), null);
+    }
+
+    private static File tempFile() throws Exception {
+        final File file = File.createTempFile("electrum-server-health", ".txt");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+}
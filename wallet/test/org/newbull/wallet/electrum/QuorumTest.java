@@ -0,0 +1,167 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.electrum;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.newbull.wallet.util.ManualScheduler;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class QuorumTest {
+    private ManualScheduler scheduler;
+    private List<ElectrumServer> servers;
+    private Map<ElectrumServer, SettableFuture<String>> asked;
+
+    @Before
+    public void setUp() {
+        scheduler = new ManualScheduler();
+        servers = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            servers.add(new ElectrumServer(ElectrumServer.Type.TCP,
+                    InetSocketAddress.createUnresolved("server" + i, 50001), null));
+        asked = new LinkedHashMap<>();
+    }
+
+    private ListenableFuture<Quorum.Result<String>> start(final long hedgeDelay, final long timeout) {
+        return start(hedgeDelay, timeout, new AtomicBoolean());
+    }
+
+    /** @param askedWithLock set if a server is asked while the lock of the quorum is held */
+    private ListenableFuture<Quorum.Result<String>> start(final long hedgeDelay, final long timeout,
+            final AtomicBoolean askedWithLock) {
+        final List<Quorum<String>> quorum = new ArrayList<>(1);
+        quorum.add(new Quorum<>(servers, 2, server -> {
+            if (Thread.holdsLock(quorum.get(0)))
+                askedWithLock.set(true);
+            final SettableFuture<String> future = SettableFuture.create();
+            asked.put(server, future);
+            return future;
+        }, scheduler));
+        return quorum.get(0).start(hedgeDelay, 1, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void resolvesEarly() throws Exception {
+        final ListenableFuture<Quorum.Result<String>> future = start(10000, 10000);
+        assertEquals(3, asked.size()); // two for agreement plus a spare
+
+        asked.get(servers.get(0)).set("A");
+        assertFalse(future.isDone());
+        asked.get(servers.get(1)).set("A");
+        final Quorum.Result<String> result = future.get(0, TimeUnit.MILLISECONDS);
+        assertEquals("A", result.agreed);
+        assertTrue(asked.get(servers.get(2)).isCancelled());
+        assertEquals(Quorum.Outcome.AGREED, result.outcomes.get(servers.get(0)));
+        assertEquals(Quorum.Outcome.AGREED, result.outcomes.get(servers.get(1)));
+        assertEquals(Quorum.Outcome.UNNEEDED, result.outcomes.get(servers.get(2)));
+        assertEquals(Quorum.Outcome.NOT_ASKED, result.outcomes.get(servers.get(3)));
+    }
+
+    @Test
+    public void asksNextOnFailureAndDissent() throws Exception {
+        final ListenableFuture<Quorum.Result<String>> future = start(10000, 10000);
+        asked.get(servers.get(0)).setException(new IOException());
+        assertEquals(4, asked.size());
+        asked.get(servers.get(1)).set("A");
+        asked.get(servers.get(2)).set("B");
+        assertFalse(future.isDone());
+        asked.get(servers.get(3)).set("A");
+
+        final Quorum.Result<String> result = future.get(0, TimeUnit.MILLISECONDS);
+        assertEquals("A", result.agreed);
+        assertEquals(Quorum.Outcome.FAILED, result.outcomes.get(servers.get(0)));
+        assertEquals(Quorum.Outcome.AGREED, result.outcomes.get(servers.get(1)));
+        assertEquals(Quorum.Outcome.DISSENTED, result.outcomes.get(servers.get(2)));
+        assertEquals(Quorum.Outcome.AGREED, result.outcomes.get(servers.get(3)));
+    }
+
+    @Test
+    public void noAgreement() throws Exception {
+        final ListenableFuture<Quorum.Result<String>> future = start(10000, 10000);
+        asked.get(servers.get(0)).set("A");
+        asked.get(servers.get(1)).set("B");
+        asked.get(servers.get(2)).set("C");
+        asked.get(servers.get(3)).set("D");
+
+        final Quorum.Result<String> result = future.get(0, TimeUnit.MILLISECONDS);
+        assertNull(result.agreed);
+        assertEquals(4, result.answers.size());
+        assertEquals(4, result.count(Quorum.Outcome.ANSWERED));
+    }
+
+    @Test
+    public void hedgeAndTimeout() throws Exception {
+        final ListenableFuture<Quorum.Result<String>> future = start(50, 500);
+        assertEquals(3, asked.size());
+        scheduler.advance(50);
+        assertEquals(4, asked.size());
+        assertFalse(future.isDone());
+
+        scheduler.advance(450);
+        final Quorum.Result<String> result = future.get(0, TimeUnit.MILLISECONDS);
+        assertNull(result.agreed);
+        assertEquals(4, result.count(Quorum.Outcome.TIMED_OUT));
+        for (final SettableFuture<String> request : asked.values())
+            assertTrue(request.isCancelled());
+    }
+
+    @Test
+    public void hedgeAsksLimitedNumber() throws Exception {
+        servers.add(new ElectrumServer(ElectrumServer.Type.TCP,
+                InetSocketAddress.createUnresolved("server4", 50001), null));
+        final ListenableFuture<Quorum.Result<String>> future = start(50, 500);
+        assertEquals(3, asked.size());
+        scheduler.advance(50);
+        assertEquals(4, asked.size());
+        scheduler.advance(450);
+        final Quorum.Result<String> result = future.get(0, TimeUnit.MILLISECONDS);
+        assertEquals(4, result.count(Quorum.Outcome.TIMED_OUT));
+        assertEquals(Quorum.Outcome.NOT_ASKED, result.outcomes.get(servers.get(4)));
+    }
+
+    @Test
+    public void asksWithoutHoldingLock() throws Exception {
+        final AtomicBoolean askedWithLock = new AtomicBoolean();
+        final ListenableFuture<Quorum.Result<String>> future = start(50, 500, askedWithLock);
+        asked.get(servers.get(0)).setException(new IOException()); // next server is asked from the callback
+        assertEquals(4, asked.size());
+        asked.get(servers.get(1)).set("A");
+        asked.get(servers.get(2)).set("A");
+        assertEquals("A", future.get(0, TimeUnit.MILLISECONDS).agreed);
+        assertTrue(asked.get(servers.get(3)).isCancelled());
+        assertFalse(askedWithLock.get());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.service;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.SPVBlockStore;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Header insert and lookup throughput of the block store, for each capacity the app uses. Lookups of blocks that
+ * aren't cached by the store scan the ring, so they get slower with capacity. Not part of the regular test run.
+ *
+ * @author agent
+ */
+@Ignore("benchmark, run manually")
+public class BlockStoreCapacityBenchmarkTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    // see Constants.Files.BLOCKCHAIN_STORE_CAPACITY_LOWRAM and BLOCKCHAIN_STORE_CAPACITY
+    private static final int[] CAPACITIES = { 10000, 50000 };
+    private static final int NUM_LOOKUPS = 200;
+
+    private static final Logger log = LoggerFactory.getLogger(BlockStoreCapacityBenchmarkTest.class);
+
+    @Test
+    public void insertAndLookup() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        for (final int capacity : CAPACITIES) {
+            final File file = File.createTempFile("spvchain", null);
+            file.delete();
+            try {
+                long start = System.nanoTime();
+                final List<StoredBlock> blocks = BlockStoreResizerTest.fill(file, capacity, capacity);
+                final long insertNanos = System.nanoTime() - start;
+
+                final SPVBlockStore store = new SPVBlockStore(PARAMS, file, capacity, false);
+                final Random random = new Random(0);
+                start = System.nanoTime();
+                for (int i = 0; i < NUM_LOOKUPS; i++)
+                    assertNotNull(store.get(blocks.get(random.nextInt(blocks.size())).getHeader().getHash()));
+                final long lookupNanos = System.nanoTime() - start;
+                store.close();
+
+                log.info("capacity {}: {} inserts/s, {} uncached lookups/s", capacity,
+                        (long) (capacity * 1e9 / insertNanos), (long) (NUM_LOOKUPS * 1e9 / lookupNanos));
+            } finally {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.service;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.SPVBlockStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class BlockStoreResizerTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        file = File.createTempFile("spvchain", null);
+        file.delete();
+        file.deleteOnExit();
+    }
+
+    @Test
+    public void grow() throws Exception {
+        final List<StoredBlock> blocks = fill(file, 100, 250); // ring has wrapped
+        assertTrue(BlockStoreResizer.resize(file, 300));
+        assertEquals(300, BlockStoreResizer.capacityOf(file));
+
+        final SPVBlockStore store = new SPVBlockStore(PARAMS, file, 300, false);
+        try {
+            assertEquals(blocks.get(blocks.size() - 1), store.getChainHead());
+            for (final StoredBlock block : blocks.subList(blocks.size() - 100, blocks.size()))
+                assertNotNull(store.get(block.getHeader().getHash()));
+            // no record is overwritten until the new capacity is used up
+            final List<StoredBlock> more = extend(store, blocks.get(blocks.size() - 1), 200);
+            for (final StoredBlock block : blocks.subList(blocks.size() - 100, blocks.size()))
+                assertNotNull(store.get(block.getHeader().getHash()));
+            assertEquals(more.get(more.size() - 1), store.getChainHead());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void shrink() throws Exception {
+        final List<StoredBlock> blocks = fill(file, 300, 250); // ring has not wrapped
+        assertTrue(BlockStoreResizer.resize(file, 100));
+        assertFalse(BlockStoreResizer.resize(file, 100));
+
+        final SPVBlockStore store = new SPVBlockStore(PARAMS, file, 100, false);
+        try {
+            assertEquals(blocks.get(blocks.size() - 1), store.getChainHead());
+            for (final StoredBlock block : blocks.subList(blocks.size() - 100, blocks.size()))
+                assertNotNull(store.get(block.getHeader().getHash()));
+            assertNull(store.get(blocks.get(blocks.size() - 101).getHeader().getHash()));
+            extend(store, blocks.get(blocks.size() - 1), 10); // wraps right away
+        } finally {
+            store.close();
+        }
+    }
+
+    /** Fill a new store with a chain of headers, including genesis. */
+    static List<StoredBlock> fill(final File file, final int capacity, final int numBlocks)
+            throws BlockStoreException {
+        final SPVBlockStore store = new SPVBlockStore(PARAMS, file, capacity, false);
+        try {
+            final List<StoredBlock> blocks = new ArrayList<>();
+            blocks.add(store.getChainHead());
+            blocks.addAll(extend(store, store.getChainHead(), numBlocks - 1));
+            return blocks;
+        } finally {
+            store.close();
+        }
+    }
+
+    static List<StoredBlock> extend(final SPVBlockStore store, StoredBlock prev, final int numBlocks)
+            throws BlockStoreException {
+        final List<StoredBlock> blocks = new ArrayList<>(numBlocks);
+        for (int i = 0; i < numBlocks; i++) {
+            final Block prevHeader = prev.getHeader();
+            final Block header = new Block(PARAMS, Block.BLOCK_VERSION_BIP66, prevHeader.getHash(),
+                    Sha256Hash.of(prevHeader.getHash().getBytes()), prevHeader.getTimeSeconds() + 600,
+                    prevHeader.getDifficultyTarget(), i, Collections.<Transaction> emptyList()).cloneAsHeader();
+            prev = new StoredBlock(header, prev.getChainWork().add(BigInteger.ONE), prev.getHeight() + 1);
+            store.put(prev);
+            store.setChainHead(prev);
+            blocks.add(prev);
+        }
+        return blocks;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.service;
+
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Lookup time of the sync checkpoint in the textual checkpoints versus the memory-mapped index. Not part of the
+ * regular test run.
+ *
+ * @author agent
+ */
+@Ignore("benchmark, run manually")
+public class CheckpointIndexBenchmarkTest {
+    private static final int NUM_LOOKUPS = 20;
+
+    private static final Logger log = LoggerFactory.getLogger(CheckpointIndexBenchmarkTest.class);
+
+    @Test
+    public void textualVersusIndex() throws Exception {
+        for (int i = 0; i < CheckpointIndexTest.ASSET_DIRS.length; i++) {
+            final NetworkParameters params = CheckpointIndexTest.PARAMS[i];
+            Context.propagate(new Context(params));
+            final File textualFile = new File(CheckpointIndexTest.ASSET_DIRS[i], "checkpoints.txt");
+            final File indexFile = new File(CheckpointIndexTest.ASSET_DIRS[i], "checkpoints.bin");
+            long textualNanos = 0, indexNanos = 0;
+            for (final long time : CheckpointIndexTest.lookupTimes(params, NUM_LOOKUPS)) {
+                long start = System.nanoTime();
+                assertNotNull(CheckpointIndexTest.checkpointFromTextual(params, textualFile, time));
+                textualNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                assertNotNull(CheckpointIndexTest.checkpointFromIndex(params, indexFile, time));
+                indexNanos += System.nanoTime() - start;
+            }
+            log.info("{}: textual {} us, index {} us per lookup", CheckpointIndexTest.ASSET_DIRS[i],
+                    textualNanos / 1000 / NUM_LOOKUPS, indexNanos / 1000 / NUM_LOOKUPS);
+        }
+    }
+}
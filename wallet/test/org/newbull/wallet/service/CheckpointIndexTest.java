@@ -0,0 +1,117 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.service;
+
+import org.bitcoinj.core.CheckpointManager;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.params.TestNet3Params;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author agent
+ */
+public class CheckpointIndexTest {
+    static final String[] ASSET_DIRS = { "assets", "assets-prod" };
+    static final NetworkParameters[] PARAMS = { TestNet3Params.get(), MainNetParams.get() };
+    private static final int NUM_LOOKUPS = 20;
+
+    @Test
+    public void indexIsUpToDate() throws Exception {
+        for (int i = 0; i < ASSET_DIRS.length; i++) {
+            final ByteArrayOutputStream index = new ByteArrayOutputStream();
+            try (final InputStream textual = new FileInputStream(new File(ASSET_DIRS[i], "checkpoints.txt"))) {
+                CheckpointIndex.build(PARAMS[i], textual, index);
+            }
+            assertArrayEquals("stale index in " + ASSET_DIRS[i] + ", run CheckpointIndexTest.main()",
+                    index.toByteArray(), Files.readAllBytes(new File(ASSET_DIRS[i], "checkpoints.bin").toPath()));
+        }
+    }
+
+    @Test
+    public void agreesWithTextual() throws Exception {
+        for (int i = 0; i < ASSET_DIRS.length; i++) {
+            final NetworkParameters params = PARAMS[i];
+            Context.propagate(new Context(params));
+            final File textualFile = new File(ASSET_DIRS[i], "checkpoints.txt");
+            final File indexFile = new File(ASSET_DIRS[i], "checkpoints.bin");
+            for (final long time : lookupTimes(params, NUM_LOOKUPS))
+                assertEquals(checkpointFromTextual(params, textualFile, time),
+                        checkpointFromIndex(params, indexFile, time));
+        }
+    }
+
+    /** Times spread evenly from shortly after genesis until now. */
+    static long[] lookupTimes(final NetworkParameters params, final int numLookups) {
+        // CheckpointManager rejects times less than a week after genesis
+        final long from = params.getGenesisBlock().getTimeSeconds() + 60 * 60 * 24 * 8;
+        final long to = System.currentTimeMillis() / 1000;
+        final long[] times = new long[numLookups];
+        for (int j = 0; j < numLookups; j++)
+            times[j] = from + (to - from) * j / (numLookups - 1);
+        return times;
+    }
+
+    static StoredBlock checkpointFromTextual(final NetworkParameters params, final File textualFile,
+            final long time) throws Exception {
+        final BlockStore store = new MemoryBlockStore(params);
+        try (final InputStream is = new FileInputStream(textualFile)) {
+            CheckpointManager.checkpoint(params, is, store, time);
+        }
+        return store.getChainHead();
+    }
+
+    static StoredBlock checkpointFromIndex(final NetworkParameters params, final File indexFile, final long time)
+            throws Exception {
+        final BlockStore store = new MemoryBlockStore(params);
+        try (final FileInputStream is = new FileInputStream(indexFile);
+                final FileChannel channel = is.getChannel()) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            new CheckpointIndex(params, buffer).checkpoint(store, time);
+        }
+        return store.getChainHead();
+    }
+
+    /** Rebuild the indexes from the textual checkpoints. Run from the wallet directory. */
+    public static void main(final String[] args) throws IOException {
+        for (int i = 0; i < ASSET_DIRS.length; i++) {
+            try (final InputStream textual = new FileInputStream(new File(ASSET_DIRS[i], "checkpoints.txt"));
+                    final OutputStream index = new FileOutputStream(new File(ASSET_DIRS[i], "checkpoints.bin"))) {
+                CheckpointIndex.build(PARAMS[i], textual, index);
+            }
+        }
+    }
+}
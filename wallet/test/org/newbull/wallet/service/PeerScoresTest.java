@@ -0,0 +1,84 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.service;
+
+import com.google.common.net.HostAndPort;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author agent
+ */
+public class PeerScoresTest {
+    private static final String FAST = "1.2.3.4:8333", SLOW = "5.6.7.8:8333", PINGED = "[2001:db8::1]:8333";
+
+    @Test
+    public void ranking() throws Exception {
+        final PeerScores scores = PeerScores.load(tempFile());
+        scores.recordDownloadRate(SLOW, 1000, 1);
+        scores.recordDownloadRate(FAST, 50000, 1);
+        scores.recordPing(PINGED, 30, 1);
+        assertEquals(Arrays.asList(HostAndPort.fromString(FAST), HostAndPort.fromString(SLOW),
+                HostAndPort.fromString(PINGED)), scores.getBest(3));
+
+        // stalls weigh down the rate
+        for (int i = 0; i < 100; i++)
+            scores.recordStall(FAST, 2);
+        assertEquals(HostAndPort.fromString(SLOW), scores.getBest(1).get(0));
+    }
+
+    @Test
+    public void replacement() throws Exception {
+        final PeerScores scores = PeerScores.load(tempFile());
+        scores.recordDownloadRate(SLOW, 1000, 1);
+        assertNull(scores.getReplacement(SLOW, Arrays.asList(SLOW, PINGED)));
+        scores.recordDownloadRate(FAST, 3000, 1);
+        assertNull(scores.getReplacement(SLOW, Arrays.asList(SLOW, FAST))); // not fast enough to bother
+        scores.recordDownloadRate(FAST, 50000, 1);
+        assertEquals(FAST, scores.getReplacement(SLOW, Arrays.asList(SLOW, FAST)));
+        assertNull(scores.getReplacement(FAST, Arrays.asList(SLOW, FAST)));
+    }
+
+    @Test
+    public void keptAcrossRestarts() throws Exception {
+        final File file = tempFile();
+        final PeerScores scores = PeerScores.load(file);
+        scores.recordDownloadRate(FAST, 50000, 1);
+        scores.recordPing(PINGED, 30, 2);
+        for (int i = 0; i < PeerScores.MAX_PEERS + 10; i++)
+            scores.recordPing("10.0.0." + i + ":8333", 100, 0); // seen long ago
+        scores.save();
+
+        final PeerScores loaded = PeerScores.load(file);
+        assertEquals(PeerScores.MAX_PEERS, loaded.size());
+        assertEquals(HostAndPort.fromString(FAST), loaded.getBest(1).get(0));
+        assertEquals(HostAndPort.fromString(PINGED), loaded.getBest(2).get(1));
+    }
+
+    private static File tempFile() throws Exception {
+        final File file = File.createTempFile("peer-scores", ".txt");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.newbull.wallet.service;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.LegacyAddress;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.SPVBlockStore;
+import org.bitcoinj.utils.Threading;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author agent
+ */
+public class RecentBlocksCacheTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    private static final Address TO = LegacyAddress.fromKey(PARAMS, new ECKey());
+
+    private File file;
+    private SPVBlockStore blockStore;
+    private BlockChain blockChain;
+    private RecentBlocksCache recentBlocks;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        file = File.createTempFile("spvchain", null);
+        file.delete();
+        file.deleteOnExit();
+        blockStore = new SPVBlockStore(PARAMS, file, 20, true);
+        blockChain = new BlockChain(PARAMS, blockStore);
+        recentBlocks = new RecentBlocksCache(blockStore, 5);
+        recentBlocks.fill(blockChain.getChainHead());
+        blockChain.addNewBestBlockListener(Threading.SAME_THREAD, recentBlocks);
+        blockChain.addReorganizeListener(Threading.SAME_THREAD, recentBlocks);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        blockStore.close();
+    }
+
+    @Test
+    public void followsBestChainAcrossReorganization() throws Exception {
+        Block fork = null;
+        Block block = PARAMS.getGenesisBlock();
+        for (int i = 1; i <= 6; i++) {
+            block = block.createNextBlock(TO);
+            blockChain.add(block);
+            if (i == 3)
+                fork = block;
+        }
+        assertEquals(block.getHash(), recentBlocks.get(1).get(0).getHeader().getHash());
+
+        // a longer side chain takes over from height 4
+        for (int i = 4; i <= 8; i++) {
+            fork = fork.createNextBlock(TO);
+            blockChain.add(fork);
+        }
+        assertEquals(8, blockChain.getBestChainHeight());
+
+        final List<StoredBlock> cached = recentBlocks.get(10);
+        assertEquals(5, cached.size());
+        assertEquals(fork.getHash(), cached.get(0).getHeader().getHash());
+        for (int i = 1; i < cached.size(); i++)
+            assertEquals(blockStore.get(cached.get(i - 1).getHeader().getPrevBlockHash()), cached.get(i));
+    }
+
+    @Test
+    public void followsReorganizationWithoutFurtherBlocks() throws Exception {
+        Block fork = null;
+        Block block = PARAMS.getGenesisBlock();
+        for (int i = 1; i <= 4; i++) {
+            block = block.createNextBlock(TO);
+            blockChain.add(block);
+            if (i == 2)
+                fork = block;
+        }
+
+        // the side chain takes over with its last block
+        for (int i = 3; i <= 5; i++) {
+            fork = fork.createNextBlock(TO);
+            blockChain.add(fork);
+        }
+        assertEquals(5, blockChain.getBestChainHeight());
+
+        final List<StoredBlock> cached = recentBlocks.get(10);
+        assertEquals(5, cached.size());
+        assertEquals(fork.getHash(), cached.get(0).getHeader().getHash());
+        for (int i = 1; i < cached.size(); i++)
+            assertEquals(cached.get(i - 1).getHeader().getPrevBlockHash(), cached.get(i).getHeader().getHash());
+    }
+}
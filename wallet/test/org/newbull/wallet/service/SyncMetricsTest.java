@@ -0,0 +1,97 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.service;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class SyncMetricsTest {
+    private static final long START = 1600000000000L;
+
+    @Test
+    public void rates() {
+        final SyncMetrics metrics = new SyncMetrics(20, 800, 10);
+        assertNull(metrics.sample(START));
+        metrics.onChainDownloadStarted(100);
+        metrics.onBlockProcessed(true, 99);
+        metrics.onBlockProcessed(true, 98);
+        metrics.onBlockProcessed(false, 97);
+        metrics.onBlockProcessed(true, 96);
+
+        final SyncMetrics.Sample sample = metrics.sample(START + 2000);
+        assertEquals(2.0, sample.blocksPerSec, 0.001);
+        assertEquals(3, sample.filteredBlocks);
+        assertEquals(1, sample.fullBlocks);
+        assertEquals(96, sample.blocksLeft);
+        assertEquals(2000, sample.processingMs + sample.networkMs);
+        assertEquals(sample, metrics.getLatest());
+    }
+
+    @Test
+    public void stallCountedOncePerEpisode() {
+        final SyncMetrics metrics = new SyncMetrics(20, 800, 100);
+        metrics.onChainDownloadStarted(100);
+        for (int i = 0; i <= 60; i++)
+            metrics.sample(START + i * 1000);
+        assertEquals(1, metrics.getLatest().stalls);
+
+        metrics.onChainDownloadStarted(0); // download done, episode ends
+        metrics.sample(START + 61 * 1000);
+        metrics.onChainDownloadStarted(100);
+        for (int i = 62; i <= 90; i++)
+            metrics.sample(START + i * 1000);
+        assertEquals(2, metrics.getLatest().stalls);
+    }
+
+    @Test
+    public void pauseIsNotAveraged() {
+        final SyncMetrics metrics = new SyncMetrics(20, 800, 10);
+        metrics.sample(START);
+        metrics.onChainDownloadStarted(0);
+        metrics.sample(START + 1000);
+        metrics.pauseSampling();
+
+        assertNull(metrics.sample(START + 600000));
+        metrics.onChainDownloadStarted(10);
+        metrics.onBlockProcessed(true, 9);
+        metrics.onBlockProcessed(true, 8);
+        assertEquals(2.0, metrics.sample(START + 601000).blocksPerSec, 0.001);
+    }
+
+    @Test
+    public void historyIsBounded() throws Exception {
+        final SyncMetrics metrics = new SyncMetrics(20, 800, 10);
+        for (int i = 0; i <= 30; i++)
+            metrics.sample(START + i * 1000);
+        assertEquals(10, metrics.getSamples().size());
+
+        final StringWriter csv = new StringWriter();
+        metrics.writeCsv(csv);
+        final String[] lines = csv.toString().split("\n");
+        assertEquals(11, lines.length);
+        assertTrue(lines[0].startsWith("time,blocks_per_sec,"));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class SyncProgressAggregatorTest {
+    @Test
+    public void batches() {
+        final SyncProgressAggregator progress = new SyncProgressAggregator(100);
+        progress.onDownloadStarted(1000);
+        assertTrue(progress.onBlock(999));
+        assertFalse(progress.onBlock(998));
+        assertFalse(progress.onBlock(997));
+
+        final SyncProgressAggregator.Batch batch = progress.drain(1003);
+        assertEquals(3, batch.numBlocks);
+        assertEquals(997, batch.blocksLeft);
+        assertEquals(0, batch.changedPercent);
+        assertTrue(progress.onBlock(996)); // next batch
+    }
+
+    @Test
+    public void onlyVisibleChanges() {
+        final SyncProgressAggregator progress = new SyncProgressAggregator(100);
+        progress.onDownloadStarted(1000);
+        progress.onBlock(999);
+        SyncProgressAggregator.Batch batch = progress.drain(150);
+        assertEquals(0, batch.changedPercent);
+        assertTrue(batch.persistHeight); // first checkpoint crossed
+
+        progress.onBlock(995);
+        batch = progress.drain(155);
+        assertEquals(-1, batch.changedPercent);
+        assertFalse(batch.persistHeight);
+
+        progress.onBlock(989);
+        batch = progress.drain(201);
+        assertEquals(1, batch.changedPercent);
+        assertTrue(batch.persistHeight);
+
+        progress.onBlock(0);
+        batch = progress.drain(1150);
+        assertEquals(100, batch.changedPercent);
+        assertTrue(batch.persistHeight);
+    }
+}
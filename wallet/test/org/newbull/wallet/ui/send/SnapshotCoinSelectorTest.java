@@ -0,0 +1,84 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.newbull.wallet.ui.send;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.SegwitAddress;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.DefaultCoinSelector;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author agent
+ */
+public class SnapshotCoinSelectorTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private final List<TransactionOutput> candidates = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        final SegwitAddress address = SegwitAddress.fromKey(PARAMS, new ECKey());
+        final Random random = new Random(0);
+        for (int i = 0; i < 500; i++) {
+            final Transaction tx = new Transaction(PARAMS);
+            tx.addOutput(Coin.valueOf(1 + random.nextInt(1000000)), address);
+            if (i % 10 != 0) { // some remain unconfirmed and unselectable
+                tx.getConfidence().setConfidenceType(ConfidenceType.BUILDING);
+                tx.getConfidence().setDepthInBlocks(1 + random.nextInt(100));
+            }
+            candidates.add(tx.getOutput(0));
+        }
+    }
+
+    @Test
+    public void sameAsDefault() {
+        final SnapshotCoinSelector selector = new SnapshotCoinSelector();
+        for (final long target : new long[] { 1, 1000, 5000000, 100000000, 250000000 }) {
+            final CoinSelection expected = new DefaultCoinSelector().select(Coin.valueOf(target), candidates);
+            final CoinSelection actual = selector.select(Coin.valueOf(target), new ArrayList<>(candidates));
+            assertEquals(expected.valueGathered, actual.valueGathered);
+            assertEquals(new ArrayList<>(expected.gathered), new ArrayList<>(actual.gathered));
+        }
+    }
+
+    @Test
+    public void changedCandidates() {
+        final SnapshotCoinSelector selector = new SnapshotCoinSelector();
+        selector.select(Coin.COIN, candidates);
+        final List<TransactionOutput> fewer = new ArrayList<>(candidates.subList(0, 100));
+        final CoinSelection expected = new DefaultCoinSelector().select(Coin.COIN, fewer);
+        final CoinSelection actual = selector.select(Coin.COIN, fewer);
+        assertEquals(new ArrayList<>(expected.gathered), new ArrayList<>(actual.gathered));
+    }
+}